@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import com.jmstoolkit.beans.MessageTableRecord;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.jms.JMSException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time to export a million messages to a file, which should be close to
+ * the time the disk needs for the bytes (about 400 MB uncompressed).
+ * Records are reused so only the encoding and the writing are measured.
+ *
+ * @author Scott Douglass
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageExporterBenchmark {
+
+  /** Messages in the exported queue. */
+  private static final int MESSAGES = 1000000;
+  /** Distinct records cycled through. */
+  private static final int RECORDS = 1024;
+
+  @Param({"NDJSON", "CSV"})
+  private MessageExporter.Format format;
+
+  @Param({"false", "true"})
+  private boolean gzip;
+
+  private MessageTableRecord[] records;
+  private Path file;
+
+  @Setup
+  public void setUp() throws IOException, JMSException {
+    records = new MessageTableRecord[RECORDS];
+    final StringBuilder body = new StringBuilder();
+    while (body.length() < 200) {
+      body.append("<order id=\"1234\">lorem ipsum, \"quoted\"</order>\n");
+    }
+    for (int i = 0; i < RECORDS; i++) {
+      MessageTableRecord record = new MessageTableRecord();
+      record.setJMSMessageID("ID:bench-host-40000-1500000000000-1:1:1:1:" + i);
+      record.setJMSCorrelationID("corr-" + (i % 16));
+      record.setJMSTimestamp(1500000000000L + i);
+      record.setJMSPriority(4);
+      record.setJMSDeliveryMode(2);
+      record.setJMSType("bench");
+      record.setText(body.toString() + i);
+      Properties properties = new Properties();
+      properties.put("region", "EU");
+      properties.put("sequence", Integer.toString(i));
+      record.setProperties(properties);
+      records[i] = record;
+    }
+    file = Files.createTempFile("jmstoolkit-export", gzip ? ".gz" : ".dat");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  /**
+   * Export MESSAGES records.
+   *
+   * @return bytes written, so the work is not optimized away
+   * @throws IOException if the file can not be written
+   * @throws JMSException never, the records are in memory
+   */
+  @Benchmark
+  public long export() throws IOException, JMSException {
+    try (MessageExporter exporter = new MessageExporter(file, format, gzip)) {
+      for (int i = 0; i < MESSAGES; i++) {
+        exporter.write(records[i & (RECORDS - 1)]);
+      }
+      return exporter.getBytes();
+    }
+  }
+}
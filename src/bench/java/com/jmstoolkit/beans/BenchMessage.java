@@ -0,0 +1,351 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageFormatException;
+import javax.jms.TextMessage;
+
+/**
+ * An in-memory TextMessage, so the benchmarks measure our code and not a
+ * broker client. Every field is a plain field; properties keep their
+ * types like a real provider's would. The JMS 2.0 methods have no
+ * Override as the test classpath may also carry the JMS 1.1 API.
+ *
+ * @author Scott Douglass
+ */
+public class BenchMessage implements TextMessage {
+
+  private String messageID;
+  private long timestamp;
+  private String correlationID;
+  private Destination replyTo;
+  private Destination destination;
+  private int deliveryMode = 2;
+  private boolean redelivered;
+  private String type;
+  private long expiration;
+  private long deliveryTime;
+  private int priority = 4;
+  private final Map<String, Object> properties = new LinkedHashMap<>();
+  private String text;
+
+  /**
+   * A message like those on a busy order queue. The same i always gives
+   * the same message, so runs are comparable.
+   *
+   * @param i the message number
+   * @param propertyCount number of properties
+   * @param bodySize characters of text
+   * @return the message
+   */
+  public static BenchMessage create(int i, int propertyCount, int bodySize) {
+    final BenchMessage message = new BenchMessage();
+    message.messageID = "ID:bench-host-40000-1500000000000-1:1:1:1:" + i;
+    message.timestamp = 1500000000000L + i * 7L;
+    message.correlationID = "corr-" + (i % 16);
+    message.type = "bench";
+    message.priority = i % 10;
+    message.expiration = i % 3 == 0 ? 0 : message.timestamp + 60000;
+    for (int p = 0; p < propertyCount; p++) {
+      switch (p % 3) {
+        case 0:
+          message.properties.put("region" + p, p % 2 == 0 ? "EU" : "US");
+          break;
+        case 1:
+          message.properties.put("sequence" + p, i + p);
+          break;
+        default:
+          message.properties.put("amount" + p, (i % 1000) / 10.0);
+          break;
+      }
+    }
+    final StringBuilder body = new StringBuilder(bodySize);
+    while (body.length() < bodySize) {
+      body.append("<order id=\"").append(i).append("\">lorem ipsum</order>\n");
+    }
+    body.setLength(bodySize);
+    message.text = body.toString();
+    return message;
+  }
+
+  @Override
+  public String getJMSMessageID() {
+    return messageID;
+  }
+
+  @Override
+  public void setJMSMessageID(String id) {
+    this.messageID = id;
+  }
+
+  @Override
+  public long getJMSTimestamp() {
+    return timestamp;
+  }
+
+  @Override
+  public void setJMSTimestamp(long inTimestamp) {
+    this.timestamp = inTimestamp;
+  }
+
+  @Override
+  public byte[] getJMSCorrelationIDAsBytes() {
+    return null;
+  }
+
+  @Override
+  public void setJMSCorrelationIDAsBytes(byte[] correlationIDBytes) {
+    // not needed by the benchmarks
+  }
+
+  @Override
+  public void setJMSCorrelationID(String inCorrelationID) {
+    this.correlationID = inCorrelationID;
+  }
+
+  @Override
+  public String getJMSCorrelationID() {
+    return correlationID;
+  }
+
+  @Override
+  public Destination getJMSReplyTo() {
+    return replyTo;
+  }
+
+  @Override
+  public void setJMSReplyTo(Destination inReplyTo) {
+    this.replyTo = inReplyTo;
+  }
+
+  @Override
+  public Destination getJMSDestination() {
+    return destination;
+  }
+
+  @Override
+  public void setJMSDestination(Destination inDestination) {
+    this.destination = inDestination;
+  }
+
+  @Override
+  public int getJMSDeliveryMode() {
+    return deliveryMode;
+  }
+
+  @Override
+  public void setJMSDeliveryMode(int inDeliveryMode) {
+    this.deliveryMode = inDeliveryMode;
+  }
+
+  @Override
+  public boolean getJMSRedelivered() {
+    return redelivered;
+  }
+
+  @Override
+  public void setJMSRedelivered(boolean inRedelivered) {
+    this.redelivered = inRedelivered;
+  }
+
+  @Override
+  public String getJMSType() {
+    return type;
+  }
+
+  @Override
+  public void setJMSType(String inType) {
+    this.type = inType;
+  }
+
+  @Override
+  public long getJMSExpiration() {
+    return expiration;
+  }
+
+  @Override
+  public void setJMSExpiration(long inExpiration) {
+    this.expiration = inExpiration;
+  }
+
+  public long getJMSDeliveryTime() {
+    return deliveryTime;
+  }
+
+  public void setJMSDeliveryTime(long inDeliveryTime) {
+    this.deliveryTime = inDeliveryTime;
+  }
+
+  @Override
+  public int getJMSPriority() {
+    return priority;
+  }
+
+  @Override
+  public void setJMSPriority(int inPriority) {
+    this.priority = inPriority;
+  }
+
+  @Override
+  public void clearProperties() {
+    properties.clear();
+  }
+
+  @Override
+  public boolean propertyExists(String name) {
+    return properties.containsKey(name);
+  }
+
+  @Override
+  public boolean getBooleanProperty(String name) throws JMSException {
+    return Boolean.parseBoolean(getStringProperty(name));
+  }
+
+  @Override
+  public byte getByteProperty(String name) throws JMSException {
+    return Byte.parseByte(number(name));
+  }
+
+  @Override
+  public short getShortProperty(String name) throws JMSException {
+    return Short.parseShort(number(name));
+  }
+
+  @Override
+  public int getIntProperty(String name) throws JMSException {
+    return Integer.parseInt(number(name));
+  }
+
+  @Override
+  public long getLongProperty(String name) throws JMSException {
+    return Long.parseLong(number(name));
+  }
+
+  @Override
+  public float getFloatProperty(String name) throws JMSException {
+    return Float.parseFloat(number(name));
+  }
+
+  @Override
+  public double getDoubleProperty(String name) throws JMSException {
+    return Double.parseDouble(number(name));
+  }
+
+  private String number(String name) throws JMSException {
+    final String value = getStringProperty(name);
+    if (value == null) {
+      throw new MessageFormatException("No property " + name);
+    }
+    return value;
+  }
+
+  /**
+   * Converts like a provider does, so the conversion cost is measured.
+   */
+  @Override
+  public String getStringProperty(String name) {
+    final Object value = properties.get(name);
+    return value == null ? null : value.toString();
+  }
+
+  @Override
+  public Object getObjectProperty(String name) {
+    return properties.get(name);
+  }
+
+  @Override
+  public Enumeration getPropertyNames() {
+    return Collections.enumeration(properties.keySet());
+  }
+
+  @Override
+  public void setBooleanProperty(String name, boolean value) {
+    properties.put(name, value);
+  }
+
+  @Override
+  public void setByteProperty(String name, byte value) {
+    properties.put(name, value);
+  }
+
+  @Override
+  public void setShortProperty(String name, short value) {
+    properties.put(name, value);
+  }
+
+  @Override
+  public void setIntProperty(String name, int value) {
+    properties.put(name, value);
+  }
+
+  @Override
+  public void setLongProperty(String name, long value) {
+    properties.put(name, value);
+  }
+
+  @Override
+  public void setFloatProperty(String name, float value) {
+    properties.put(name, value);
+  }
+
+  @Override
+  public void setDoubleProperty(String name, double value) {
+    properties.put(name, value);
+  }
+
+  @Override
+  public void setStringProperty(String name, String value) {
+    properties.put(name, value);
+  }
+
+  @Override
+  public void setObjectProperty(String name, Object value) {
+    properties.put(name, value);
+  }
+
+  @Override
+  public void acknowledge() {
+    // nothing to acknowledge
+  }
+
+  @Override
+  public void clearBody() {
+    text = null;
+  }
+
+  @Override
+  public void setText(String inText) {
+    this.text = inText;
+  }
+
+  @Override
+  public String getText() {
+    return text;
+  }
+
+  public <T> T getBody(Class<T> c) {
+    return c.cast(text);
+  }
+
+  public boolean isBodyAssignableTo(Class c) {
+    return c.isAssignableFrom(String.class);
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Time for MessageTableModel.onMessage to take a burst of messages from
+ * the listener thread, up to where the drain timer would pick them up.
+ *
+ * @author Scott Douglass
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageListenerBenchmark {
+
+  @Param({"1000", "10000"})
+  private int rows;
+
+  @Param({"10"})
+  private int properties;
+
+  @Param({"1024"})
+  private int bodySize;
+
+  @Param({"false", "true"})
+  private boolean headersOnly;
+
+  private BenchMessage[] messages;
+
+  @Setup
+  public void setUp() {
+    messages = new BenchMessage[rows];
+    for (int i = 0; i < rows; i++) {
+      messages[i] = BenchMessage.create(i, properties, bodySize);
+    }
+  }
+
+  /**
+   * Deliver the burst to a new model.
+   *
+   * @return the records waiting for the drain
+   */
+  @Benchmark
+  public int onMessage() {
+    final MessageTableModel model = new MessageTableModel();
+    model.setHeadersOnly(headersOnly);
+    for (BenchMessage message : messages) {
+      model.onMessage(message);
+    }
+    return model.getPending();
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.jms.JMSException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of one repaint of the message table: every cell of a screenful of
+ * rows. The result should not depend on the number of rows in the model,
+ * and with -prof gc it should show no allocation.
+ *
+ * @author Scott Douglass
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageTableModelBenchmark {
+
+  /** Rows visible in a typical table viewport. */
+  private static final int VISIBLE_ROWS = 40;
+
+  @Param({"1000", "10000", "100000", "500000"})
+  private int rows;
+
+  private MessageTableModel model;
+  private int firstRow = 0;
+
+  @Setup
+  public void setUp() throws JMSException {
+    List<MessageTableRecord> records = new ArrayList<>(rows);
+    long now = 1500000000000L;
+    for (int i = 0; i < rows; i++) {
+      MessageTableRecord record = new MessageTableRecord();
+      record.setJMSMessageID("ID:bench-host-40000-1500000000000-1:1:1:1:" + i);
+      record.setJMSCorrelationID("corr-" + (i % 16));
+      record.setJMSTimestamp(now + i);
+      record.setJMSPriority(4);
+      record.setJMSDeliveryMode(2);
+      record.setJMSType("bench");
+      record.setText("message body " + i);
+      record.setProperties(new Properties());
+      records.add(record);
+    }
+    model = new MessageTableModel();
+    model.setData(records);
+  }
+
+  /**
+   * Read every cell of the viewport, scrolling one screen per call.
+   *
+   * @param blackhole sink for the cell values
+   */
+  @Benchmark
+  public void repaint(Blackhole blackhole) {
+    final int columns = model.getColumnCount();
+    for (int row = firstRow; row < firstRow + VISIBLE_ROWS; row++) {
+      for (int column = 0; column < columns; column++) {
+        blackhole.consume(model.getValueAt(row, column));
+      }
+    }
+    firstRow += VISIBLE_ROWS;
+    if (firstRow + VISIBLE_ROWS > rows) {
+      firstRow = 0;
+    }
+  }
+}
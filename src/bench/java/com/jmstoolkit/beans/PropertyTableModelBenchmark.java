@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of one repaint of the property table of the selected message:
+ * every cell of every property.
+ *
+ * @author Scott Douglass
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PropertyTableModelBenchmark {
+
+  @Param({"10", "100", "1000"})
+  private int rows;
+
+  private PropertyTableModel model;
+
+  @Setup
+  public void setUp() {
+    final Properties properties = new Properties();
+    for (int i = 0; i < rows; i++) {
+      properties.put("property" + i, "value " + i);
+    }
+    model = new PropertyTableModel();
+    model.setData(properties);
+  }
+
+  /**
+   * Read every cell.
+   *
+   * @param blackhole sink for the cell values
+   */
+  @Benchmark
+  public void repaint(Blackhole blackhole) {
+    final int rowCount = model.getRowCount();
+    final int columns = model.getColumnCount();
+    for (int row = 0; row < rowCount; row++) {
+      for (int column = 0; column < columns; column++) {
+        blackhole.consume(model.getValueAt(row, column));
+      }
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of formatting one JMSTimestamp: with a SimpleDateFormat, as the
+ * message table did on every paint, and with CellText, as it now does
+ * once per row. Timestamps step by a little over a second so neither can
+ * reuse its last result, except in cellTextSameSecond.
+ *
+ * @author Scott Douglass
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimestampFormatBenchmark {
+
+  private final SimpleDateFormat dateTime = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+  private long timestamp = 1500000000000L;
+
+  /**
+   * Format from a long, as getValueAt used to.
+   *
+   * @return the formatted timestamp
+   */
+  @Benchmark
+  public String formatLong() {
+    timestamp += 1009;
+    return dateTime.format(timestamp);
+  }
+
+  /**
+   * Format from a Date, as the formatter is usually called.
+   *
+   * @return the formatted timestamp
+   */
+  @Benchmark
+  public String formatDate() {
+    timestamp += 1009;
+    return dateTime.format(new Date(timestamp));
+  }
+
+  /**
+   * Format with the thread safe formatter records use.
+   *
+   * @return the formatted timestamp
+   */
+  @Benchmark
+  public String cellText() {
+    timestamp += 1009;
+    return CellText.timestamp(timestamp);
+  }
+
+  /**
+   * Messages sent in the same second share the text of the first.
+   *
+   * @return the formatted timestamp
+   */
+  @Benchmark
+  public String cellTextSameSecond() {
+    timestamp += 1;
+    return CellText.timestamp(timestamp);
+  }
+}
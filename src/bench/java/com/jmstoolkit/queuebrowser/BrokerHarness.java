@@ -0,0 +1,292 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.queuebrowser;
+
+import com.jmstoolkit.DrainEngine;
+import com.jmstoolkit.JmsSetup;
+import com.jmstoolkit.beans.MessageTableRecord;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.naming.Context;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.springframework.jms.core.SessionCallback;
+
+/**
+ * End to end load test against an ActiveMQ broker started in this JVM.
+ * For each queue size the queue is filled, browsed the way the browser
+ * does it, consumed the way the command line listen does it, filled again
+ * and drained with DrainEngine, all through JNDI, JmsSetup and its
+ * CachingConnectionFactory.
+ *
+ * Each phase appends one JSON line to the -out file (and prints it):
+ * phase, messages, message size, milliseconds, messages per second and
+ * peak heap. The broker runs in the same JVM, so peak heap includes the
+ * messages it holds; compare runs with each other, not with the GUI.
+ * ActiveMQ browses a queue of a million messages slowly (over ten
+ * minutes here), so leave 1000000 out of -sizes for a quick run.
+ * <pre>
+ * -sizes 10000,100000,1000000   messages per run
+ * -messageSize 1024             characters of text per message
+ * -out harness.ndjson           results file, appended to
+ * </pre>
+ *
+ * @author Scott Douglass
+ */
+public final class BrokerHarness {
+
+  private static final String BROKER_NAME = "harness";
+  private static final int CHUNK_SIZE = 500;
+  private static final long RECEIVE_TIMEOUT = 2000L;
+
+  private final JmsSetup jmsSetup;
+  private final int messageSize;
+  private final PrintStream out;
+  private final String run = Long.toString(System.currentTimeMillis());
+
+  private BrokerHarness(JmsSetup inJmsSetup, int inMessageSize, PrintStream inOut) {
+    this.jmsSetup = inJmsSetup;
+    this.messageSize = inMessageSize;
+    this.out = inOut;
+  }
+
+  /**
+   *
+   * @param args see the class comment
+   * @throws Exception if the broker or a phase fails
+   */
+  public static void main(String[] args) throws Exception {
+    final List<Integer> sizes = new ArrayList<>();
+    int messageSize = 1024;
+    String outFile = "harness.ndjson";
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "-sizes":
+          for (String size : args[i + 1].split(",")) {
+            sizes.add(Integer.parseInt(size.trim()));
+          }
+          break;
+        case "-messageSize":
+          messageSize = Integer.parseInt(args[i + 1]);
+          break;
+        case "-out":
+          outFile = args[i + 1];
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    if (sizes.isEmpty()) {
+      sizes.add(10000);
+      sizes.add(100000);
+      sizes.add(1000000);
+    }
+
+    final Path data = Files.createTempDirectory("jmstoolkit-harness");
+    final BrokerService broker = startBroker(data);
+    System.setProperty(Context.INITIAL_CONTEXT_FACTORY,
+      "org.apache.activemq.jndi.ActiveMQInitialContextFactory");
+    System.setProperty(Context.PROVIDER_URL, "vm://" + BROKER_NAME + "?create=false");
+    final JmsSetup jmsSetup = new JmsSetup(new Properties(), 1);
+    try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(outFile),
+      StandardOpenOption.CREATE, StandardOpenOption.APPEND), true, "UTF-8")) {
+      jmsSetup.setConnectionFactory("ConnectionFactory");
+      final BrokerHarness harness = new BrokerHarness(jmsSetup, messageSize, out);
+      for (int size : sizes) {
+        final Queue queue = (Queue) jmsSetup.setDestination("dynamicQueues/harness." + size);
+        harness.runAll(queue, size);
+      }
+    } finally {
+      jmsSetup.destroy();
+      broker.stop();
+      broker.waitUntilStopped();
+    }
+  }
+
+  private static BrokerService startBroker(Path data) throws Exception {
+    final BrokerService broker = new BrokerService();
+    broker.setBrokerName(BROKER_NAME);
+    broker.setPersistent(false);
+    broker.setUseJmx(false);
+    broker.setUseShutdownHook(false);
+    broker.setDataDirectoryFile(data.toFile());
+    broker.setTmpDataDirectory(data.resolve("tmp").toFile());
+    // messages past the memory limit go to the temporary store, and a
+    // browse has to see all of them
+    final PolicyEntry policy = new PolicyEntry();
+    policy.setQueue(">");
+    policy.setMaxBrowsePageSize(Integer.MAX_VALUE);
+    policy.setProducerFlowControl(false);
+    final PolicyMap policies = new PolicyMap();
+    policies.setDefaultEntry(policy);
+    broker.setDestinationPolicy(policies);
+    broker.getSystemUsage().getMemoryUsage().setLimit(256L * 1024 * 1024);
+    broker.start();
+    broker.waitUntilStarted();
+    return broker;
+  }
+
+  private void runAll(Queue queue, int size) throws JMSException, InterruptedException, IOException {
+    report("load", size, load(queue, size));
+    report("browse", size, browse(queue, size));
+    report("listen", size, listen(queue, size));
+    load(queue, size);
+    report("drain", size, drain(queue, size));
+  }
+
+  /**
+   * Peak heap is measured from here.
+   */
+  private static long start() {
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+    return System.nanoTime();
+  }
+
+  private static long peakHeap() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  private void report(String phase, int size, long nanos) {
+    final double millis = nanos / 1e6;
+    final String line = String.format(Locale.ROOT,
+      "{\"run\":%s,\"phase\":\"%s\",\"messages\":%d,\"messageSize\":%d,"
+      + "\"millis\":%.1f,\"perSecond\":%.1f,\"peakHeapBytes\":%d,\"java\":\"%s\"}",
+      run, phase, size, messageSize, millis, size * 1000.0 / Math.max(millis, 0.001),
+      peakHeap(), System.getProperty("java.version"));
+    out.println(line);
+    System.out.println(line);
+  }
+
+  private static void check(String phase, long expected, long actual) {
+    if (expected != actual) {
+      throw new IllegalStateException(phase + ": expected " + expected
+        + " messages, got " + actual);
+    }
+  }
+
+  /**
+   * Fill the queue with one cached producer.
+   */
+  private long load(final Queue queue, final int size) {
+    final char[] text = new char[messageSize];
+    Arrays.fill(text, 'x');
+    final String body = new String(text);
+    final long started = start();
+    jmsSetup.getJmsTemplate().execute(new SessionCallback<Void>() {
+      @Override
+      public Void doInJms(Session session) throws JMSException {
+        final MessageProducer producer = session.createProducer(queue);
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        for (int i = 0; i < size; i++) {
+          final Message message = session.createTextMessage(body);
+          message.setIntProperty("sequence", i);
+          message.setStringProperty("region", i % 2 == 0 ? "EU" : "US");
+          producer.send(message);
+        }
+        return null;
+      }
+    }, true);
+    return System.nanoTime() - started;
+  }
+
+  /**
+   * Browse as QueueBrowserView does, converting every message.
+   */
+  private long browse(Queue queue, int size) {
+    final long started = start();
+    final int[] records = new int[1];
+    final int count = jmsSetup.getJmsTemplate().browse(queue,
+      new QueueBrowserCallback(CHUNK_SIZE, false, null, null) {
+      @Override
+      protected void publishChunk(List<MessageTableRecord> chunk) {
+        records[0] += chunk.size();
+      }
+    });
+    final long elapsed = System.nanoTime() - started;
+    check("browse", size, count);
+    check("browse", size, records[0]);
+    return elapsed;
+  }
+
+  /**
+   * Consume and convert every message, as the command line listen does.
+   */
+  private long listen(final Queue queue, final int size) {
+    final long started = start();
+    final long count = jmsSetup.getJmsTemplate().execute(new SessionCallback<Long>() {
+      @Override
+      public Long doInJms(Session session) throws JMSException {
+        final MessageConsumer consumer = session.createConsumer(queue);
+        long received = 0;
+        try {
+          Message message = consumer.receive(RECEIVE_TIMEOUT);
+          while (message != null) {
+            MessageTableRecord.fromMessage(message, false);
+            received++;
+            message = received < size ? consumer.receive(RECEIVE_TIMEOUT) : null;
+          }
+        } finally {
+          consumer.close();
+        }
+        return received;
+      }
+    }, true);
+    final long elapsed = System.nanoTime() - started;
+    check("listen", size, count);
+    return elapsed;
+  }
+
+  private long drain(Queue queue, int size) throws JMSException, InterruptedException {
+    final long started = start();
+    final DrainEngine engine = new DrainEngine(
+      jmsSetup.getConnectionFactory().getTargetConnectionFactory(), queue);
+    final long count = engine.run();
+    // the last consumer waits one receive timeout to see the queue is empty
+    final long elapsed = System.nanoTime() - started;
+    check("drain", size, count);
+    return elapsed;
+  }
+}
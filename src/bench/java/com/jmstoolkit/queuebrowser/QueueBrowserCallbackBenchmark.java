@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.queuebrowser;
+
+import com.jmstoolkit.beans.BenchMessage;
+import com.jmstoolkit.beans.MessageIndex;
+import com.jmstoolkit.beans.MessageTableRecord;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.jms.JMSException;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Time for the browse callback to convert a queue of messages into table
+ * records and hand them on in chunks, without a broker: the enumeration
+ * is over in-memory messages.
+ *
+ * @author Scott Douglass
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class QueueBrowserCallbackBenchmark {
+
+  /** Records per chunk, as QueueBrowserView uses. */
+  private static final int CHUNK_SIZE = 500;
+
+  @Param({"1000", "100000"})
+  private int rows;
+
+  @Param({"10"})
+  private int properties;
+
+  @Param({"1024"})
+  private int bodySize;
+
+  @Param({"false", "true"})
+  private boolean headersOnly;
+
+  @Param({"false", "true"})
+  private boolean index;
+
+  private List<BenchMessage> messages;
+
+  @Setup
+  public void setUp() {
+    final BenchMessage[] created = new BenchMessage[rows];
+    for (int i = 0; i < rows; i++) {
+      created[i] = BenchMessage.create(i, properties, bodySize);
+    }
+    messages = Arrays.asList(created);
+  }
+
+  /**
+   * Browse the whole queue once.
+   *
+   * @param blackhole sink for the chunks
+   * @return the number of records
+   * @throws JMSException never, the messages are in memory
+   */
+  @Benchmark
+  public int browse(final Blackhole blackhole) throws JMSException {
+    final QueueBrowserCallback callback = new QueueBrowserCallback(CHUNK_SIZE,
+      headersOnly, index ? new MessageIndex() : null, null) {
+      @Override
+      protected void publishChunk(List<MessageTableRecord> chunk) {
+        blackhole.consume(chunk);
+      }
+    };
+    return callback.doInJms(null, new Browser());
+  }
+
+  /**
+   * Enumerates the prepared messages.
+   */
+  private final class Browser implements QueueBrowser {
+
+    @Override
+    public Queue getQueue() {
+      return null;
+    }
+
+    @Override
+    public String getMessageSelector() {
+      return null;
+    }
+
+    @Override
+    public Enumeration getEnumeration() {
+      return Collections.enumeration(messages);
+    }
+
+    @Override
+    public void close() {
+      // nothing to close
+    }
+  }
+}
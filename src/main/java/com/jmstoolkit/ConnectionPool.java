@@ -0,0 +1,295 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Session;
+import org.springframework.jms.JmsException;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.connection.UserCredentialsConnectionFactoryAdapter;
+
+/**
+ * One CachingConnectionFactory per connection factory name, so switching
+ * back to a factory used before finds its connection, sessions and
+ * producers still open.
+ *
+ * A daemon thread checks the pooled connections every check
+ * milliseconds: a broken one is reset, to reconnect on next use, and a
+ * factory not used for idle milliseconds is closed, unless it is the
+ * current one. Only factories holding an open connection are checked,
+ * with a temporary queue created and deleted, which the broker has to
+ * answer; connections that fail in between are reset by the exception
+ * listener CachingConnectionFactory registers.
+ *
+ * @author Scott Douglass
+ */
+public class ConnectionPool {
+
+  private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+  /**
+   * System property (or app.properties key) for sessions cached per
+   * factory; append "." and the JNDI name to set it for one factory.
+   */
+  public static final String P_SESSIONS = "jmstoolkit.pool.sessions";
+  /** System property (or app.properties key) for milliseconds before an unused factory is closed. */
+  public static final String P_IDLE = "jmstoolkit.pool.idle";
+  /** System property (or app.properties key) for milliseconds between checks. */
+  public static final String P_CHECK = "jmstoolkit.pool.check";
+  /** Default milliseconds before an unused factory is closed. */
+  public static final int D_IDLE = 15 * 60 * 1000;
+  /** Default milliseconds between checks. */
+  public static final int D_CHECK = 60 * 1000;
+
+  private final Properties appProperties;
+  private final int sessionCacheSize;
+  private final long idle;
+  private final long check;
+  private final Map<String, Pooled> pool = new HashMap<>();
+  private String current;
+  private ScheduledExecutorService checker;
+
+  /**
+   *
+   * @param inAppProperties the application properties, for the credentials,
+   * session cache sizes, idle time and check interval
+   * @param inSessionCacheSize sessions cached per factory unless set in
+   * the properties
+   */
+  public ConnectionPool(Properties inAppProperties, int inSessionCacheSize) {
+    this.appProperties = inAppProperties;
+    this.sessionCacheSize = Math.max(1,
+      Settings.getInt(inAppProperties, P_SESSIONS, inSessionCacheSize));
+    this.idle = Math.max(0, Settings.getInt(inAppProperties, P_IDLE, D_IDLE));
+    this.check = Math.max(1000, Settings.getInt(inAppProperties, P_CHECK, D_CHECK));
+  }
+
+  /**
+   * The pooled factory for a name, made the current one; created on first
+   * use with the jmstoolkit.username and jmstoolkit.password credentials.
+   *
+   * @param inName the JNDI name of the connection factory
+   * @param inTarget the connection factory looked up under that name, only
+   * used if the name is not pooled yet
+   * @return the caching connection factory for the name
+   */
+  public synchronized CachingConnectionFactory get(String inName, ConnectionFactory inTarget) {
+    Pooled pooled = pool.get(inName);
+    if (pooled == null) {
+      pooled = new Pooled(inName, inTarget);
+      pool.put(inName, pooled);
+      start();
+    }
+    pooled.used = System.currentTimeMillis();
+    current = inName;
+    return pooled.factory;
+  }
+
+  /**
+   * @return the names of the pooled factories
+   */
+  public synchronized List<String> getNames() {
+    return new ArrayList<>(pool.keySet());
+  }
+
+  /**
+   * Close and forget one factory, e.g. after it was rebound in JNDI.
+   *
+   * @param inName the JNDI name of the connection factory
+   */
+  public synchronized void evict(String inName) {
+    final Pooled pooled = pool.remove(inName);
+    if (pooled != null) {
+      pooled.factory.destroy();
+    }
+  }
+
+  /**
+   * Close every pooled factory and stop checking.
+   */
+  public synchronized void destroy() {
+    if (checker != null) {
+      checker.shutdownNow();
+      checker = null;
+    }
+    for (Pooled pooled : pool.values()) {
+      pooled.factory.destroy();
+    }
+    pool.clear();
+    current = null;
+  }
+
+  private void start() {
+    if (checker == null) {
+      checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          final Thread thread = new Thread(runnable, "ConnectionPool");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      checker.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          checkAll();
+        }
+      }, check, check, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Close the idle factories, then check the rest outside the lock, as a
+   * broken connection can take a while to fail.
+   */
+  private void checkAll() {
+    final List<Pooled> live = new ArrayList<>();
+    synchronized (this) {
+      final long now = System.currentTimeMillis();
+      final Iterator<Pooled> pooled = pool.values().iterator();
+      while (pooled.hasNext()) {
+        final Pooled one = pooled.next();
+        if (!one.name.equals(current) && now - one.used > idle) {
+          LOGGER.log(Level.FINE, "Closing idle connection factory {0}", one.name);
+          pooled.remove();
+          one.factory.destroy();
+        } else {
+          live.add(one);
+        }
+      }
+    }
+    for (Pooled one : live) {
+      one.check();
+    }
+  }
+
+  /**
+   * A caching connection factory and when it was last asked for.
+   */
+  private final class Pooled {
+
+    private final String name;
+    private final TrackedConnectionFactory factory = new TrackedConnectionFactory();
+    private volatile long used;
+
+    private Pooled(String inName, ConnectionFactory inTarget) {
+      this.name = inName;
+      final UserCredentialsConnectionFactoryAdapter uccfa = new TimedConnectionFactory();
+      uccfa.setUsername(appProperties.getProperty(JmsSetup.P_USERNAME));
+      uccfa.setPassword(appProperties.getProperty(JmsSetup.P_PASSWORD));
+      uccfa.setTargetConnectionFactory(inTarget);
+      factory.setTargetConnectionFactory(uccfa);
+      factory.setCacheProducers(true);
+      // a cached consumer stays open after close and keeps its prefetched
+      // messages away from every other consumer of the queue
+      factory.setCacheConsumers(false);
+      factory.setSessionCacheSize(Math.max(1,
+        Settings.getInt(appProperties, P_SESSIONS + "." + inName, sessionCacheSize)));
+    }
+
+    /**
+     * Make the broker answer on the shared connection, if there is one;
+     * if that fails drop the connection so the next use opens a new one.
+     */
+    private void check() {
+      if (factory.isConnected()) {
+        try {
+          final Connection connection = factory.createConnection();
+          try {
+            final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            try {
+              // a cached session alone never reaches the broker
+              session.createTemporaryQueue().delete();
+            } finally {
+              session.close();
+            }
+          } finally {
+            // only a proxy, the shared connection stays open
+            connection.close();
+          }
+        } catch (JMSException | JmsException e) {
+          Timing.error(Timing.Stage.CONNECTION);
+          LOGGER.log(Level.INFO, "Connection check of " + name + " failed", e);
+          factory.resetConnection();
+        }
+      }
+    }
+  }
+
+  /**
+   * Knows whether the shared connection is open, so a check does not open
+   * one for a factory that is not in use.
+   */
+  private static final class TrackedConnectionFactory extends CachingConnectionFactory {
+
+    private volatile boolean connected = false;
+
+    /**
+     * @return true if the shared connection has been opened and not reset
+     * since
+     */
+    boolean isConnected() {
+      return connected;
+    }
+
+    @Override
+    protected Connection doCreateConnection() throws JMSException {
+      final Connection connection = super.doCreateConnection();
+      connected = true;
+      return connection;
+    }
+
+    @Override
+    public void resetConnection() {
+      connected = false;
+      super.resetConnection();
+    }
+  }
+
+  /**
+   * Times each new connection to the broker as Timing.Stage.CONNECTION.
+   */
+  private static final class TimedConnectionFactory
+    extends UserCredentialsConnectionFactoryAdapter {
+
+    @Override
+    protected Connection doCreateConnection(String username, String password)
+      throws JMSException {
+      final long started = Timing.start();
+      final Connection connection;
+      try {
+        connection = super.doCreateConnection(username, password);
+      } catch (JMSException e) {
+        Timing.error(Timing.Stage.CONNECTION);
+        throw e;
+      }
+      Timing.stop(Timing.Stage.CONNECTION, started);
+      return connection;
+    }
+  }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import org.springframework.jms.JmsException;
+import org.springframework.jms.core.BrowserCallback;
+import org.springframework.jms.core.JmsTemplate;
+
+/**
+ * Samples the depth of queues on a schedule by walking a QueueBrowser
+ * enumeration, reading nothing but the JMSTimestamp of each message.
+ *
+ * Each queue keeps a rolling window of samples. Messages newer than the
+ * newest message of the previous sample count as enqueued, and whatever
+ * the depth does not account for counts as dequeued, so the rates are
+ * estimates: messages that come and go between two samples are not seen.
+ *
+ * @author Scott Douglass
+ */
+public class DepthSampler {
+
+  private static final Logger LOGGER = Logger.getLogger(DepthSampler.class.getName());
+  /** System property (or app.properties key) for milliseconds between samples. */
+  public static final String P_INTERVAL = "jmstoolkit.sample.interval";
+  /** System property (or app.properties key) for samples kept per queue. */
+  public static final String P_WINDOW = "jmstoolkit.sample.window";
+  /** Default milliseconds between samples. */
+  public static final int D_INTERVAL = 5000;
+  /** Default samples kept per queue. */
+  public static final int D_WINDOW = 60;
+
+  private final JmsTemplate jmsTemplate;
+  private final Map<String, Window> windows = new LinkedHashMap<>();
+  private int interval = D_INTERVAL;
+  private int windowSize = D_WINDOW;
+  private Listener listener;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Told about every sample taken.
+   */
+  public interface Listener {
+
+    /**
+     * Called from the sampling thread.
+     *
+     * @param name the name the queue was added with
+     * @param stats the statistics including the new sample
+     */
+    void sampled(String name, Stats stats);
+  }
+
+  /**
+   * Depth and rates of one queue over the current window.
+   */
+  public static final class Stats {
+
+    private final long time;
+    private final long depth;
+    private final double enqueueRate;
+    private final double dequeueRate;
+    private final int samples;
+    private final String error;
+
+    private Stats(long inTime, long inDepth, double inEnqueueRate,
+      double inDequeueRate, int inSamples, String inError) {
+      this.time = inTime;
+      this.depth = inDepth;
+      this.enqueueRate = inEnqueueRate;
+      this.dequeueRate = inDequeueRate;
+      this.samples = inSamples;
+      this.error = inError;
+    }
+
+    /**
+     * @return when the last sample was taken
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * @return messages in the queue at the last sample, -1 if it failed
+     */
+    public long getDepth() {
+      return depth;
+    }
+
+    /**
+     * @return estimated messages added per second
+     */
+    public double getEnqueueRate() {
+      return enqueueRate;
+    }
+
+    /**
+     * @return estimated messages removed per second
+     */
+    public double getDequeueRate() {
+      return dequeueRate;
+    }
+
+    /**
+     * @return change in depth per second, positive if the queue is growing
+     */
+    public double getGrowthRate() {
+      return enqueueRate - dequeueRate;
+    }
+
+    /**
+     * @return the number of samples the rates are based on
+     */
+    public int getSamples() {
+      return samples;
+    }
+
+    /**
+     * @return why the last sample failed, null if it worked
+     */
+    public String getError() {
+      return error;
+    }
+
+    @Override
+    public String toString() {
+      return error != null ? "Depth: " + error
+        : String.format("Depth: %d (+%.1f/s -%.1f/s)", depth, enqueueRate, dequeueRate);
+    }
+  }
+
+  /**
+   * The samples of one queue, oldest first, in a ring.
+   */
+  private static final class Window {
+
+    private final Queue queue;
+    private final long[] times;
+    private final long[] enqueued;
+    private final long[] dequeued;
+    private int first = 0;
+    private int count = 0;
+    private long depth = -1;
+    private long newest = 0;
+
+    private Window(Queue inQueue, int size) {
+      this.queue = inQueue;
+      this.times = new long[size];
+      this.enqueued = new long[size];
+      this.dequeued = new long[size];
+    }
+
+    private void add(long time, long newDepth, long arrived, long newNewest) {
+      long in = arrived;
+      long out = 0;
+      if (depth >= 0) {
+        out = depth + in - newDepth;
+        if (out < 0) {
+          // more arrived than the timestamps showed
+          in -= out;
+          out = 0;
+        }
+      } else {
+        // nothing to compare the first sample with
+        in = 0;
+      }
+      final int slot;
+      if (count < times.length) {
+        slot = (first + count) % times.length;
+        count++;
+      } else {
+        slot = first;
+        first = (first + 1) % times.length;
+      }
+      times[slot] = time;
+      enqueued[slot] = in;
+      dequeued[slot] = out;
+      depth = newDepth;
+      newest = Math.max(newest, newNewest);
+    }
+
+    private Stats stats(String error) {
+      double enqueueRate = 0;
+      double dequeueRate = 0;
+      if (count > 1) {
+        long in = 0;
+        long out = 0;
+        // the first sample's counts happened before the window started
+        for (int i = 1; i < count; i++) {
+          final int slot = (first + i) % times.length;
+          in += enqueued[slot];
+          out += dequeued[slot];
+        }
+        final long span = times[(first + count - 1) % times.length] - times[first];
+        if (span > 0) {
+          enqueueRate = in * 1000.0 / span;
+          dequeueRate = out * 1000.0 / span;
+        }
+      }
+      final long time = count == 0 ? 0 : times[(first + count - 1) % times.length];
+      return new Stats(time, error == null ? depth : -1, enqueueRate,
+        dequeueRate, count, error);
+    }
+  }
+
+  /**
+   *
+   * @param inJmsTemplate used to browse, should have a caching connection
+   * factory
+   */
+  public DepthSampler(JmsTemplate inJmsTemplate) {
+    this.jmsTemplate = inJmsTemplate;
+  }
+
+  /**
+   * Read interval and window size from properties, keeping the current
+   * values for missing or bad entries.
+   *
+   * @param inProperties e.g. the application properties
+   * @return this sampler
+   */
+  public DepthSampler configure(Properties inProperties) {
+    interval = Math.max(1, Settings.getInt(inProperties, P_INTERVAL, interval));
+    windowSize = Math.max(2, Settings.getInt(inProperties, P_WINDOW, windowSize));
+    return this;
+  }
+
+  /**
+   * @param inListener told about every sample, may be null
+   */
+  public void setListener(Listener inListener) {
+    this.listener = inListener;
+  }
+
+  /**
+   * Start sampling a queue, starting a new window if it was already being
+   * sampled.
+   *
+   * @param name the name to report the queue under, e.g. its JNDI name
+   * @param queue the queue
+   */
+  public synchronized void addQueue(String name, Queue queue) {
+    windows.put(name, new Window(queue, windowSize));
+  }
+
+  /**
+   * Stop sampling a queue.
+   *
+   * @param name the name the queue was added with
+   */
+  public synchronized void removeQueue(String name) {
+    windows.remove(name);
+  }
+
+  /**
+   * Stop sampling all queues.
+   */
+  public synchronized void clear() {
+    windows.clear();
+  }
+
+  /**
+   *
+   * @param name the name the queue was added with
+   * @return the statistics of the queue, null if it is not sampled
+   */
+  public synchronized Stats getStats(String name) {
+    final Window window = windows.get(name);
+    return window == null ? null : window.stats(null);
+  }
+
+  /**
+   * Start sampling every interval milliseconds on a daemon thread.
+   */
+  public synchronized void start() {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          final Thread thread = new Thread(runnable, "DepthSampler");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          sampleAll();
+        }
+      }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Stop sampling; the windows are kept.
+   */
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * @return true between start and stop
+   */
+  public synchronized boolean isRunning() {
+    return scheduler != null;
+  }
+
+  /**
+   * Take one sample of every queue now, on the calling thread.
+   */
+  public void sampleAll() {
+    final List<Map.Entry<String, Window>> entries;
+    synchronized (this) {
+      entries = new ArrayList<>(windows.entrySet());
+    }
+    for (Map.Entry<String, Window> entry : entries) {
+      sample(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private void sample(String name, final Window window) {
+    final long since;
+    synchronized (this) {
+      since = window.newest;
+    }
+    final long[] counts = new long[]{0, 0, since};
+    String error = null;
+    try {
+      jmsTemplate.browse(window.queue, new BrowserCallback<Void>() {
+        @Override
+        public Void doInJms(Session session, QueueBrowser browser)
+          throws JMSException {
+          final Enumeration messages = browser.getEnumeration();
+          while (messages.hasMoreElements()) {
+            final long timestamp = ((Message) messages.nextElement()).getJMSTimestamp();
+            counts[0]++;
+            if (timestamp > since) {
+              counts[1]++;
+              counts[2] = Math.max(counts[2], timestamp);
+            }
+          }
+          return null;
+        }
+      });
+    } catch (JmsException e) {
+      LOGGER.log(Level.WARNING, "JMS problem", e);
+      error = e.getMessage();
+    }
+    final Stats stats;
+    synchronized (this) {
+      if (error == null) {
+        window.add(System.currentTimeMillis(), counts[0], counts[1], counts[2]);
+      }
+      stats = window.stats(error);
+    }
+    if (listener != null) {
+      listener.sampled(name, stats);
+    }
+  }
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * Removes messages from a queue with several consumers, each on its own
+ * transacted (or client acknowledge) session that is committed every
+ * batchSize messages.
+ *
+ * Consumers stop when a receive times out, when the limit is reached or
+ * when the engine is cancelled; work done so far is always committed.
+ * With a limit, exactly that many messages are removed unless the queue
+ * runs out first.
+ *
+ * Subclasses can do something with each message inside the same
+ * transaction by overriding onMessage, e.g. send it somewhere else.
+ *
+ * @author Scott Douglass
+ */
+public class DrainEngine {
+
+  private static final Logger LOGGER = Logger.getLogger(DrainEngine.class.getName());
+  /** System property (or app.properties key) for the number of consumers. */
+  public static final String P_CONSUMERS = "jmstoolkit.drain.consumers";
+  /** System property (or app.properties key) for messages per commit. */
+  public static final String P_BATCH_SIZE = "jmstoolkit.drain.batch";
+  /** System property (or app.properties key) for the receive timeout. */
+  public static final String P_RECEIVE_TIMEOUT = "jmstoolkit.drain.timeout";
+  /** Default number of consumers. */
+  public static final int D_CONSUMERS = 4;
+  /** Default messages per commit. */
+  public static final int D_BATCH_SIZE = 100;
+  /** Default milliseconds to wait for a message before deciding the queue is empty. */
+  public static final long D_RECEIVE_TIMEOUT = 1000L;
+  /** Least milliseconds between two progress reports. */
+  private static final long PROGRESS_INTERVAL = 250L;
+  /** Longest IN list put into one selector when removing by message ID. */
+  public static final int MAX_IDS_PER_SELECTOR = 200;
+  /** Milliseconds a consumer waits for a slot of the limit to come back. */
+  private static final long CLAIM_WAIT = 10L;
+  /** Milliseconds a cancelled consumer gets to commit, on top of a receive. */
+  private static final long SHUTDOWN_TIMEOUT = 5000L;
+
+  private final ConnectionFactory connectionFactory;
+  private final Destination destination;
+  private String selector;
+  private int consumers = D_CONSUMERS;
+  private int batchSize = D_BATCH_SIZE;
+  private long receiveTimeout = D_RECEIVE_TIMEOUT;
+  private long limit = 0;
+  private boolean transacted = true;
+  private Progress progress;
+  private volatile boolean cancelled = false;
+  /** Work for the consumers when removing messages by ID. */
+  private Queue<Batch> batches;
+  private final AtomicLong claimed = new AtomicLong();
+  private final AtomicLong drained = new AtomicLong();
+  private final AtomicLong lastReport = new AtomicLong();
+  private long started;
+
+  /**
+   * Told about the number of messages removed as the drain goes.
+   */
+  public interface Progress {
+
+    /**
+     * Called from a consumer thread after a commit, at most every 250 ms,
+     * and once at the end.
+     *
+     * @param count messages removed so far
+     * @param perSecond average rate since the start
+     */
+    void drained(long count, double perSecond);
+  }
+
+  /**
+   *
+   * @param inConnectionFactory where to get the connection
+   * @param inDestination the queue to drain
+   */
+  public DrainEngine(ConnectionFactory inConnectionFactory,
+    Destination inDestination) {
+    this.connectionFactory = inConnectionFactory;
+    this.destination = inDestination;
+  }
+
+  /**
+   * Read consumers, batch size and receive timeout from properties,
+   * keeping the current values for missing or bad entries.
+   *
+   * @param inProperties e.g. the application properties
+   * @return this engine
+   */
+  public DrainEngine configure(Properties inProperties) {
+    consumers = Settings.getInt(inProperties, P_CONSUMERS, consumers);
+    batchSize = Settings.getInt(inProperties, P_BATCH_SIZE, batchSize);
+    receiveTimeout = Settings.getInt(inProperties, P_RECEIVE_TIMEOUT, (int) receiveTimeout);
+    return this;
+  }
+
+  /**
+   * @param inSelector JMS message selector, null or empty for all messages
+   */
+  public void setSelector(String inSelector) {
+    this.selector = inSelector == null || inSelector.trim().isEmpty()
+      ? null : inSelector;
+  }
+
+  /**
+   * Remove exactly these messages and nothing else. The IDs are split into
+   * batches, each batch is consumed with a JMSMessageID IN (...) selector
+   * by whichever consumer is free. Replaces any selector and limit.
+   *
+   * @param messageIDs the JMS message IDs to remove
+   */
+  public void setMessageIDs(List<String> messageIDs) {
+    final Queue<Batch> work = new ConcurrentLinkedQueue<>();
+    final StringBuilder inList = new StringBuilder();
+    int size = 0;
+    for (String messageID : messageIDs) {
+      if (messageID != null) {
+        if (size > 0) {
+          inList.append(',');
+        }
+        inList.append('\'').append(messageID.replace("'", "''")).append('\'');
+        size++;
+        if (size == MAX_IDS_PER_SELECTOR) {
+          work.add(new Batch("JMSMessageID IN (" + inList + ")", size));
+          inList.setLength(0);
+          size = 0;
+        }
+      }
+    }
+    if (size > 0) {
+      work.add(new Batch("JMSMessageID IN (" + inList + ")", size));
+    }
+    this.batches = work;
+    this.selector = null;
+    this.limit = 0;
+  }
+
+  /**
+   * A selector and the most messages it can match.
+   */
+  private static final class Batch {
+
+    private final String selector;
+    private final int size;
+
+    private Batch(String inSelector, int inSize) {
+      this.selector = inSelector;
+      this.size = inSize;
+    }
+  }
+
+  /**
+   * @return the selector, null for all messages
+   */
+  public String getSelector() {
+    return selector;
+  }
+
+  /**
+   * @param inConsumers number of concurrent consumers
+   */
+  public void setConsumers(int inConsumers) {
+    this.consumers = Math.max(1, inConsumers);
+  }
+
+  /**
+   * @param inBatchSize messages received per commit
+   */
+  public void setBatchSize(int inBatchSize) {
+    this.batchSize = Math.max(1, inBatchSize);
+  }
+
+  /**
+   * @param inReceiveTimeout milliseconds to wait for a message before a
+   * consumer decides the queue is empty, 0 to not wait at all
+   */
+  public void setReceiveTimeout(long inReceiveTimeout) {
+    this.receiveTimeout = Math.max(0, inReceiveTimeout);
+  }
+
+  /**
+   * @param inLimit exact number of messages to remove, 0 or less to remove
+   * until the queue is empty
+   */
+  public void setLimit(long inLimit) {
+    this.limit = inLimit;
+  }
+
+  /**
+   * @param inTransacted true for transacted sessions, false for client
+   * acknowledge
+   */
+  public void setTransacted(boolean inTransacted) {
+    this.transacted = inTransacted;
+  }
+
+  /**
+   * @param inProgress told about progress, may be null
+   */
+  public void setProgress(Progress inProgress) {
+    this.progress = inProgress;
+  }
+
+  /**
+   * Stop all consumers after the message each is working on.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * @return messages removed so far
+   */
+  public long getDrained() {
+    return drained.get();
+  }
+
+  /**
+   * Drain the queue, blocking until every consumer has finished.
+   *
+   * @return the number of messages removed
+   * @throws JMSException from the first consumer that failed
+   * @throws InterruptedException if interrupted while waiting for the
+   * consumers, they are cancelled
+   */
+  public long run() throws JMSException, InterruptedException {
+    started = System.currentTimeMillis();
+    final Connection connection = connectionFactory.createConnection();
+    final ExecutorService executor = Executors.newFixedThreadPool(consumers);
+    try {
+      connection.start();
+      final List<Future<Void>> results = new ArrayList<>();
+      for (int i = 0; i < consumers; i++) {
+        results.add(executor.submit(new Consumer(connection)));
+      }
+      JMSException failure = null;
+      for (Future<Void> result : results) {
+        try {
+          result.get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            if (e.getCause() instanceof JMSException) {
+              failure = (JMSException) e.getCause();
+            } else {
+              failure = new JMSException(String.valueOf(e.getCause()));
+              failure.initCause(e.getCause());
+            }
+          }
+          cancel();
+        }
+      }
+      report(true);
+      if (failure != null) {
+        throw failure;
+      }
+    } catch (InterruptedException e) {
+      cancel();
+      throw e;
+    } finally {
+      executor.shutdown();
+      if (cancelled) {
+        // let the consumers commit before the connection goes away
+        executor.awaitTermination(receiveTimeout + SHUTDOWN_TIMEOUT,
+          TimeUnit.MILLISECONDS);
+      }
+      connection.close();
+    }
+    return drained.get();
+  }
+
+  /**
+   * Called by each consumer for each selector it receives with.
+   *
+   * @param session the consumer's session
+   * @param inDestination the destination given to the constructor
+   * @param consumerSelector the selector, null for all messages
+   * @return where the consumer receives from
+   * @throws JMSException if the consumer can not be created
+   */
+  protected MessageConsumer createConsumer(Session session,
+    Destination inDestination, String consumerSelector) throws JMSException {
+    return session.createConsumer(inDestination, consumerSelector);
+  }
+
+  /**
+   * Called for every message received, inside the consumer's transaction.
+   *
+   * @param session the consumer's session
+   * @param message the message
+   * @throws JMSException to roll back the current batch and stop
+   */
+  protected void onMessage(Session session, Message message) throws JMSException {
+    // drain just throws the message away
+  }
+
+  /**
+   * Called on each session before it is closed, e.g. to close producers.
+   *
+   * @param session the consumer's session
+   * @throws JMSException if cleaning up fails
+   */
+  protected void onClose(Session session) throws JMSException {
+    // nothing to clean up
+  }
+
+  private void report(boolean last) {
+    final long now = System.currentTimeMillis();
+    final long previous = lastReport.get();
+    if (progress != null && (last
+      || (now - previous >= PROGRESS_INTERVAL && lastReport.compareAndSet(previous, now)))) {
+      final long count = drained.get();
+      final long elapsed = Math.max(1, now - started);
+      progress.drained(count, count * 1000.0 / elapsed);
+    }
+  }
+
+  /**
+   * Hold a slot of the limit for the next receive. The slot is given back
+   * if the receive finds nothing or the batch rolls back, so it is only
+   * kept by a message that arrived and was committed.
+   *
+   * @return false if every slot is held
+   */
+  private boolean claim() {
+    boolean result = limit <= 0;
+    if (!result) {
+      result = claimed.incrementAndGet() <= limit;
+      if (!result) {
+        claimed.decrementAndGet();
+      }
+    }
+    return result;
+  }
+
+  private void release(long slots) {
+    if (limit > 0) {
+      claimed.addAndGet(-slots);
+    }
+  }
+
+  private class Consumer implements Callable<Void> {
+
+    private final Connection connection;
+    private Session session;
+    private int uncommitted = 0;
+    private Message last = null;
+
+    Consumer(Connection inConnection) {
+      this.connection = inConnection;
+    }
+
+    @Override
+    public Void call() throws JMSException {
+      session = connection.createSession(transacted,
+        transacted ? Session.SESSION_TRANSACTED : Session.CLIENT_ACKNOWLEDGE);
+      try {
+        if (batches == null) {
+          consume(selector, 0);
+        } else {
+          Batch batch;
+          while (!cancelled && (batch = batches.poll()) != null) {
+            consume(batch.selector, batch.size);
+          }
+        }
+        if (uncommitted > 0) {
+          commit();
+        }
+      } catch (JMSException e) {
+        putBack();
+        throw e;
+      } finally {
+        onClose(session);
+        session.close();
+      }
+      return null;
+    }
+
+    /**
+     * Receive with one selector until it runs dry or max messages arrived.
+     */
+    private void consume(String consumerSelector, int max) throws JMSException {
+      final MessageConsumer consumer
+        = createConsumer(session, destination, consumerSelector);
+      try {
+        int received = 0;
+        while (!cancelled && (max <= 0 || received < max)) {
+          if (!claim()) {
+            // the rest of the limit is held by other consumers, wait in
+            // case one of them finds nothing or rolls back
+            if (uncommitted > 0) {
+              commit();
+              report(false);
+            }
+            if (drained.get() >= limit || !pause()) {
+              break;
+            }
+          } else {
+            final Message message = receive(consumer);
+            if (message == null) {
+              release(1);
+              break;
+            }
+            last = message;
+            received++;
+            uncommitted++;
+            onMessage(session, message);
+            if (uncommitted >= batchSize) {
+              commit();
+              report(false);
+            }
+          }
+        }
+      } finally {
+        consumer.close();
+      }
+    }
+
+    /**
+     * A receive timed as Timing.Stage.RECEIVE; the final one that times out
+     * is not counted.
+     */
+    private Message receive(MessageConsumer consumer) throws JMSException {
+      final long started = Timing.start();
+      final Message message;
+      try {
+        message = receiveTimeout > 0
+          ? consumer.receive(receiveTimeout) : consumer.receiveNoWait();
+      } catch (JMSException e) {
+        Timing.error(Timing.Stage.RECEIVE);
+        release(1);
+        throw e;
+      }
+      if (message != null) {
+        Timing.stop(Timing.Stage.RECEIVE, started);
+      }
+      return message;
+    }
+
+    /**
+     * Roll back the current batch so the messages go back on the queue,
+     * and give up its slots of the limit.
+     */
+    private void putBack() throws JMSException {
+      if (transacted) {
+        session.rollback();
+      } else {
+        session.recover();
+      }
+      release(uncommitted);
+      uncommitted = 0;
+      last = null;
+    }
+
+    /**
+     * @return false if interrupted
+     */
+    private boolean pause() {
+      boolean result = true;
+      try {
+        Thread.sleep(CLAIM_WAIT);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        result = false;
+      }
+      return result;
+    }
+
+    private void commit() throws JMSException {
+      final long started = Timing.start();
+      try {
+        if (transacted) {
+          session.commit();
+        } else {
+          // acknowledges everything the session has received so far
+          last.acknowledge();
+        }
+      } catch (JMSException e) {
+        Timing.error(Timing.Stage.COMMIT);
+        throw e;
+      }
+      Timing.stop(Timing.Stage.COMMIT, started);
+      drained.addAndGet(uncommitted);
+      uncommitted = 0;
+    }
+  }
+}
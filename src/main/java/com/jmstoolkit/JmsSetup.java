@@ -0,0 +1,181 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import java.util.Collection;
+import java.util.Properties;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.naming.NamingException;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jndi.JndiTemplate;
+
+/**
+ * The JNDI and JmsTemplate plumbing shared by the GUI and the command
+ * line: a JmsTemplate on a caching connection factory whose target is
+ * looked up in JNDI and wrapped with the jmstoolkit.username and
+ * jmstoolkit.password credentials from the application properties. There
+ * is one caching connection factory per name, kept by ConnectionPool.
+ *
+ * @author Scott Douglass
+ */
+public class JmsSetup {
+
+  /** app.properties key for the user name given to the connection factory. */
+  public static final String P_USERNAME = "jmstoolkit.username";
+  /** app.properties key for the password given to the connection factory. */
+  public static final String P_PASSWORD = "jmstoolkit.password";
+
+  private final JndiTemplate jndiTemplate = new JndiTemplate();
+  private final JndiCache jndiCache = new JndiCache(jndiTemplate);
+  private final JmsTemplate jmsTemplate = new JmsTemplate();
+  private final ConnectionPool connectionPool;
+  /** No target until a connection factory is set. */
+  private volatile CachingConnectionFactory connectionFactory
+    = new CachingConnectionFactory();
+
+  /**
+   *
+   * @param inAppProperties the application properties, for the credentials
+   * and the JNDI cache and connection pool settings
+   * @param sessionCacheSize sessions kept open per connection factory, at
+   * least the number of concurrent browses, unless set in the properties
+   */
+  public JmsSetup(Properties inAppProperties, int sessionCacheSize) {
+    jndiCache.configure(inAppProperties);
+    connectionPool = new ConnectionPool(inAppProperties, sessionCacheSize);
+    jmsTemplate.setConnectionFactory(connectionFactory);
+  }
+
+  /**
+   * Load jndi.properties into the system properties (or the file named by
+   * the jndi.properties system property) and app.properties into
+   * inAppProperties.
+   *
+   * @param inAppProperties filled from app.properties
+   * @throws JTKException if a file can not be read
+   */
+  public static void loadSettings(Properties inAppProperties) throws JTKException {
+    Settings.loadSystemSettings(System.getProperty(
+      Settings.D_JNDI_PROPERTIES, Settings.D_JNDI_PROPERTIES));
+    Settings.loadSettings(inAppProperties);
+  }
+
+  /**
+   * @return the JndiTemplate used for lookups
+   */
+  public JndiTemplate getJndiTemplate() {
+    return jndiTemplate;
+  }
+
+  /**
+   * @return the JmsTemplate, on the caching connection factory
+   */
+  public JmsTemplate getJmsTemplate() {
+    return jmsTemplate;
+  }
+
+  /**
+   * @return the caching connection factory of the current connection
+   * factory; it changes with setConnectionFactory
+   */
+  public CachingConnectionFactory getConnectionFactory() {
+    return connectionFactory;
+  }
+
+  /**
+   * @return the warm caching connection factories, one per name
+   */
+  public ConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
+  /**
+   * @return the cache in front of the JndiTemplate
+   */
+  public JndiCache getJndiCache() {
+    return jndiCache;
+  }
+
+  /**
+   * Look up a JNDI name through the cache.
+   *
+   * @param inJNDIName the JNDI name
+   * @return the bound object
+   * @throws NamingException if the lookup fails
+   */
+  public Object lookup(String inJNDIName) throws NamingException {
+    return jndiCache.lookup(inJNDIName);
+  }
+
+  /**
+   * Start looking up every connection factory and destination named in
+   * the settings on background threads, so choosing one later is quick.
+   *
+   * @param inConnectionFactories JNDI names of connection factories
+   * @param inDestinations JNDI names of destinations
+   */
+  public void prefetch(Collection<String> inConnectionFactories,
+    Collection<String> inDestinations) {
+    jndiCache.prefetch(inConnectionFactories);
+    jndiCache.prefetch(inDestinations);
+  }
+
+  /**
+   * Look up a connection factory and make its pooled caching connection
+   * factory the one the JmsTemplate uses. The previous one stays open.
+   *
+   * @param inJNDIName the JNDI name of the connection factory
+   * @throws NamingException if the lookup fails
+   */
+  public void setConnectionFactory(String inJNDIName) throws NamingException {
+    setConnectionFactory(inJNDIName, (ConnectionFactory) lookup(inJNDIName));
+  }
+
+  /**
+   * Make the pooled caching connection factory of a connection factory
+   * that was already looked up the one the JmsTemplate uses.
+   *
+   * @param inJNDIName the JNDI name of the connection factory
+   * @param inConnectionFactory the connection factory from JNDI
+   */
+  public void setConnectionFactory(String inJNDIName,
+    ConnectionFactory inConnectionFactory) {
+    connectionFactory = connectionPool.get(inJNDIName, inConnectionFactory);
+    jmsTemplate.setConnectionFactory(connectionFactory);
+  }
+
+  /**
+   * Look up a destination and make it the default of the JmsTemplate.
+   *
+   * @param inJNDIName the JNDI name of the destination
+   * @return the destination
+   * @throws NamingException if the lookup fails
+   */
+  public Destination setDestination(String inJNDIName) throws NamingException {
+    final Destination destination = (Destination) lookup(inJNDIName);
+    jmsTemplate.setDefaultDestination(destination);
+    return destination;
+  }
+
+  /**
+   * Close every pooled connection and stop the background threads.
+   */
+  public void destroy() {
+    connectionPool.destroy();
+    jndiCache.shutdown();
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.NamingException;
+import org.springframework.jndi.JndiTemplate;
+
+/**
+ * JNDI lookups remembered by name. A found object is kept for ttl
+ * milliseconds, a failed lookup for negativeTtl, so a directory that takes
+ * most of a second per lookup is asked once per name rather than at
+ * every change of the destination.
+ *
+ * Lookups of the same name at the same time share one trip to the
+ * directory; prefetch starts them on background threads.
+ *
+ * @author Scott Douglass
+ */
+public class JndiCache {
+
+  private static final Logger LOGGER = Logger.getLogger(JndiCache.class.getName());
+  /** System property (or app.properties key) for milliseconds a found name is kept. */
+  public static final String P_TTL = "jmstoolkit.jndi.ttl";
+  /** System property (or app.properties key) for milliseconds a failure is kept. */
+  public static final String P_NEGATIVE_TTL = "jmstoolkit.jndi.negativettl";
+  /** System property (or app.properties key) for the prefetch threads. */
+  public static final String P_THREADS = "jmstoolkit.jndi.threads";
+  /** Default milliseconds a found name is kept. */
+  public static final int D_TTL = 10 * 60 * 1000;
+  /** Default milliseconds a failure is kept. */
+  public static final int D_NEGATIVE_TTL = 30 * 1000;
+  /** Default prefetch threads. */
+  public static final int D_THREADS = 4;
+
+  private final JndiTemplate jndiTemplate;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private long ttl = D_TTL;
+  private long negativeTtl = D_NEGATIVE_TTL;
+  private int threads = D_THREADS;
+  private ExecutorService prefetcher;
+
+  /**
+   *
+   * @param inJndiTemplate does the actual lookups
+   */
+  public JndiCache(JndiTemplate inJndiTemplate) {
+    this.jndiTemplate = inJndiTemplate;
+  }
+
+  /**
+   * Read ttl, negative ttl and threads from properties, keeping the
+   * current values for missing or bad entries.
+   *
+   * @param inProperties e.g. the application properties
+   * @return this cache
+   */
+  public JndiCache configure(Properties inProperties) {
+    ttl = Math.max(0, Settings.getInt(inProperties, P_TTL, (int) ttl));
+    negativeTtl = Math.max(0, Settings.getInt(inProperties, P_NEGATIVE_TTL, (int) negativeTtl));
+    threads = Math.max(1, Settings.getInt(inProperties, P_THREADS, threads));
+    return this;
+  }
+
+  /**
+   * The object bound to a name, from the cache if it is fresh, otherwise
+   * from JNDI. Only real lookups are timed as Timing.Stage.JNDI_LOOKUP.
+   *
+   * @param inName the JNDI name
+   * @return the bound object
+   * @throws NamingException if the lookup failed, now or within the
+   * negative ttl
+   */
+  public Object lookup(String inName) throws NamingException {
+    final Entry entry = entry(inName);
+    entry.task.run();
+    final Object found;
+    try {
+      found = entry.task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NamingException("Interrupted looking up " + inName);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof NamingException) {
+        throw (NamingException) e.getCause();
+      }
+      final NamingException ne = new NamingException("Can not look up " + inName);
+      ne.setRootCause(e.getCause());
+      throw ne;
+    }
+    return found;
+  }
+
+  /**
+   * Start looking up names that are not cached yet, in parallel on daemon
+   * threads. A later lookup of one of them waits for the prefetch rather
+   * than asking again.
+   *
+   * @param inNames JNDI names, e.g. all the connection factories and
+   * destinations in the settings
+   */
+  public synchronized void prefetch(Collection<String> inNames) {
+    if (prefetcher == null) {
+      prefetcher = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          final Thread thread = new Thread(runnable, "JndiCache");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    for (String name : inNames) {
+      if (name != null && !name.trim().isEmpty()) {
+        prefetcher.execute(entry(name.trim()).task);
+      }
+    }
+  }
+
+  /**
+   * Forget a name, e.g. after it was rebound.
+   *
+   * @param inName the JNDI name
+   */
+  public void invalidate(String inName) {
+    entries.remove(inName);
+  }
+
+  /**
+   * Forget every name.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Stop the prefetch threads; lookups still work.
+   */
+  public synchronized void shutdown() {
+    if (prefetcher != null) {
+      prefetcher.shutdownNow();
+      prefetcher = null;
+    }
+  }
+
+  /**
+   * The fresh entry for a name, replacing one that has expired. The
+   * caller runs its task, which does nothing if it has already run.
+   */
+  private Entry entry(String inName) {
+    Entry entry = entries.get(inName);
+    final long now = System.currentTimeMillis();
+    while (entry == null || entry.isExpired(now)) {
+      final Entry fresh = new Entry(inName);
+      final boolean added = entry == null
+        ? entries.putIfAbsent(inName, fresh) == null
+        : entries.replace(inName, entry, fresh);
+      entry = added ? fresh : entries.get(inName);
+    }
+    return entry;
+  }
+
+  /**
+   * One lookup and when its result stops being good.
+   */
+  private final class Entry {
+
+    private final FutureTask<Object> task;
+    private volatile long expires = Long.MAX_VALUE;
+
+    private Entry(final String inName) {
+      task = new FutureTask<>(new Callable<Object>() {
+        @Override
+        public Object call() throws NamingException {
+          final long started = Timing.start();
+          final Object found;
+          try {
+            found = jndiTemplate.lookup(inName);
+          } catch (NamingException | RuntimeException e) {
+            expires = System.currentTimeMillis() + negativeTtl;
+            Timing.error(Timing.Stage.JNDI_LOOKUP);
+            LOGGER.log(Level.FINE, "Lookup of " + inName + " failed", e);
+            throw e;
+          }
+          Timing.stop(Timing.Stage.JNDI_LOOKUP, started);
+          expires = System.currentTimeMillis() + ttl;
+          return found;
+        }
+      });
+    }
+
+    /**
+     * Still running counts as fresh, so callers wait for it.
+     */
+    private boolean isExpired(long now) {
+      return now >= expires;
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts of microsecond values in buckets a thirty-second of a power of
+ * two wide, so percentiles are within about 3% whatever the range.
+ * Recording is lock free and safe from any thread.
+ *
+ * @author Scott Douglass
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BITS = 5;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private final AtomicLongArray counts = new AtomicLongArray(SUB_COUNT * (64 - SUB_BITS));
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * @param micros the value, negative values count as 0
+   */
+  public void record(long micros) {
+    final long value = Math.max(0, micros);
+    counts.incrementAndGet(bucket(value));
+    total.incrementAndGet();
+    sum.addAndGet(value);
+    long previous = max.get();
+    while (value > previous && !max.compareAndSet(previous, value)) {
+      previous = max.get();
+    }
+  }
+
+  /**
+   * Add the counts of another histogram to this one.
+   *
+   * @param other the histogram to add
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length(); i++) {
+      final long count = other.counts.get(i);
+      if (count != 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+    total.addAndGet(other.total.get());
+    sum.addAndGet(other.sum.get());
+    long previous = max.get();
+    while (other.max.get() > previous && !max.compareAndSet(previous, other.max.get())) {
+      previous = max.get();
+    }
+  }
+
+  /**
+   * Forget everything recorded.
+   */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    total.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /**
+   * @return number of values recorded
+   */
+  public long getCount() {
+    return total.get();
+  }
+
+  /**
+   * @return sum of the values recorded, in microseconds
+   */
+  public long getSum() {
+    return sum.get();
+  }
+
+  /**
+   * @return the largest value recorded, exactly
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @return the mean in microseconds, 0 if nothing was recorded
+   */
+  public double getMean() {
+    final long count = total.get();
+    return count == 0 ? 0 : (double) sum.get() / count;
+  }
+
+  /**
+   * @param percentile e.g. 50 or 99.9
+   * @return the upper end of the bucket the percentile falls in, in
+   * microseconds, 0 if nothing was recorded
+   */
+  public long getPercentile(double percentile) {
+    final long count = total.get();
+    final long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100.0));
+    long seen = counts.get(0);
+    int i = 0;
+    while (i < counts.length() - 1 && seen < rank) {
+      i++;
+      seen += counts.get(i);
+    }
+    return count == 0 ? 0 : Math.min(upper(i), max.get());
+  }
+
+  private static int bucket(long value) {
+    final int bucket;
+    if (value < SUB_COUNT) {
+      bucket = (int) value;
+    } else {
+      final int exponent = 63 - Long.numberOfLeadingZeros(value);
+      final int shift = exponent - SUB_BITS + 1;
+      bucket = shift * (SUB_COUNT / 2) + (int) (value >>> shift);
+    }
+    return bucket;
+  }
+
+  private static long upper(int bucket) {
+    final long value;
+    if (bucket < SUB_COUNT) {
+      value = bucket;
+    } else {
+      final int shift = bucket / (SUB_COUNT / 2) - 1;
+      value = (((long) (bucket - shift * (SUB_COUNT / 2)) + 1) << shift) - 1;
+    }
+    return value;
+  }
+}
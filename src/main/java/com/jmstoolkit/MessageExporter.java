@@ -0,0 +1,402 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import com.jmstoolkit.beans.MessageTableRecord;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+
+/**
+ * Writes MessageTableRecords to a file or stream as they are browsed, one
+ * record at a time, as NDJSON (one JSON object per line) or CSV.
+ *
+ * Both formats carry the JMS headers under their JMS names, the properties
+ * and the text body; ObjectMessage bodies are written with toString. In
+ * CSV the properties are one column holding a JSON object, since the
+ * property names differ from message to message. bodyLoaded is false when
+ * text is only the preview of a headers only browse, and for ObjectMessage
+ * bodies, so a replay skips them rather than sending their toString as a
+ * TextMessage.
+ *
+ * Records are encoded straight into a direct buffer that is written to
+ * the channel when full, optionally through gzip.
+ *
+ * @author Scott Douglass
+ */
+public class MessageExporter implements Closeable {
+
+  /** Bytes encoded before they are written out. */
+  private static final int BUFFER_SIZE = 256 * 1024;
+  /** Header columns, in order, also the NDJSON field names. */
+  static final String[] COLUMNS = new String[]{
+    "JMSMessageID",
+    "JMSTimestamp",
+    "JMSCorrelationID",
+    "JMSType",
+    "JMSPriority",
+    "JMSDeliveryMode",
+    "JMSExpiration",
+    "JMSRedelivered",
+    "JMSDestination",
+    "JMSReplyTo",
+    "properties",
+    "bodyLoaded",
+    "text"
+  };
+
+  /**
+   * The export formats.
+   */
+  public enum Format {
+    /** One JSON object per line. */
+    NDJSON,
+    /** RFC 4180 comma separated values with a header line. */
+    CSV;
+
+    /**
+     * Guess the format from a file name: .csv or .csv.gz is CSV,
+     * anything else NDJSON.
+     *
+     * @param fileName the file name
+     * @return the format
+     */
+    public static Format forFileName(String fileName) {
+      final String name = fileName.toLowerCase(Locale.ROOT);
+      return name.endsWith(".csv") || name.endsWith(".csv.gz") ? CSV : NDJSON;
+    }
+  }
+
+  private final Format format;
+  private final WritableByteChannel channel;
+  private final GZIPOutputStream gzip;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final byte[] gzipBytes;
+  private final StringBuilder line = new StringBuilder(1024);
+  private long count = 0;
+  private long bytes = 0;
+
+  /**
+   * Create or truncate a file and write to it.
+   *
+   * @param file the file to write
+   * @param inFormat NDJSON or CSV
+   * @param compress true to gzip the output
+   * @throws IOException if the file can not be opened
+   */
+  public MessageExporter(Path file, Format inFormat, boolean compress)
+    throws IOException {
+    this(FileChannel.open(file, StandardOpenOption.CREATE,
+      StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+      inFormat, compress);
+  }
+
+  /**
+   * Write to a channel, e.g. Channels.newChannel(System.out). The channel
+   * is closed with the exporter.
+   *
+   * @param inChannel where the output goes
+   * @param inFormat NDJSON or CSV
+   * @param compress true to gzip the output
+   * @throws IOException if the header can not be written
+   */
+  public MessageExporter(WritableByteChannel inChannel, Format inFormat,
+    boolean compress) throws IOException {
+    this.channel = inChannel;
+    this.format = inFormat;
+    if (compress) {
+      final OutputStream out = Channels.newOutputStream(inChannel);
+      gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+      gzipBytes = new byte[BUFFER_SIZE];
+    } else {
+      gzip = null;
+      gzipBytes = null;
+    }
+    if (format == Format.CSV) {
+      for (int i = 0; i < COLUMNS.length; i++) {
+        if (i > 0) {
+          line.append(',');
+        }
+        line.append(COLUMNS[i]);
+      }
+      line.append("\r\n");
+      encode();
+    }
+  }
+
+  /**
+   * @return records written so far
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return uncompressed bytes written so far, including what is still
+   * buffered
+   */
+  public long getBytes() {
+    return bytes + buffer.position();
+  }
+
+  /**
+   * Append a record.
+   *
+   * @param record the record to write
+   * @throws IOException if the output can not be written
+   * @throws JMSException if a field can not be read from the record
+   */
+  public void write(MessageTableRecord record) throws IOException, JMSException {
+    if (format == Format.CSV) {
+      csv(record);
+    } else {
+      ndjson(record);
+    }
+    encode();
+    count++;
+  }
+
+  /**
+   * Write out everything buffered so far.
+   *
+   * @throws IOException if the output can not be written
+   */
+  public void flush() throws IOException {
+    drain();
+    if (gzip != null) {
+      gzip.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      drain();
+      if (gzip != null) {
+        gzip.finish();
+        gzip.flush();
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void ndjson(MessageTableRecord record) throws JMSException {
+    line.append('{');
+    jsonField(COLUMNS[0], record.getJMSMessageID());
+    line.append(',');
+    jsonName(COLUMNS[1]);
+    line.append(record.getJMSTimestamp()).append(',');
+    jsonField(COLUMNS[2], record.getJMSCorrelationID());
+    line.append(',');
+    jsonField(COLUMNS[3], record.getJMSType());
+    line.append(',');
+    jsonName(COLUMNS[4]);
+    line.append(record.getJMSPriority()).append(',');
+    jsonName(COLUMNS[5]);
+    line.append(record.getJMSDeliveryMode()).append(',');
+    jsonName(COLUMNS[6]);
+    line.append(record.getJMSExpiration()).append(',');
+    jsonName(COLUMNS[7]);
+    line.append(record.getJMSRedelivered()).append(',');
+    jsonField(COLUMNS[8], destinationName(record.getJMSDestination()));
+    line.append(',');
+    jsonField(COLUMNS[9], destinationName(record.getJMSReplyTo()));
+    line.append(',');
+    jsonName(COLUMNS[10]);
+    jsonProperties(record);
+    line.append(',');
+    final String text = body(record);
+    jsonName(COLUMNS[11]);
+    line.append(isTextBody(record)).append(',');
+    jsonField(COLUMNS[12], text);
+    line.append("}\n");
+  }
+
+  private void csv(MessageTableRecord record) throws JMSException {
+    csvField(record.getJMSMessageID());
+    line.append(record.getJMSTimestamp()).append(',');
+    csvField(record.getJMSCorrelationID());
+    csvField(record.getJMSType());
+    line.append(record.getJMSPriority()).append(',');
+    line.append(record.getJMSDeliveryMode()).append(',');
+    line.append(record.getJMSExpiration()).append(',');
+    line.append(record.getJMSRedelivered()).append(',');
+    csvField(destinationName(record.getJMSDestination()));
+    csvField(destinationName(record.getJMSReplyTo()));
+    // the properties as JSON, quoted as one CSV field
+    final int start = line.length();
+    jsonProperties(record);
+    final String properties = line.substring(start);
+    line.setLength(start);
+    csvField(properties);
+    final String text = body(record);
+    line.append(isTextBody(record)).append(',');
+    if (text != null) {
+      csvQuote(text);
+    }
+    line.append("\r\n");
+  }
+
+  private void csvField(String value) {
+    if (value != null) {
+      csvQuote(value);
+    }
+    line.append(',');
+  }
+
+  private void csvQuote(String value) {
+    line.append('"');
+    int start = 0;
+    int quote = value.indexOf('"');
+    while (quote >= 0) {
+      line.append(value, start, quote + 1).append('"');
+      start = quote + 1;
+      quote = value.indexOf('"', start);
+    }
+    line.append(value, start, value.length()).append('"');
+  }
+
+  private void jsonProperties(MessageTableRecord record) {
+    line.append('{');
+    final Properties properties = record.getProperties();
+    if (properties != null) {
+      boolean first = true;
+      for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+        if (!first) {
+          line.append(',');
+        }
+        jsonField(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        first = false;
+      }
+    }
+    line.append('}');
+  }
+
+  private void jsonName(String name) {
+    jsonString(name);
+    line.append(':');
+  }
+
+  private void jsonField(String name, String value) {
+    jsonName(name);
+    if (value == null) {
+      line.append("null");
+    } else {
+      jsonString(value);
+    }
+  }
+
+  private void jsonString(String value) {
+    line.append('"');
+    // copy runs of plain characters in one go
+    int start = 0;
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c < 0x20 || c == '"' || c == '\\') {
+        line.append(value, start, i);
+        start = i + 1;
+        switch (c) {
+          case '"':
+            line.append("\\\"");
+            break;
+          case '\\':
+            line.append("\\\\");
+            break;
+          case '\n':
+            line.append("\\n");
+            break;
+          case '\r':
+            line.append("\\r");
+            break;
+          case '\t':
+            line.append("\\t");
+            break;
+          default:
+            line.append(String.format("\\u%04x", (int) c));
+            break;
+        }
+      }
+    }
+    line.append(value, start, value.length()).append('"');
+  }
+
+  private static String body(MessageTableRecord record) throws JMSException {
+    String body = record.getText();
+    if (body == null && record.getObject() != null) {
+      body = record.getObject().toString();
+    }
+    return body;
+  }
+
+  /**
+   * @return true if the text written is the whole body, false for a
+   * preview or the toString of an ObjectMessage body
+   */
+  private static boolean isTextBody(MessageTableRecord record) throws JMSException {
+    return record.isBodyLoaded() && (record.getText() != null || !record.hasObject());
+  }
+
+  private static String destinationName(Destination destination) {
+    return destination == null ? null : destination.toString();
+  }
+
+  /**
+   * Encode the line into the buffer, writing the buffer out whenever it
+   * fills up.
+   */
+  private void encode() throws IOException {
+    // String.getBytes is much faster than a CharsetEncoder on a CharBuffer
+    final byte[] encoded = line.toString().getBytes(StandardCharsets.UTF_8);
+    int offset = 0;
+    while (offset < encoded.length) {
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      final int length = Math.min(buffer.remaining(), encoded.length - offset);
+      buffer.put(encoded, offset, length);
+      offset += length;
+    }
+    line.setLength(0);
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    bytes += buffer.remaining();
+    if (gzip == null) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } else {
+      final int length = buffer.remaining();
+      buffer.get(gzipBytes, 0, length);
+      gzip.write(gzipBytes, 0, length);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import com.jmstoolkit.beans.MessageTableRecord;
+import com.jmstoolkit.beans.SnapshotReader;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import javax.jms.JMSException;
+
+/**
+ * Reads captured messages back one at a time: NDJSON and CSV written by
+ * MessageExporter (gzipped if the name ends in .gz) and snapshots written
+ * by SnapshotWriter (.jtks).
+ *
+ * Only the fields MessageExporter writes are read; destinations are not,
+ * as they only make sense on the broker they came from.
+ *
+ * @author Scott Douglass
+ */
+public class MessageImporter implements Closeable {
+
+  /** File name ending of snapshots. */
+  public static final String SNAPSHOT_SUFFIX = ".jtks";
+
+  private final BufferedReader reader;
+  private final MessageExporter.Format format;
+  private final SnapshotReader snapshot;
+  private String[] csvHeader;
+  private int row = 0;
+  private long line = 0;
+
+  /**
+   * Open a capture, choosing the format from the file name.
+   *
+   * @param file an export or snapshot file
+   * @throws IOException if the file can not be opened
+   */
+  public MessageImporter(Path file) throws IOException {
+    final String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+    if (name.endsWith(SNAPSHOT_SUFFIX)) {
+      snapshot = new SnapshotReader(file);
+      reader = null;
+      format = null;
+    } else {
+      snapshot = null;
+      format = MessageExporter.Format.forFileName(name);
+      InputStream in = Files.newInputStream(file);
+      if (name.endsWith(".gz")) {
+        in = new GZIPInputStream(in, 1 << 16);
+      }
+      reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+      if (format == MessageExporter.Format.CSV) {
+        final List<String> header = readCsvRecord();
+        csvHeader = header == null ? new String[0] : header.toArray(new String[header.size()]);
+      }
+    }
+  }
+
+  /**
+   *
+   * @return the number of records if known up front (snapshots), or -1
+   */
+  public int size() {
+    return snapshot == null ? -1 : snapshot.size();
+  }
+
+  /**
+   * Read the next record.
+   *
+   * @return the record, null at the end of the file
+   * @throws IOException if the file can not be read or is malformed
+   * @throws JMSException if a field can not be set on the record
+   */
+  public MessageTableRecord next() throws IOException, JMSException {
+    MessageTableRecord record = null;
+    if (snapshot != null) {
+      if (row < snapshot.size()) {
+        record = snapshot.get(row++);
+      }
+    } else if (format == MessageExporter.Format.CSV) {
+      List<String> fields = readCsvRecord();
+      while (fields != null && fields.size() == 1 && fields.get(0) == null) {
+        // a blank line
+        fields = readCsvRecord();
+      }
+      if (fields != null) {
+        final Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < csvHeader.length && i < fields.size(); i++) {
+          final String field = fields.get(i);
+          values.put(csvHeader[i], "properties".equals(csvHeader[i]) && field != null && !field.isEmpty()
+            ? new JsonParser(field, line).parseValue() : field);
+        }
+        record = toRecord(values);
+      }
+    } else {
+      String text = reader.readLine();
+      line++;
+      while (text != null && text.trim().isEmpty()) {
+        text = reader.readLine();
+        line++;
+      }
+      if (text != null) {
+        final Object value = new JsonParser(text, line).parseValue();
+        if (!(value instanceof Map)) {
+          throw new IOException("Line " + line + ": not a JSON object");
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> values = (Map<String, Object>) value;
+        record = toRecord(values);
+      }
+    }
+    return record;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (snapshot != null) {
+      snapshot.close();
+    } else {
+      reader.close();
+    }
+  }
+
+  private static MessageTableRecord toRecord(Map<String, Object> values)
+    throws JMSException {
+    final MessageTableRecord record = new MessageTableRecord();
+    record.setJMSMessageID(string(values.get("JMSMessageID")));
+    record.setJMSTimestamp(number(values.get("JMSTimestamp"), 0));
+    record.setJMSCorrelationID(string(values.get("JMSCorrelationID")));
+    record.setJMSType(string(values.get("JMSType")));
+    record.setJMSPriority((int) number(values.get("JMSPriority"), 4));
+    record.setJMSDeliveryMode((int) number(values.get("JMSDeliveryMode"), 2));
+    record.setJMSExpiration(number(values.get("JMSExpiration"), 0));
+    record.setJMSRedelivered(Boolean.parseBoolean(String.valueOf(values.get("JMSRedelivered"))));
+    final Properties properties = new Properties();
+    final Object map = values.get("properties");
+    if (map instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) map).entrySet()) {
+        if (entry.getValue() != null) {
+          properties.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+      }
+    }
+    record.setProperties(properties);
+    record.setText(string(values.get("text")));
+    // missing in files exported before the field was added
+    record.setBodyLoaded(!"false".equals(String.valueOf(values.get("bodyLoaded"))));
+    return record;
+  }
+
+  /**
+   * Null for a missing field, JSON null and an unquoted empty CSV field;
+   * an empty string stays empty.
+   */
+  private static String string(Object value) {
+    return value == null ? null : String.valueOf(value);
+  }
+
+  private static long number(Object value, long otherwise) {
+    long result = otherwise;
+    if (value instanceof Number) {
+      result = ((Number) value).longValue();
+    } else if (value != null && !"".equals(value)) {
+      try {
+        result = Long.parseLong(value.toString().trim());
+      } catch (NumberFormatException e) {
+        result = otherwise;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * One RFC 4180 record, which may span lines inside quotes. Quoted fields
+   * are kept exactly as written, line breaks included; an empty field that
+   * is not quoted is null, as MessageExporter writes null that way.
+   *
+   * @return the fields, null at the end of the file
+   */
+  private List<String> readCsvRecord() throws IOException {
+    int c = reader.read();
+    List<String> fields = null;
+    if (c >= 0) {
+      line++;
+      fields = new ArrayList<>();
+      final StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      boolean wasQuoted = false;
+      boolean more = true;
+      while (more) {
+        if (c < 0) {
+          if (quoted) {
+            throw new IOException("Line " + line + ": unterminated quote");
+          }
+          fields.add(field(field, wasQuoted));
+          more = false;
+        } else if (quoted) {
+          if (c != '"') {
+            if (c == '\n') {
+              line++;
+            }
+            field.append((char) c);
+          } else {
+            reader.mark(1);
+            if (reader.read() == '"') {
+              field.append('"');
+            } else {
+              reader.reset();
+              quoted = false;
+            }
+          }
+        } else if (c == '"') {
+          quoted = true;
+          wasQuoted = true;
+        } else if (c == ',') {
+          fields.add(field(field, wasQuoted));
+          field.setLength(0);
+          wasQuoted = false;
+        } else if (c == '\n') {
+          fields.add(field(field, wasQuoted));
+          more = false;
+        } else if (c != '\r') {
+          field.append((char) c);
+        }
+        if (more) {
+          c = reader.read();
+        }
+      }
+    }
+    return fields;
+  }
+
+  private static String field(StringBuilder inField, boolean inQuoted) {
+    return inQuoted || inField.length() > 0 ? inField.toString() : null;
+  }
+
+  /**
+   * Just enough JSON for MessageExporter output: objects, strings,
+   * numbers, true, false and null.
+   */
+  private static final class JsonParser {
+
+    private final String text;
+    private final long line;
+    private int position = 0;
+
+    private JsonParser(String inText, long inLine) {
+      this.text = inText;
+      this.line = inLine;
+    }
+
+    private Object parseValue() throws IOException {
+      skipSpace();
+      if (position >= text.length()) {
+        throw error("value");
+      }
+      final char c = text.charAt(position);
+      final Object value;
+      if (c == '{') {
+        value = parseObject();
+      } else if (c == '"') {
+        value = parseString();
+      } else if (text.startsWith("true", position)) {
+        position += 4;
+        value = Boolean.TRUE;
+      } else if (text.startsWith("false", position)) {
+        position += 5;
+        value = Boolean.FALSE;
+      } else if (text.startsWith("null", position)) {
+        position += 4;
+        value = null;
+      } else {
+        value = parseNumber();
+      }
+      return value;
+    }
+
+    private Map<String, Object> parseObject() throws IOException {
+      final Map<String, Object> object = new LinkedHashMap<>();
+      position++;
+      skipSpace();
+      if (peek() == '}') {
+        position++;
+      } else {
+        boolean more = true;
+        while (more) {
+          skipSpace();
+          if (peek() != '"') {
+            throw error("name");
+          }
+          final String name = parseString();
+          skipSpace();
+          if (peek() != ':') {
+            throw error(":");
+          }
+          position++;
+          object.put(name, parseValue());
+          skipSpace();
+          final char c = peek();
+          position++;
+          if (c == '}') {
+            more = false;
+          } else if (c != ',') {
+            throw error(", or }");
+          }
+        }
+      }
+      return object;
+    }
+
+    private String parseString() throws IOException {
+      final StringBuilder value = new StringBuilder();
+      position++;
+      boolean closed = false;
+      while (!closed && position < text.length()) {
+        final char c = text.charAt(position++);
+        if (c == '"') {
+          closed = true;
+        } else if (c == '\\' && position < text.length()) {
+          final char escaped = text.charAt(position++);
+          switch (escaped) {
+            case 'n':
+              value.append('\n');
+              break;
+            case 'r':
+              value.append('\r');
+              break;
+            case 't':
+              value.append('\t');
+              break;
+            case 'b':
+              value.append('\b');
+              break;
+            case 'f':
+              value.append('\f');
+              break;
+            case 'u':
+              if (position + 4 > text.length()) {
+                throw error("four hex digits");
+              }
+              value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+              position += 4;
+              break;
+            default:
+              value.append(escaped);
+              break;
+          }
+        } else {
+          value.append(c);
+        }
+      }
+      if (!closed) {
+        throw error("\"");
+      }
+      return value.toString();
+    }
+
+    private Number parseNumber() throws IOException {
+      final int start = position;
+      while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+        position++;
+      }
+      final String number = text.substring(start, position);
+      try {
+        return number.matches("-?\\d+") ? (Number) Long.parseLong(number)
+          : (Number) Double.parseDouble(number);
+      } catch (NumberFormatException e) {
+        throw error("value");
+      }
+    }
+
+    private char peek() {
+      return position < text.length() ? text.charAt(position) : '\0';
+    }
+
+    private void skipSpace() {
+      while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+        position++;
+      }
+    }
+
+    private IOException error(String expected) {
+      return new IOException("Line " + line + ", column " + (position + 1)
+        + ": expected " + expected);
+    }
+  }
+}
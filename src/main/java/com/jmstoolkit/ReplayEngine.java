@@ -0,0 +1,535 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import com.jmstoolkit.beans.MessageTableRecord;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+/**
+ * Sends captured messages (see MessageImporter) to a destination again,
+ * with several producers, either as fast as possible, at a fixed rate or
+ * with the gaps between the original JMSTimestamps.
+ *
+ * The reading thread works out when each message is due and hands it to
+ * the producers, which wait until then and send it. Each replay opens a
+ * connection of its own with a session and producer per thread, so pass
+ * the target of a shared CachingConnectionFactory rather than the cache,
+ * whose session cache is sized for the browser.
+ *
+ * Text, object, JMSCorrelationID, JMSType, priority, delivery mode, time
+ * to live and properties are copied. Properties come back as strings, as
+ * that is how they were captured; JMSX and provider (JMS_) properties
+ * other than JMSXGroupID are left for the broker to set. Records from a
+ * headers only browse hold no more than a preview of the body and are
+ * skipped rather than sent truncated or empty, as are ObjectMessage bodies
+ * the ObjectBody allow-list refuses.
+ *
+ * @author Scott Douglass
+ */
+public class ReplayEngine {
+
+  private static final Logger LOGGER = Logger.getLogger(ReplayEngine.class.getName());
+
+  /** System property (or app.properties key) for the number of producers. */
+  public static final String P_PRODUCERS = "jmstoolkit.replay.producers";
+  /** Default number of producers. */
+  public static final int D_PRODUCERS = 4;
+  /** Least milliseconds between two progress reports. */
+  private static final long PROGRESS_INTERVAL = 250L;
+  /** Messages read ahead of the producers. */
+  private static final int READ_AHEAD = 1024;
+  /** Longest gap kept from the original timing, so one old message does not stall the replay. */
+  private static final long MAX_GAP = TimeUnit.MINUTES.toNanos(10);
+
+  /**
+   * How the messages are spaced out.
+   */
+  public enum Pacing {
+    /** The gaps between the original JMSTimestamps, divided by the speed. */
+    ORIGINAL,
+    /** A fixed number of messages per second. */
+    FIXED_RATE,
+    /** As fast as the producers can send. */
+    MAX_SPEED
+  }
+
+  private final ConnectionFactory connectionFactory;
+  private final Destination destination;
+  private int producers = D_PRODUCERS;
+  private Pacing pacing = Pacing.MAX_SPEED;
+  private double rate = 100;
+  private double speed = 1;
+  private Progress progress;
+  private volatile boolean cancelled = false;
+  private final AtomicLong sent = new AtomicLong();
+  /** Records without their body, only touched by the reading thread. */
+  private long skipped = 0;
+  private final AtomicLong lastReport = new AtomicLong();
+  private long started;
+
+  /**
+   * Told about the number of messages sent as the replay goes.
+   */
+  public interface Progress {
+
+    /**
+     * Called from a producer thread at most every 250 ms, and once at the
+     * end.
+     *
+     * @param count messages sent so far
+     * @param total messages to send, -1 if not known
+     * @param perSecond average rate since the start
+     */
+    void replayed(long count, long total, double perSecond);
+  }
+
+  /**
+   * What a replay achieved. Latency is the time a send took, lag how late
+   * a send started compared to the pacing.
+   */
+  public static final class Result {
+
+    private final long count;
+    private final long skipped;
+    private final long elapsed;
+    private final LatencyHistogram latency;
+    private final LatencyHistogram lag;
+
+    private Result(long inCount, long inSkipped, long inElapsed,
+      LatencyHistogram inLatency, LatencyHistogram inLag) {
+      this.count = inCount;
+      this.skipped = inSkipped;
+      this.elapsed = inElapsed;
+      this.latency = inLatency;
+      this.lag = inLag;
+    }
+
+    /**
+     * @return messages sent
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * @return records not sent because their body was not captured or
+     * was refused
+     */
+    public long getSkipped() {
+      return skipped;
+    }
+
+    /**
+     * @return milliseconds from the first to the last send
+     */
+    public long getElapsed() {
+      return elapsed;
+    }
+
+    /**
+     * @return messages sent per second
+     */
+    public double getPerSecond() {
+      return count * 1000.0 / Math.max(1, elapsed);
+    }
+
+    /**
+     * @param percentile e.g. 50 or 99.9
+     * @return send latency in milliseconds
+     */
+    public double getLatency(double percentile) {
+      return latency.getPercentile(percentile) / 1000.0;
+    }
+
+    /**
+     * @return mean send latency in milliseconds
+     */
+    public double getMeanLatency() {
+      return latency.getMean() / 1000.0;
+    }
+
+    /**
+     * @return most milliseconds a send started behind its due time
+     */
+    public double getMaxLag() {
+      return lag.getPercentile(100) / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d messages in %.1f s (%.0f/s), latency ms mean %.2f"
+        + " p50 %.2f p99 %.2f max %.2f, behind schedule by up to %.0f ms%s",
+        count, elapsed / 1000.0, getPerSecond(), getMeanLatency(),
+        getLatency(50), getLatency(99), getLatency(100), getMaxLag(),
+        skipped == 0 ? "" : ", " + skipped + " skipped without a body");
+    }
+  }
+
+  /**
+   *
+   * @param inConnectionFactory where to get the connection
+   * @param inDestination where to send the messages
+   */
+  public ReplayEngine(ConnectionFactory inConnectionFactory,
+    Destination inDestination) {
+    this.connectionFactory = inConnectionFactory;
+    this.destination = inDestination;
+  }
+
+  /**
+   * Read the number of producers from properties, keeping the current
+   * value for a missing or bad entry.
+   *
+   * @param inProperties e.g. the application properties
+   * @return this engine
+   */
+  public ReplayEngine configure(Properties inProperties) {
+    setProducers(Settings.getInt(inProperties, P_PRODUCERS, producers));
+    return this;
+  }
+
+  /**
+   * @param inProducers number of concurrent producers
+   */
+  public void setProducers(int inProducers) {
+    this.producers = Math.max(1, inProducers);
+  }
+
+  /**
+   * @param inPacing how the messages are spaced out
+   */
+  public void setPacing(Pacing inPacing) {
+    this.pacing = inPacing;
+  }
+
+  /**
+   * @param inRate messages per second for FIXED_RATE
+   */
+  public void setRate(double inRate) {
+    this.rate = inRate > 0 ? inRate : 1;
+  }
+
+  /**
+   * @param inSpeed for ORIGINAL, 2 to replay twice as fast as captured
+   */
+  public void setSpeed(double inSpeed) {
+    this.speed = inSpeed > 0 ? inSpeed : 1;
+  }
+
+  /**
+   * @param inProgress told about progress, may be null
+   */
+  public void setProgress(Progress inProgress) {
+    this.progress = inProgress;
+  }
+
+  /**
+   * Stop reading and sending; messages already sent stay sent.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * @return messages sent so far
+   */
+  public long getSent() {
+    return sent.get();
+  }
+
+  /**
+   * Replay every record of the source, blocking until all are sent.
+   *
+   * @param source the captured messages, not closed here
+   * @return throughput and latency
+   * @throws JMSException from the first producer that failed
+   * @throws IOException if the source can not be read
+   * @throws InterruptedException if interrupted while waiting for the
+   * producers, they are cancelled
+   */
+  public Result run(MessageImporter source)
+    throws JMSException, IOException, InterruptedException {
+    final long total = source.size();
+    final BlockingQueue<Scheduled> work = new ArrayBlockingQueue<>(READ_AHEAD);
+    final Connection connection = connectionFactory.createConnection();
+    final ExecutorService executor = Executors.newFixedThreadPool(producers);
+    final List<Future<Producer>> results = new ArrayList<>();
+    started = System.currentTimeMillis();
+    final long start = System.nanoTime();
+    final LatencyHistogram latency = new LatencyHistogram();
+    final LatencyHistogram lag = new LatencyHistogram();
+    JMSException failure = null;
+    try {
+      for (int i = 0; i < producers; i++) {
+        results.add(executor.submit(new Producer(connection, work, total)));
+      }
+      try {
+        read(source, work, start, results);
+        for (int i = 0; i < producers; i++) {
+          put(work, Scheduled.END, results);
+        }
+      } catch (IOException | JMSException | RuntimeException e) {
+        cancel();
+        throw e;
+      }
+      for (Future<Producer> result : results) {
+        try {
+          final Producer producer = result.get();
+          latency.add(producer.latency);
+          lag.add(producer.lag);
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            if (e.getCause() instanceof JMSException) {
+              failure = (JMSException) e.getCause();
+            } else {
+              failure = new JMSException(String.valueOf(e.getCause()));
+              failure.initCause(e.getCause());
+            }
+          }
+          cancel();
+        }
+      }
+    } catch (InterruptedException e) {
+      cancel();
+      throw e;
+    } finally {
+      executor.shutdown();
+      if (cancelled) {
+        // let the producers close their sessions before the connection goes
+        executor.awaitTermination(PROGRESS_INTERVAL * 4, TimeUnit.MILLISECONDS);
+      }
+      connection.close();
+    }
+    report(total, true);
+    if (failure != null) {
+      throw failure;
+    }
+    if (skipped > 0) {
+      LOGGER.log(Level.WARNING, "Skipped {0} records without their body", skipped);
+    }
+    return new Result(sent.get(), skipped, System.currentTimeMillis() - started,
+      latency, lag);
+  }
+
+  /**
+   * Read the records and work out when each is due.
+   */
+  private void read(MessageImporter source, BlockingQueue<Scheduled> work,
+    long start, List<Future<Producer>> results)
+    throws IOException, JMSException, InterruptedException {
+    final double interval = 1e9 / rate;
+    long count = 0;
+    long previous = 0;
+    long due = start;
+    MessageTableRecord record = cancelled ? null : source.next();
+    while (record != null) {
+      if (record.hasObject()) {
+        // deserialized here, a refused body marks the record not loaded
+        record.getObject();
+      }
+      if (!record.isBodyLoaded()) {
+        // the text is a preview at most, other bodies were not copied
+        skipped++;
+        LOGGER.log(Level.FINE, "Skipping {0}, body not captured", record.getJMSMessageID());
+      } else {
+        if (pacing == Pacing.FIXED_RATE) {
+          due = start + (long) (count * interval);
+        } else if (pacing == Pacing.ORIGINAL) {
+          final long timestamp = record.getJMSTimestamp();
+          if (count > 0 && timestamp > previous) {
+            // browse order is not strictly timestamp order, never go back
+            due += Math.min(MAX_GAP,
+              (long) (TimeUnit.MILLISECONDS.toNanos(timestamp - previous) / speed));
+          }
+          previous = count == 0 ? timestamp : Math.max(previous, timestamp);
+        }
+        put(work, new Scheduled(record, due), results);
+        count++;
+      }
+      record = cancelled ? null : source.next();
+    }
+  }
+
+  /**
+   * Queue work for the producers, giving up if they have all stopped.
+   */
+  private void put(BlockingQueue<Scheduled> work, Scheduled item,
+    List<Future<Producer>> results) throws InterruptedException {
+    boolean queued = false;
+    while (!queued && !cancelled) {
+      queued = work.offer(item, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+      if (!queued) {
+        boolean running = false;
+        for (Future<Producer> result : results) {
+          running |= !result.isDone();
+        }
+        if (!running) {
+          cancel();
+        }
+      }
+    }
+  }
+
+  private void report(long total, boolean last) {
+    final long now = System.currentTimeMillis();
+    final long previous = lastReport.get();
+    if (progress != null && (last
+      || (now - previous >= PROGRESS_INTERVAL && lastReport.compareAndSet(previous, now)))) {
+      final long count = sent.get();
+      progress.replayed(count, total, count * 1000.0 / Math.max(1, now - started));
+    }
+  }
+
+  /**
+   * Copy what was captured onto a new message.
+   */
+  static Message toMessage(Session session, MessageTableRecord record)
+    throws JMSException {
+    final Message message;
+    if (record.getText() != null) {
+      message = session.createTextMessage(record.getText());
+    } else if (record.getObject() != null) {
+      message = session.createObjectMessage(record.getObject());
+    } else {
+      message = session.createMessage();
+    }
+    if (record.getJMSCorrelationID() != null) {
+      message.setJMSCorrelationID(record.getJMSCorrelationID());
+    } else if (record.getJMSCorrelationIDAsBytes() != null) {
+      message.setJMSCorrelationIDAsBytes(record.getJMSCorrelationIDAsBytes());
+    }
+    if (record.getJMSType() != null) {
+      message.setJMSType(record.getJMSType());
+    }
+    final Properties properties = record.getProperties();
+    if (properties != null) {
+      for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+        final String name = String.valueOf(entry.getKey());
+        if (!name.startsWith("JMS") || "JMSXGroupID".equals(name)) {
+          message.setStringProperty(name, String.valueOf(entry.getValue()));
+        }
+      }
+    }
+    return message;
+  }
+
+  /**
+   * A record and the System.nanoTime it should be sent at.
+   */
+  private static final class Scheduled {
+
+    /** Tells a producer there is nothing more to send. */
+    private static final Scheduled END = new Scheduled(null, 0);
+    private final MessageTableRecord record;
+    private final long due;
+
+    private Scheduled(MessageTableRecord inRecord, long inDue) {
+      this.record = inRecord;
+      this.due = inDue;
+    }
+  }
+
+  private class Producer implements Callable<Producer> {
+
+    private final Connection connection;
+    private final BlockingQueue<Scheduled> work;
+    private final long total;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram lag = new LatencyHistogram();
+
+    Producer(Connection inConnection, BlockingQueue<Scheduled> inWork, long inTotal) {
+      this.connection = inConnection;
+      this.work = inWork;
+      this.total = inTotal;
+    }
+
+    @Override
+    public Producer call() throws JMSException, InterruptedException {
+      final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+      try {
+        final MessageProducer producer = session.createProducer(destination);
+        try {
+          Scheduled item = take();
+          while (item != null && item != Scheduled.END) {
+            send(session, producer, item);
+            item = take();
+          }
+        } finally {
+          producer.close();
+        }
+      } finally {
+        session.close();
+      }
+      return this;
+    }
+
+    private Scheduled take() throws InterruptedException {
+      Scheduled item = null;
+      while (item == null && !cancelled) {
+        item = work.poll(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+      }
+      return item;
+    }
+
+    private void send(Session session, MessageProducer producer, Scheduled item)
+      throws JMSException {
+      final MessageTableRecord record = item.record;
+      final Message message = toMessage(session, record);
+      final int deliveryMode = record.getJMSDeliveryMode() == DeliveryMode.NON_PERSISTENT
+        ? DeliveryMode.NON_PERSISTENT : DeliveryMode.PERSISTENT;
+      final int priority = Math.max(0, Math.min(9, record.getJMSPriority()));
+      final long timeToLive = record.getJMSExpiration() > 0
+        ? Math.max(1, record.getJMSExpiration() - record.getJMSTimestamp()) : 0;
+      long now = System.nanoTime();
+      while (now < item.due && !cancelled) {
+        LockSupport.parkNanos(item.due - now);
+        now = System.nanoTime();
+      }
+      if (!cancelled) {
+        if (pacing != Pacing.MAX_SPEED) {
+          lag.record((now - item.due) / 1000);
+        }
+        producer.send(message, deliveryMode, priority, timeToLive);
+        latency.record((System.nanoTime() - now) / 1000);
+        sent.incrementAndGet();
+        report(total, false);
+      }
+    }
+  }
+}
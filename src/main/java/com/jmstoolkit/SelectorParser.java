@@ -0,0 +1,307 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import java.util.Locale;
+import javax.jms.InvalidSelectorException;
+
+/**
+ * Syntax check for JMS message selectors, so a typo is reported before
+ * the selector is sent to the broker.
+ *
+ * Follows the SQL92 subset in the JMS specification: comparisons,
+ * arithmetic, AND/OR/NOT, BETWEEN, IN, LIKE with ESCAPE and IS NULL.
+ * Types are not checked, that is left to the broker.
+ *
+ * @author Scott Douglass
+ */
+public final class SelectorParser {
+
+  private static final String EOF = "end of selector";
+  private final String selector;
+  private int position = 0;
+  /** Start of the current token. */
+  private int tokenStart = 0;
+  private String token;
+
+  private SelectorParser(final String inSelector) {
+    this.selector = inSelector;
+  }
+
+  /**
+   * Check the syntax of a selector. An empty or null selector is valid and
+   * selects every message.
+   *
+   * @param inSelector the selector
+   * @throws InvalidSelectorException describing the first error found
+   */
+  public static void validate(final String inSelector)
+    throws InvalidSelectorException {
+    if (!(inSelector == null || inSelector.trim().isEmpty())) {
+      final SelectorParser parser = new SelectorParser(inSelector);
+      parser.next();
+      parser.orExpression();
+      if (parser.token != null) {
+        throw parser.error(EOF);
+      }
+    }
+  }
+
+  /**
+   *
+   * @param inSelector the selector
+   * @return true if the selector is empty or valid
+   */
+  public static boolean isValid(final String inSelector) {
+    boolean valid = true;
+    try {
+      validate(inSelector);
+    } catch (InvalidSelectorException e) {
+      valid = false;
+    }
+    return valid;
+  }
+
+  private void orExpression() throws InvalidSelectorException {
+    andExpression();
+    while (accept("OR")) {
+      andExpression();
+    }
+  }
+
+  private void andExpression() throws InvalidSelectorException {
+    notExpression();
+    while (accept("AND")) {
+      notExpression();
+    }
+  }
+
+  private void notExpression() throws InvalidSelectorException {
+    if (accept("NOT")) {
+      notExpression();
+    } else {
+      comparison();
+    }
+  }
+
+  private void comparison() throws InvalidSelectorException {
+    additive();
+    if (accept("=") || accept("<>") || accept("<") || accept(">")
+      || accept("<=") || accept(">=")) {
+      additive();
+    } else if (accept("IS")) {
+      accept("NOT");
+      expect("NULL");
+    } else {
+      final boolean negated = accept("NOT");
+      if (accept("BETWEEN")) {
+        additive();
+        expect("AND");
+        additive();
+      } else if (accept("IN")) {
+        expect("(");
+        stringLiteral();
+        while (accept(",")) {
+          stringLiteral();
+        }
+        expect(")");
+      } else if (accept("LIKE")) {
+        stringLiteral();
+        if (accept("ESCAPE")) {
+          stringLiteral();
+        }
+      } else if (negated) {
+        throw error("BETWEEN, IN or LIKE");
+      }
+    }
+  }
+
+  private void additive() throws InvalidSelectorException {
+    multiplicative();
+    while (accept("+") || accept("-")) {
+      multiplicative();
+    }
+  }
+
+  private void multiplicative() throws InvalidSelectorException {
+    unary();
+    while (accept("*") || accept("/")) {
+      unary();
+    }
+  }
+
+  private void unary() throws InvalidSelectorException {
+    if (accept("+") || accept("-")) {
+      unary();
+    } else {
+      primary();
+    }
+  }
+
+  private void primary() throws InvalidSelectorException {
+    if (accept("(")) {
+      orExpression();
+      expect(")");
+    } else if (token != null && (isLiteral(token) || isIdentifier(token))) {
+      next();
+    } else {
+      throw error("identifier or literal");
+    }
+  }
+
+  private void stringLiteral() throws InvalidSelectorException {
+    if (token != null && token.charAt(0) == '\'') {
+      next();
+    } else {
+      throw error("string literal");
+    }
+  }
+
+  private boolean accept(final String expected) throws InvalidSelectorException {
+    boolean accepted = false;
+    if (token != null && token.charAt(0) != '\''
+      && token.toUpperCase(Locale.ROOT).equals(expected)) {
+      next();
+      accepted = true;
+    }
+    return accepted;
+  }
+
+  private void expect(final String expected) throws InvalidSelectorException {
+    if (!accept(expected)) {
+      throw error(expected);
+    }
+  }
+
+  private InvalidSelectorException error(final String expected) {
+    return new InvalidSelectorException("Invalid selector at position "
+      + (tokenStart + 1) + ": expected " + expected + ", found "
+      + (token == null ? EOF : token));
+  }
+
+  private static boolean isLiteral(final String inToken) {
+    final char first = inToken.charAt(0);
+    final String upper = inToken.toUpperCase(Locale.ROOT);
+    return first == '\'' || Character.isDigit(first) || first == '.'
+      || "TRUE".equals(upper) || "FALSE".equals(upper);
+  }
+
+  private static boolean isIdentifier(final String inToken) {
+    final String upper = inToken.toUpperCase(Locale.ROOT);
+    boolean identifier = Character.isJavaIdentifierStart(inToken.charAt(0));
+    switch (upper) {
+      case "NOT":
+      case "AND":
+      case "OR":
+      case "BETWEEN":
+      case "LIKE":
+      case "IN":
+      case "IS":
+      case "NULL":
+      case "ESCAPE":
+        identifier = false;
+        break;
+      default:
+        break;
+    }
+    return identifier;
+  }
+
+  /**
+   * Read the next token into token, null at the end of the selector.
+   */
+  private void next() throws InvalidSelectorException {
+    final int length = selector.length();
+    while (position < length && Character.isWhitespace(selector.charAt(position))) {
+      position++;
+    }
+    tokenStart = position;
+    if (position >= length) {
+      token = null;
+      return;
+    }
+    final char c = selector.charAt(position);
+    if (c == '\'') {
+      position++;
+      boolean closed = false;
+      while (position < length && !closed) {
+        if (selector.charAt(position) == '\'') {
+          if (position + 1 < length && selector.charAt(position + 1) == '\'') {
+            position++;
+          } else {
+            closed = true;
+          }
+        }
+        position++;
+      }
+      if (!closed) {
+        token = null;
+        throw new InvalidSelectorException("Invalid selector at position "
+          + (tokenStart + 1) + ": unterminated string literal");
+      }
+    } else if (Character.isDigit(c) || (c == '.' && position + 1 < length
+      && Character.isDigit(selector.charAt(position + 1)))) {
+      number();
+    } else if (Character.isJavaIdentifierStart(c)) {
+      while (position < length
+        && Character.isJavaIdentifierPart(selector.charAt(position))) {
+        position++;
+      }
+    } else if ((c == '<' || c == '>') && position + 1 < length
+      && (selector.charAt(position + 1) == '='
+      || (c == '<' && selector.charAt(position + 1) == '>'))) {
+      position += 2;
+    } else if ("=<>+-*/(),".indexOf(c) >= 0) {
+      position++;
+    } else {
+      token = String.valueOf(c);
+      throw error("identifier, literal or operator");
+    }
+    token = selector.substring(tokenStart, position);
+  }
+
+  private void number() {
+    final int length = selector.length();
+    if (selector.startsWith("0x", position) || selector.startsWith("0X", position)) {
+      position += 2;
+      while (position < length
+        && Character.digit(selector.charAt(position), 16) >= 0) {
+        position++;
+      }
+    } else {
+      while (position < length && Character.isDigit(selector.charAt(position))) {
+        position++;
+      }
+      if (position < length && selector.charAt(position) == '.') {
+        position++;
+        while (position < length && Character.isDigit(selector.charAt(position))) {
+          position++;
+        }
+      }
+      if (position < length && "eE".indexOf(selector.charAt(position)) >= 0) {
+        position++;
+        if (position < length && "+-".indexOf(selector.charAt(position)) >= 0) {
+          position++;
+        }
+        while (position < length && Character.isDigit(selector.charAt(position))) {
+          position++;
+        }
+      }
+    }
+    if (position < length && "lLfFdD".indexOf(selector.charAt(position)) >= 0) {
+      position++;
+    }
+  }
+}
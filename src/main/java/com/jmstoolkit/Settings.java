@@ -23,12 +23,16 @@ import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  *
  * @author Scott Douglass
  */
 public class Settings {
+
+  private static final Logger LOGGER = Logger.getLogger(Settings.class.getName());
   //FIXME: use a regex that matches more possible separators (i.e.: "," " " "-")
 
   /**
@@ -99,6 +103,74 @@ public class Settings {
     return settings;
   }
 
+  /**
+   * Adds a value to the front of a most recently used list and returns the
+   * list. Values are stored under numbered keys (inKey.0, inKey.1, ...) so
+   * they may contain the ELEMENT_SEPARATOR, e.g. message selectors.
+   *
+   * @param inProperties: properties to use
+   * @param inKey: key prefix for the list
+   * @param inValue: value to move to the front of the list
+   * @param inMax: most values to keep
+   * @return the List of values, most recent first
+   */
+  public static List<String> addRecentSetting(final Properties inProperties,
+    final String inKey, final String inValue, final int inMax) {
+    final List<String> settings = new ArrayList<>(
+      getIndexedSettings(inProperties, inKey));
+    if (!(inValue == null || inValue.isEmpty())) {
+      settings.remove(inValue);
+      settings.add(0, inValue);
+      while (settings.size() > inMax) {
+        settings.remove(settings.size() - 1);
+      }
+      for (int i = 0; i < settings.size(); i++) {
+        inProperties.setProperty(inKey + "." + i, settings.get(i));
+      }
+    }
+    return settings;
+  }
+
+  /**
+   *
+   * @param inProperties: properties to use
+   * @param inKey: key prefix for the list
+   * @return the values stored under inKey.0, inKey.1, ... in order
+   */
+  public static List<String> getIndexedSettings(final Properties inProperties,
+    final String inKey) {
+    final List<String> settings = new ArrayList<>();
+    String value = inProperties.getProperty(inKey + ".0");
+    while (value != null) {
+      settings.add(value);
+      value = inProperties.getProperty(inKey + "." + settings.size());
+    }
+    return settings;
+  }
+
+  /**
+   * An integer setting, from the properties or else a system property of
+   * the same name.
+   *
+   * @param inProperties: properties to use, e.g. the application properties
+   * @param inKey: key of the setting
+   * @param inValue: value if the setting is missing or not a number
+   * @return the setting
+   */
+  public static int getInt(final Properties inProperties, final String inKey,
+    final int inValue) {
+    final String setting = inProperties.getProperty(inKey, System.getProperty(inKey));
+    int result = inValue;
+    if (setting != null) {
+      try {
+        result = Integer.parseInt(setting.trim());
+      } catch (NumberFormatException e) {
+        LOGGER.log(Level.WARNING, "Ignoring {0}={1}", new Object[]{inKey, setting});
+      }
+    }
+    return result;
+  }
+
   /**
    *
    * @param inFileName
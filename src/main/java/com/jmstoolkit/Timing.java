@@ -0,0 +1,327 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Where the time goes: a latency histogram and an error count for each
+ * stage of browsing, listening and draining, plus message and byte
+ * counters. Published over JMX and shown by Help &gt; Timings.
+ *
+ * Usage is a start and a stop around the stage:
+ * <pre>
+ * final long started = Timing.start();
+ * ...
+ * Timing.stop(Timing.Stage.COMMIT, started);
+ * </pre>
+ * Run with -Djmstoolkit.timing=false to switch it off.
+ *
+ * @author Scott Douglass
+ */
+public final class Timing implements TimingMXBean {
+
+  private static final Logger LOGGER = Logger.getLogger(Timing.class.getName());
+  /** System property, false to not time anything. */
+  public static final String P_ENABLED = "jmstoolkit.timing";
+  /** Name the MXBean is registered under. */
+  public static final String OBJECT_NAME = "com.jmstoolkit:type=Timing";
+  private static final boolean ENABLED
+    = !"false".equalsIgnoreCase(System.getProperty(P_ENABLED));
+  private static final Timing INSTANCE = new Timing();
+
+  /**
+   * The timed stages.
+   */
+  public enum Stage {
+    /** A JNDI lookup of a connection factory or destination. */
+    JNDI_LOOKUP("JNDI lookup"),
+    /** Opening a connection to the broker. */
+    CONNECTION("Connection"),
+    /** Waiting for the next browsed message. */
+    ENUMERATION("Enumeration"),
+    /** Copying the headers and properties of a message. */
+    PROPERTIES("Properties"),
+    /** Reading the body of a message. */
+    BODY("Body"),
+    /** Adding rows to the message table, on the EDT. */
+    TABLE_UPDATE("Table update"),
+    /** A drain receive that returned a message. */
+    RECEIVE("Drain receive"),
+    /** A drain commit. */
+    COMMIT("Drain commit");
+
+    private final String label;
+
+    Stage(String inLabel) {
+      this.label = inLabel;
+    }
+
+    @Override
+    public String toString() {
+      return label;
+    }
+  }
+
+  /**
+   * One stage, as seen over JMX. Times are in microseconds.
+   */
+  public static final class StageStats {
+
+    private final String name;
+    private final long count;
+    private final long errors;
+    private final double mean;
+    private final long p50;
+    private final long p99;
+    private final long max;
+    private final long total;
+
+    private StageStats(Stage stage, LatencyHistogram histogram, long inErrors) {
+      this.name = stage.toString();
+      this.count = histogram.getCount();
+      this.errors = inErrors;
+      this.mean = histogram.getMean();
+      this.p50 = histogram.getPercentile(50);
+      this.p99 = histogram.getPercentile(99);
+      this.max = histogram.getMax();
+      this.total = histogram.getSum();
+    }
+
+    /**
+     * @return the stage name
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return times the stage was timed
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * @return times the stage failed
+     */
+    public long getErrors() {
+      return errors;
+    }
+
+    /**
+     * @return mean microseconds
+     */
+    public double getMeanMicros() {
+      return mean;
+    }
+
+    /**
+     * @return median microseconds
+     */
+    public long getP50Micros() {
+      return p50;
+    }
+
+    /**
+     * @return 99th percentile microseconds
+     */
+    public long getP99Micros() {
+      return p99;
+    }
+
+    /**
+     * @return longest microseconds
+     */
+    public long getMaxMicros() {
+      return max;
+    }
+
+    /**
+     * @return microseconds spent in the stage altogether
+     */
+    public long getTotalMicros() {
+      return total;
+    }
+  }
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+  private final AtomicLongArray errors = new AtomicLongArray(Stage.values().length);
+  private final AtomicLong messages = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private volatile long firstPaint = -1;
+  private volatile long connectionReady = -1;
+
+  private Timing() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * @return the one Timing
+   */
+  public static Timing get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Register the MXBean with the platform MBean server, once.
+   */
+  public static void register() {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(INSTANCE, name);
+      }
+    } catch (JMException e) {
+      LOGGER.log(Level.WARNING, "Can not register " + OBJECT_NAME, e);
+    }
+  }
+
+  /**
+   * @return a start time for stop, 0 when timing is off
+   */
+  public static long start() {
+    return ENABLED ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Record the time since start against a stage.
+   *
+   * @param stage what was timed
+   * @param started the value start returned
+   */
+  public static void stop(Stage stage, long started) {
+    if (started != 0) {
+      INSTANCE.histograms[stage.ordinal()].record((System.nanoTime() - started) / 1000);
+    }
+  }
+
+  /**
+   * Count a failure of a stage.
+   *
+   * @param stage what failed
+   */
+  public static void error(Stage stage) {
+    INSTANCE.errors.incrementAndGet(stage.ordinal());
+  }
+
+  /**
+   * Count a converted message.
+   *
+   * @param size body characters
+   */
+  public static void message(long size) {
+    INSTANCE.messages.incrementAndGet();
+    INSTANCE.bytes.addAndGet(size);
+  }
+
+  /**
+   * Record how long the window took to show, once.
+   *
+   * @param millis milliseconds since main
+   */
+  public void setFirstPaintMillis(long millis) {
+    firstPaint = millis;
+  }
+
+  /**
+   * Record how long the first connection took, once.
+   *
+   * @param millis milliseconds since main
+   */
+  public void setConnectionReadyMillis(long millis) {
+    connectionReady = millis;
+  }
+
+  @Override
+  public List<StageStats> getStages() {
+    final List<StageStats> stages = new ArrayList<>();
+    for (Stage stage : Stage.values()) {
+      stages.add(new StageStats(stage, histograms[stage.ordinal()],
+        errors.get(stage.ordinal())));
+    }
+    return stages;
+  }
+
+  @Override
+  public long getMessages() {
+    return messages.get();
+  }
+
+  @Override
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  @Override
+  public long getErrors() {
+    long total = 0;
+    for (int i = 0; i < errors.length(); i++) {
+      total += errors.get(i);
+    }
+    return total;
+  }
+
+  @Override
+  public long getFirstPaintMillis() {
+    return firstPaint;
+  }
+
+  @Override
+  public long getConnectionReadyMillis() {
+    return connectionReady;
+  }
+
+  @Override
+  public String getSummary() {
+    final StringBuilder summary = new StringBuilder();
+    summary.append(String.format("%-14s %9s %6s %9s %9s %9s %10s%n",
+      "Stage", "Count", "Errors", "Mean us", "p99 us", "Max us", "Total ms"));
+    for (StageStats stage : getStages()) {
+      summary.append(String.format("%-14s %9d %6d %9.1f %9d %9d %10.1f%n",
+        stage.getName(), stage.getCount(), stage.getErrors(), stage.getMeanMicros(),
+        stage.getP99Micros(), stage.getMaxMicros(), stage.getTotalMicros() / 1000.0));
+    }
+    summary.append(String.format("Messages %d, body characters %d%s",
+      getMessages(), getBytes(), ENABLED ? "" : " (timing is off)"));
+    if (firstPaint >= 0) {
+      summary.append(String.format("%nStartup: first paint %d ms, connection ready %s",
+        firstPaint, connectionReady < 0 ? "-" : connectionReady + " ms"));
+    }
+    return summary.toString();
+  }
+
+  @Override
+  public void reset() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i].reset();
+      errors.set(i, 0);
+    }
+    messages.set(0);
+    bytes.set(0);
+  }
+}
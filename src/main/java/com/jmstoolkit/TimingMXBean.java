@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import java.util.List;
+
+/**
+ * JMX view of Timing, registered as com.jmstoolkit:type=Timing.
+ *
+ * @author Scott Douglass
+ */
+public interface TimingMXBean {
+
+  /**
+   * @return latency of each stage, in the order of Timing.Stage
+   */
+  List<Timing.StageStats> getStages();
+
+  /**
+   * @return messages converted for the table, exports and listeners
+   */
+  long getMessages();
+
+  /**
+   * @return body characters of the converted messages
+   */
+  long getBytes();
+
+  /**
+   * @return failures in all stages
+   */
+  long getErrors();
+
+  /**
+   * @return milliseconds from main to the first paint of the window, -1
+   * if not shown yet
+   */
+  long getFirstPaintMillis();
+
+  /**
+   * @return milliseconds from main to the first connection to the broker,
+   * -1 if not connected yet
+   */
+  long getConnectionReadyMillis();
+
+  /**
+   * @return the stages as a small fixed width table
+   */
+  String getSummary();
+
+  /**
+   * Start counting again; the startup times are kept.
+   */
+  void reset();
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+
+/**
+ * Moves or copies messages from one destination to another.
+ *
+ * A move is a drain that sends every message it receives to the target in
+ * the same transaction, so each commit of batchSize messages removes them
+ * from the source and adds them to the target together: a failure rolls
+ * both back and nothing is lost or sent twice.
+ *
+ * A copy browses the source, which must be a queue, and the workers send
+ * what is browsed in transactions of batchSize messages; the source is
+ * left as it is. Each selector is browsed once, shared by the workers.
+ *
+ * Priority, delivery mode and the remaining time to live are kept; the
+ * broker gives the sent messages new JMSMessageIDs.
+ *
+ * @author Scott Douglass
+ */
+public class TransferEngine extends DrainEngine {
+
+  /** System property (or app.properties key) for the number of workers. */
+  public static final String P_WORKERS = "jmstoolkit.transfer.workers";
+  /** System property (or app.properties key) for messages per commit. */
+  public static final String P_BATCH_SIZE = "jmstoolkit.transfer.batch";
+
+  private final ConnectionFactory connectionFactory;
+  private final Destination source;
+  private final Destination target;
+  private final boolean copy;
+  private final Map<Session, MessageProducer> producers = new ConcurrentHashMap<>();
+  private final Map<String, Browse> browses = new ConcurrentHashMap<>();
+  private Session browseSession;
+
+  /**
+   *
+   * @param inConnectionFactory where to get the connections
+   * @param inSource where the messages are
+   * @param inTarget where they go
+   * @param inCopy true to copy, leaving the source alone, false to move
+   */
+  public TransferEngine(ConnectionFactory inConnectionFactory,
+    Destination inSource, Destination inTarget, boolean inCopy) {
+    super(inConnectionFactory, inSource);
+    this.connectionFactory = inConnectionFactory;
+    this.source = inSource;
+    this.target = inTarget;
+    this.copy = inCopy;
+    super.setTransacted(true);
+  }
+
+  /**
+   * Read the drain settings, then workers and batch size from the
+   * transfer keys if they are there.
+   *
+   * @param inProperties e.g. the application properties
+   * @return this engine
+   */
+  @Override
+  public TransferEngine configure(Properties inProperties) {
+    super.configure(inProperties);
+    final int workers = Settings.getInt(inProperties, P_WORKERS, 0);
+    if (workers > 0) {
+      setConsumers(workers);
+    }
+    final int batchSize = Settings.getInt(inProperties, P_BATCH_SIZE, 0);
+    if (batchSize > 0) {
+      setBatchSize(batchSize);
+    }
+    return this;
+  }
+
+  /**
+   * Always transacted, the sends have to commit with the receives.
+   *
+   * @param inTransacted ignored
+   */
+  @Override
+  public void setTransacted(boolean inTransacted) {
+    super.setTransacted(true);
+  }
+
+  /**
+   * @return true for a copy, false for a move
+   */
+  public boolean isCopy() {
+    return copy;
+  }
+
+  /**
+   * Move or copy the messages, blocking until every worker has finished.
+   *
+   * @return the number of messages sent to the target
+   * @throws JMSException from the first worker that failed
+   * @throws InterruptedException if interrupted while waiting for the
+   * workers, they are cancelled
+   */
+  @Override
+  public long run() throws JMSException, InterruptedException {
+    long sent;
+    if (copy) {
+      if (!(source instanceof Queue)) {
+        throw new JMSException("Only a queue can be copied: " + source);
+      }
+      final Connection connection = connectionFactory.createConnection();
+      try {
+        connection.start();
+        browseSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        sent = super.run();
+      } finally {
+        browses.clear();
+        // closes the browsers too
+        connection.close();
+      }
+    } else {
+      sent = super.run();
+    }
+    return sent;
+  }
+
+  @Override
+  protected MessageConsumer createConsumer(Session session,
+    Destination inDestination, String consumerSelector) throws JMSException {
+    MessageConsumer consumer;
+    if (copy) {
+      final String key = consumerSelector == null ? "" : consumerSelector;
+      Browse browse = browses.get(key);
+      if (browse == null) {
+        synchronized (browses) {
+          browse = browses.get(key);
+          if (browse == null) {
+            browse = new Browse(consumerSelector);
+            browses.put(key, browse);
+          }
+        }
+      }
+      consumer = browse;
+    } else {
+      consumer = super.createConsumer(session, inDestination, consumerSelector);
+    }
+    return consumer;
+  }
+
+  /**
+   * Send the message to the target in the worker's transaction.
+   */
+  @Override
+  protected void onMessage(Session session, Message message) throws JMSException {
+    MessageProducer producer = producers.get(session);
+    if (producer == null) {
+      producer = session.createProducer(target);
+      producers.put(session, producer);
+    }
+    final long expiration = message.getJMSExpiration();
+    long timeToLive = 0;
+    if (expiration > 0) {
+      // already expired messages are kept for the broker to deal with
+      timeToLive = Math.max(1, expiration - System.currentTimeMillis());
+    }
+    producer.send(message, message.getJMSDeliveryMode(),
+      message.getJMSPriority(), timeToLive);
+  }
+
+  @Override
+  protected void onClose(Session session) throws JMSException {
+    final MessageProducer producer = producers.remove(session);
+    if (producer != null) {
+      producer.close();
+    }
+  }
+
+  /**
+   * One browse of the source, handed out a message at a time to whichever
+   * worker asks next. The browse session is only used under its lock.
+   */
+  private final class Browse implements MessageConsumer {
+
+    private final String selector;
+    private final Enumeration messages;
+
+    private Browse(String inSelector) throws JMSException {
+      this.selector = inSelector;
+      synchronized (browseSession) {
+        final QueueBrowser browser
+          = browseSession.createBrowser((Queue) source, inSelector);
+        messages = browser.getEnumeration();
+      }
+    }
+
+    @Override
+    public String getMessageSelector() {
+      return selector;
+    }
+
+    @Override
+    public MessageListener getMessageListener() {
+      return null;
+    }
+
+    @Override
+    public void setMessageListener(MessageListener listener) throws JMSException {
+      throw new JMSException("A browse has no listener");
+    }
+
+    /**
+     * @return the next browsed message, null once the browse is done
+     */
+    @Override
+    public Message receive() throws JMSException {
+      Message message = null;
+      synchronized (browseSession) {
+        if (messages.hasMoreElements()) {
+          message = (Message) messages.nextElement();
+        }
+      }
+      return message;
+    }
+
+    @Override
+    public Message receive(long timeout) throws JMSException {
+      return receive();
+    }
+
+    @Override
+    public Message receiveNoWait() throws JMSException {
+      return receive();
+    }
+
+    @Override
+    public void close() {
+      // shared by the workers, closed with the browse connection
+    }
+  }
+}
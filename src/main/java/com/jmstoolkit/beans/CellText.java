@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * The strings shown in the message table, made once per row when the
+ * record is created instead of on every paint. Thread safe, so listener
+ * and browse threads can use it.
+ *
+ * Repeated values share one String: priorities and delivery modes come
+ * from a table, and messages sent in the same second as the one before
+ * get the same timestamp text.
+ *
+ * @author Scott Douglass
+ */
+final class CellText {
+
+  /** Timestamp format of the message table, in the default time zone. */
+  static final DateTimeFormatter DATE_TIME
+    = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+  private static final String[] SMALL = new String[16];
+  /** The last timestamp formatted, replaced as a whole. */
+  private static volatile Second last = new Second(Long.MIN_VALUE, "");
+
+  static {
+    for (int i = 0; i < SMALL.length; i++) {
+      SMALL[i] = Integer.toString(i);
+    }
+  }
+
+  private CellText() {
+  }
+
+  /**
+   * @param millis a JMS timestamp
+   * @return the timestamp as shown in the table
+   */
+  static String timestamp(long millis) {
+    final long second = Math.floorDiv(millis, 1000);
+    Second cached = last;
+    if (cached.second != second) {
+      cached = new Second(second, DATE_TIME.format(Instant.ofEpochMilli(millis)));
+      last = cached;
+    }
+    return cached.text;
+  }
+
+  /**
+   * @param value a priority or delivery mode
+   * @return the number as text, shared for small numbers
+   */
+  static String number(int value) {
+    return value >= 0 && value < SMALL.length ? SMALL[value] : Integer.toString(value);
+  }
+
+  /**
+   * @param value a JMS expiration, 0 for none
+   * @return the number as text, shared for 0
+   */
+  static String number(long value) {
+    return value == 0 ? SMALL[0] : Long.toString(value);
+  }
+
+  /**
+   * A second and its formatted text.
+   */
+  private static final class Second {
+
+    private final long second;
+    private final String text;
+
+    private Second(long inSecond, String inText) {
+      this.second = inSecond;
+      this.text = inText;
+    }
+  }
+}
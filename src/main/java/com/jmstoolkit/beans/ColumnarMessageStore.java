@@ -0,0 +1,418 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+
+/**
+ * Column oriented storage for the rows of a MessageTableModel. Header
+ * fields live in primitive arrays, so reading a cell is a plain array index
+ * and rendering does not touch any per-row objects.
+ *
+ * Storage grows in fixed size chunks, adding rows never copies the rows
+ * already stored. Rows can also be removed from the front, which turns the
+ * store into a ring: fully evicted chunks are recycled for new rows, so a
+ * store that is trimmed as it grows keeps a constant footprint.
+ *
+ * @author Scott Douglass
+ */
+public class ColumnarMessageStore {
+
+  /** log2 of the number of rows in a chunk. */
+  static final int CHUNK_SHIFT = 12;
+  /** Number of rows in a chunk. */
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  /** Stop interning once this many distinct values have been seen. */
+  private static final int MAX_INTERNED = 8192;
+  /** Rough fixed cost of a row: headers, array slots and the Properties. */
+  private static final int ROW_OVERHEAD = 160;
+
+  private final List<Chunk> chunks = new ArrayList<>();
+  private final Map<String, String> interned = new HashMap<>();
+  /** Position of row 0 within the first chunk. */
+  private int first = 0;
+  private int size = 0;
+  private long bytes = 0;
+  /** An evicted chunk kept for reuse. */
+  private Chunk spare;
+
+  /**
+   * One block of CHUNK_SIZE rows.
+   */
+  private static final class Chunk {
+    private final long[] timestamp = new long[CHUNK_SIZE];
+    private final long[] expiration = new long[CHUNK_SIZE];
+    private final int[] priority = new int[CHUNK_SIZE];
+    private final int[] deliveryMode = new int[CHUNK_SIZE];
+    private final boolean[] redelivered = new boolean[CHUNK_SIZE];
+    private final String[] messageID = new String[CHUNK_SIZE];
+    private final String[] correlationID = new String[CHUNK_SIZE];
+    private final String[] type = new String[CHUNK_SIZE];
+    private final String[] text = new String[CHUNK_SIZE];
+    private final String[] timestampText = new String[CHUNK_SIZE];
+    private final String[] expirationText = new String[CHUNK_SIZE];
+    private final byte[][] correlationIDAsBytes = new byte[CHUNK_SIZE][];
+    private final Destination[] destination = new Destination[CHUNK_SIZE];
+    private final Destination[] replyTo = new Destination[CHUNK_SIZE];
+    private final Properties[] properties = new Properties[CHUNK_SIZE];
+    private final Serializable[] object = new Serializable[CHUNK_SIZE];
+    private final int[] bytes = new int[CHUNK_SIZE];
+    private final boolean[] bodyLoaded = new boolean[CHUNK_SIZE];
+
+    private void clear(int offset) {
+      messageID[offset] = null;
+      correlationID[offset] = null;
+      type[offset] = null;
+      text[offset] = null;
+      timestampText[offset] = null;
+      expirationText[offset] = null;
+      correlationIDAsBytes[offset] = null;
+      destination[offset] = null;
+      replyTo[offset] = null;
+      properties[offset] = null;
+      object[offset] = null;
+    }
+  }
+
+  /**
+   *
+   * @return the number of rows stored
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Remove all rows.
+   */
+  public void clear() {
+    chunks.clear();
+    interned.clear();
+    first = 0;
+    size = 0;
+    bytes = 0;
+    spare = null;
+  }
+
+  /**
+   *
+   * @return estimated heap used by the stored rows, in bytes
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Remove the oldest rows, row numbers of the remaining rows shift down
+   * by count.
+   *
+   * @param count number of rows to remove from the front
+   */
+  public void removeFirst(int count) {
+    if (count < 0 || count > size) {
+      throw new IndexOutOfBoundsException("Count: " + count + ", Size: " + size);
+    }
+    for (int row = 0; row < count; row++) {
+      final Chunk chunk = chunks.get((first + row) >>> CHUNK_SHIFT);
+      final int offset = (first + row) & CHUNK_MASK;
+      bytes -= chunk.bytes[offset];
+      chunk.clear(offset);
+    }
+    first += count;
+    size -= count;
+    while (first >= CHUNK_SIZE) {
+      spare = chunks.remove(0);
+      first -= CHUNK_SIZE;
+    }
+    if (size == 0 && !chunks.isEmpty()) {
+      spare = chunks.remove(0);
+      first = 0;
+    }
+  }
+
+  /**
+   * Append a record as the last row.
+   *
+   * @param record the MessageTableRecord to store
+   * @throws JMSException if a field can not be read from the record
+   */
+  public void add(MessageTableRecord record) throws JMSException {
+    final int position = first + size;
+    final int offset = position & CHUNK_MASK;
+    if (offset == 0) {
+      chunks.add(spare == null ? new Chunk() : spare);
+      spare = null;
+    }
+    final Chunk chunk = chunks.get(position >>> CHUNK_SHIFT);
+    chunk.timestamp[offset] = record.getJMSTimestamp();
+    chunk.expiration[offset] = record.getJMSExpiration();
+    chunk.priority[offset] = record.getJMSPriority();
+    chunk.deliveryMode[offset] = record.getJMSDeliveryMode();
+    chunk.redelivered[offset] = record.getJMSRedelivered();
+    chunk.messageID[offset] = record.getJMSMessageID();
+    chunk.correlationID[offset] = intern(record.getJMSCorrelationID());
+    chunk.type[offset] = intern(record.getJMSType());
+    chunk.text[offset] = record.getText();
+    // already made on the ingestion thread for browsed and received rows
+    chunk.timestampText[offset] = record.getTimestampText();
+    chunk.expirationText[offset] = record.getExpirationText();
+    chunk.correlationIDAsBytes[offset] = record.getJMSCorrelationIDAsBytes();
+    chunk.destination[offset] = record.getJMSDestination();
+    chunk.replyTo[offset] = record.getJMSReplyTo();
+    chunk.properties[offset] = record.getProperties();
+    chunk.object[offset] = record.getObject();
+    chunk.bodyLoaded[offset] = record.isBodyLoaded();
+    chunk.bytes[offset] = estimateSize(record);
+    bytes += chunk.bytes[offset];
+    size++;
+  }
+
+  /**
+   * Approximate heap cost of a record, strings counted at two bytes a
+   * character. Serialized objects are not measured.
+   */
+  static int estimateSize(MessageTableRecord record) throws JMSException {
+    long estimate = ROW_OVERHEAD;
+    estimate += length(record.getJMSMessageID());
+    estimate += length(record.getJMSCorrelationID());
+    estimate += length(record.getJMSType());
+    estimate += length(record.getText());
+    final byte[] correlationIDAsBytes = record.getJMSCorrelationIDAsBytes();
+    if (correlationIDAsBytes != null) {
+      estimate += correlationIDAsBytes.length;
+    }
+    final Properties properties = record.getProperties();
+    if (properties != null) {
+      for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+        estimate += 32 + length(entry.getKey()) + length(entry.getValue());
+      }
+    }
+    return (int) Math.min(Integer.MAX_VALUE, estimate);
+  }
+
+  private static long length(Object value) {
+    return value instanceof String ? 2L * ((String) value).length() : 0L;
+  }
+
+  /**
+   * Correlation IDs and JMS types tend to repeat, so keep one copy of
+   * each distinct value.
+   */
+  private String intern(String value) {
+    if (value == null) {
+      return null;
+    }
+    String result = interned.get(value);
+    if (result == null) {
+      result = value;
+      if (interned.size() < MAX_INTERNED) {
+        interned.put(value, value);
+      }
+    }
+    return result;
+  }
+
+  private Chunk chunk(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+    }
+    return chunks.get((first + row) >>> CHUNK_SHIFT);
+  }
+
+  private int offset(int row) {
+    return (first + row) & CHUNK_MASK;
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the JMS timestamp
+   */
+  public long getTimestamp(int row) {
+    return chunk(row).timestamp[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the JMS expiration
+   */
+  public long getExpiration(int row) {
+    return chunk(row).expiration[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the JMS timestamp as shown in the table
+   */
+  public String getTimestampText(int row) {
+    return chunk(row).timestampText[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the JMS expiration as shown in the table
+   */
+  public String getExpirationText(int row) {
+    return chunk(row).expirationText[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the JMS priority
+   */
+  public int getPriority(int row) {
+    return chunk(row).priority[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the JMS delivery mode
+   */
+  public int getDeliveryMode(int row) {
+    return chunk(row).deliveryMode[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return estimated heap used by the row, in bytes
+   */
+  public int getBytes(int row) {
+    return chunk(row).bytes[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the JMS message ID
+   */
+  public String getMessageID(int row) {
+    return chunk(row).messageID[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the JMS destination the message was browsed or received from
+   */
+  public Destination getDestination(int row) {
+    return chunk(row).destination[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the JMS correlation ID
+   */
+  public String getCorrelationID(int row) {
+    return chunk(row).correlationID[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the JMS type
+   */
+  public String getType(int row) {
+    return chunk(row).type[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the text body, null if not a TextMessage
+   */
+  public String getText(int row) {
+    return chunk(row).text[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return the message properties
+   */
+  public Properties getProperties(int row) {
+    return chunk(row).properties[offset(row)];
+  }
+
+  /**
+   *
+   * @param row the row index
+   * @return false if only the headers and a text preview are stored
+   */
+  public boolean isBodyLoaded(int row) {
+    return chunk(row).bodyLoaded[offset(row)];
+  }
+
+  /**
+   * Replace the body of a row stored without one.
+   *
+   * @param row the row index
+   * @param record the record holding the full body
+   * @throws JMSException if the body can not be read from the record
+   */
+  public void setBody(int row, MessageTableRecord record) throws JMSException {
+    final Chunk chunk = chunk(row);
+    final int offset = offset(row);
+    bytes -= chunk.bytes[offset];
+    chunk.text[offset] = record.getText();
+    chunk.object[offset] = record.getObject();
+    chunk.bodyLoaded[offset] = true;
+    chunk.bytes[offset] = estimateSize(record);
+    bytes += chunk.bytes[offset];
+  }
+
+  /**
+   * Rebuild the full record for a row.
+   *
+   * @param row the row index
+   * @return a new MessageTableRecord holding the stored values
+   * @throws JMSException if a field can not be set on the record
+   */
+  public MessageTableRecord getRecord(int row) throws JMSException {
+    final Chunk chunk = chunk(row);
+    final int offset = offset(row);
+    final MessageTableRecord record = new MessageTableRecord();
+    record.setJMSTimestamp(chunk.timestamp[offset]);
+    record.setJMSExpiration(chunk.expiration[offset]);
+    record.setJMSPriority(chunk.priority[offset]);
+    record.setJMSDeliveryMode(chunk.deliveryMode[offset]);
+    record.setJMSRedelivered(chunk.redelivered[offset]);
+    record.setJMSMessageID(chunk.messageID[offset]);
+    record.setJMSCorrelationID(chunk.correlationID[offset]);
+    record.setJMSType(chunk.type[offset]);
+    record.setText(chunk.text[offset]);
+    record.setJMSCorrelationIDAsBytes(chunk.correlationIDAsBytes[offset]);
+    record.setJMSDestination(chunk.destination[offset]);
+    record.setJMSReplyTo(chunk.replyTo[offset]);
+    record.setProperties(chunk.properties[offset]);
+    record.setObject(chunk.object[offset]);
+    record.setBodyLoaded(chunk.bodyLoaded[offset]);
+    return record;
+  }
+}
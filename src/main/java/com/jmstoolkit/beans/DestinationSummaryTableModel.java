@@ -0,0 +1,207 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * One row per destination with the outcome of browsing it, filled in as
+ * the browses finish.
+ *
+ * @author Scott Douglass
+ */
+public class DestinationSummaryTableModel extends AbstractTableModel {
+
+  private final List<Row> data = new ArrayList<>();
+  private final SimpleDateFormat dateTime = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+  private final String[] columnName = new String[]{
+    "Destination",
+    "Messages",
+    "Oldest",
+    "Newest",
+    "Time (ms)",
+    "Status"
+  };
+
+  /**
+   * The result of browsing one destination.
+   */
+  public static class Row {
+
+    private final String destination;
+    private int count = 0;
+    private long oldest = 0L;
+    private long newest = 0L;
+    private long elapsed = 0L;
+    private String status = "";
+
+    /**
+     *
+     * @param inDestination the JNDI name of the destination
+     */
+    public Row(String inDestination) {
+      this.destination = inDestination;
+    }
+
+    /**
+     * Count one message.
+     *
+     * @param timestamp the JMS timestamp of the message
+     */
+    public void add(long timestamp) {
+      if (count == 0 || timestamp < oldest) {
+        oldest = timestamp;
+      }
+      if (timestamp > newest) {
+        newest = timestamp;
+      }
+      count++;
+    }
+
+    /**
+     * @return the destination
+     */
+    public String getDestination() {
+      return destination;
+    }
+
+    /**
+     * @return the number of messages
+     */
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * @return the elapsed time in milliseconds
+     */
+    public long getElapsed() {
+      return elapsed;
+    }
+
+    /**
+     * @param inElapsed the elapsed time in milliseconds
+     */
+    public void setElapsed(long inElapsed) {
+      this.elapsed = inElapsed;
+    }
+
+    /**
+     * @return the status, empty if the browse worked
+     */
+    public String getStatus() {
+      return status;
+    }
+
+    /**
+     * @param inStatus the status, empty if the browse worked
+     */
+    public void setStatus(String inStatus) {
+      this.status = inStatus;
+    }
+  }
+
+  /**
+   * Remove all rows.
+   */
+  public void clear() {
+    data.clear();
+    this.fireTableDataChanged();
+  }
+
+  /**
+   * Add or replace the row for a destination.
+   *
+   * @param row the result for one destination
+   */
+  public void setRow(Row row) {
+    int index = 0;
+    while (index < data.size()
+      && !data.get(index).getDestination().equals(row.getDestination())) {
+      index++;
+    }
+    if (index < data.size()) {
+      data.set(index, row);
+      this.fireTableRowsUpdated(index, index);
+    } else {
+      data.add(row);
+      this.fireTableRowsInserted(index, index);
+    }
+  }
+
+  /**
+   *
+   * @return total of the message counts of all rows
+   */
+  public long getTotal() {
+    long total = 0;
+    for (Row row : data) {
+      total += row.getCount();
+    }
+    return total;
+  }
+
+  @Override
+  public int getRowCount() {
+    return data.size();
+  }
+
+  @Override
+  public int getColumnCount() {
+    return columnName.length;
+  }
+
+  @Override
+  public String getColumnName(int column) {
+    return columnName[column];
+  }
+
+  @Override
+  public Class<?> getColumnClass(int columnIndex) {
+    return (columnIndex == 1 || columnIndex == 4) ? Long.class : String.class;
+  }
+
+  @Override
+  public Object getValueAt(int rowIndex, int columnIndex) {
+    final Row row = data.get(rowIndex);
+    Object result = "";
+    switch (columnIndex) {
+      case 0:
+        result = row.destination;
+        break;
+      case 1:
+        result = (long) row.count;
+        break;
+      case 2:
+        result = row.count == 0 ? "" : dateTime.format(row.oldest);
+        break;
+      case 3:
+        result = row.count == 0 ? "" : dateTime.format(row.newest);
+        break;
+      case 4:
+        result = row.elapsed;
+        break;
+      case 5:
+        result = row.status;
+        break;
+      default:
+        break;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import javax.jms.JMSException;
+
+/**
+ * In-memory inverted index over browsed messages, so the table can be
+ * filtered without browsing the queue again.
+ *
+ * Text bodies, the string headers and property names and values are split
+ * into lower case words. Each word maps to the rows it occurs in, stored
+ * as variable length deltas in a byte array.
+ *
+ * Queries are words separated by spaces, all of which must match. Groups
+ * of words separated by OR match if any group matches, and a word ending
+ * in * matches every word starting with it. For example:
+ * <pre>order 1234 OR invoice*</pre>
+ *
+ * Adding and searching may happen on different threads.
+ *
+ * @author Scott Douglass
+ */
+public class MessageIndex {
+
+  /** Longer words are cut to this length. */
+  private static final int MAX_TERM_LENGTH = 64;
+  private static final String OR = "OR";
+  private static final char PREFIX = '*';
+
+  private final NavigableMap<String, Postings> terms = new TreeMap<>();
+  private int documents = 0;
+
+  /**
+   * Row numbers for one word, as ascending deltas written seven bits a
+   * byte with the high bit set on all but the last byte.
+   */
+  private static final class Postings {
+    private byte[] bytes = new byte[4];
+    private int length = 0;
+    private int last = -1;
+
+    private void add(int row) {
+      if (row != last) {
+        int delta = row - last;
+        if (length + 5 > bytes.length) {
+          bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        while ((delta & ~0x7F) != 0) {
+          bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+          delta >>>= 7;
+        }
+        bytes[length++] = (byte) delta;
+        last = row;
+      }
+    }
+
+    private void addTo(BitSet rows) {
+      int row = -1;
+      int position = 0;
+      while (position < length) {
+        int delta = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = bytes[position++];
+          delta |= (b & 0x7F) << shift;
+          shift += 7;
+        } while ((b & 0x80) != 0);
+        row += delta;
+        rows.set(row);
+      }
+    }
+  }
+
+  /**
+   * Index a record. Rows must be added in ascending order.
+   *
+   * @param row the table row of the record
+   * @param record the record
+   * @throws JMSException if a field can not be read from the record
+   */
+  public synchronized void add(int row, MessageTableRecord record)
+    throws JMSException {
+    addText(row, record.getJMSMessageID());
+    addText(row, record.getJMSCorrelationID());
+    addText(row, record.getJMSType());
+    addText(row, record.getText());
+    if (record.getProperties() != null) {
+      for (Map.Entry<Object, Object> entry : record.getProperties().entrySet()) {
+        addText(row, String.valueOf(entry.getKey()));
+        addText(row, String.valueOf(entry.getValue()));
+      }
+    }
+    documents = Math.max(documents, row + 1);
+  }
+
+  private void addText(int row, String text) {
+    if (text != null) {
+      for (String term : tokenize(text)) {
+        Postings postings = terms.get(term);
+        if (postings == null) {
+          postings = new Postings();
+          terms.put(term, postings);
+        }
+        postings.add(row);
+      }
+    }
+  }
+
+  /**
+   * Remove everything from the index.
+   */
+  public synchronized void clear() {
+    terms.clear();
+    documents = 0;
+  }
+
+  /**
+   *
+   * @return the number of distinct words indexed
+   */
+  public synchronized int getTermCount() {
+    return terms.size();
+  }
+
+  /**
+   *
+   * @return one more than the highest row indexed
+   */
+  public synchronized int getDocumentCount() {
+    return documents;
+  }
+
+  /**
+   * Find the rows matching a query.
+   *
+   * @param query words, OR and prefixes as described for the class
+   * @return the matching rows
+   */
+  public synchronized BitSet search(String query) {
+    final BitSet result = new BitSet(documents);
+    List<String> clause = new ArrayList<>();
+    for (String word : query.trim().split("\\s+")) {
+      if (OR.equals(word)) {
+        result.or(searchAll(clause));
+        clause = new ArrayList<>();
+      } else if (!word.isEmpty()) {
+        clause.add(word);
+      }
+    }
+    result.or(searchAll(clause));
+    return result;
+  }
+
+  /**
+   * Rows matching every word of a clause.
+   */
+  private BitSet searchAll(List<String> clause) {
+    BitSet rows = null;
+    for (String word : clause) {
+      final boolean prefix = word.length() > 1
+        && word.charAt(word.length() - 1) == PREFIX;
+      final List<String> words = tokenize(
+        prefix ? word.substring(0, word.length() - 1) : word);
+      for (int i = 0; i < words.size(); i++) {
+        final BitSet matches = (prefix && i == words.size() - 1)
+          ? searchPrefix(words.get(i)) : searchTerm(words.get(i));
+        if (rows == null) {
+          rows = matches;
+        } else {
+          rows.and(matches);
+        }
+      }
+    }
+    return rows == null ? new BitSet() : rows;
+  }
+
+  private BitSet searchTerm(String term) {
+    final BitSet rows = new BitSet(documents);
+    final Postings postings = terms.get(term);
+    if (postings != null) {
+      postings.addTo(rows);
+    }
+    return rows;
+  }
+
+  private BitSet searchPrefix(String prefix) {
+    final BitSet rows = new BitSet(documents);
+    for (Postings postings
+      : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+      postings.addTo(rows);
+    }
+    return rows;
+  }
+
+  /**
+   * Split text into lower case runs of letters and digits.
+   *
+   * @param text the text to split
+   * @return the words in the text, in order
+   */
+  static List<String> tokenize(String text) {
+    final List<String> words = new ArrayList<>();
+    final int length = text.length();
+    int start = -1;
+    for (int i = 0; i <= length; i++) {
+      final boolean wordChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      } else if (!wordChar && start >= 0) {
+        final int end = Math.min(i, start + MAX_TERM_LENGTH);
+        words.add(text.substring(start, end).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+    return words;
+  }
+}
@@ -0,0 +1,552 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Sorts and filters a MessageTableModel without holding up the EDT. The
+ * view order is an int[] of model rows, worked out on a background thread
+ * and swapped in whole on the EDT when it is ready; until then the table
+ * keeps showing the previous order.
+ *
+ * Sort values are copied from the model on the EDT in slices of at most
+ * SLICE_NANOS, as the model is not thread safe. Numeric columns are
+ * sorted as longs packed with their row number, with Arrays.parallelSort,
+ * so nothing is boxed; text columns use a comparator.
+ *
+ * Rows added while sorted are shown at the end and sorted in shortly
+ * after. The filter is a set of model rows, e.g. the matches of a search;
+ * rows added later are not in it.
+ *
+ * Only used on the EDT, like any RowSorter.
+ *
+ * @author Scott Douglass
+ */
+public class MessageRowSorter extends RowSorter<MessageTableModel> {
+
+  private static final Logger LOGGER = Logger.getLogger(MessageRowSorter.class.getName());
+  /** Longest time the EDT spends copying sort values in one go. */
+  private static final long SLICE_NANOS = 10 * 1000 * 1000;
+  /** Milliseconds rows added while sorted wait to be sorted in. */
+  private static final int RESORT_DELAY = 1000;
+  /** Sorts of fewer rows are not worth splitting across threads. */
+  private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+  private final MessageTableModel model;
+  private final ExecutorService executor
+    = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, "MessageRowSorter");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  private final Timer resortTimer;
+  private List<SortKey> sortKeys = Collections.emptyList();
+  private BitSet filter;
+  /** View to model, null while the view is the model. */
+  private int[] viewToModel;
+  private int viewCount;
+  /** Model to view, -1 for filtered rows; made when first asked for. */
+  private int[] modelToView;
+  /** Bumped whenever a sort in progress no longer fits the model. */
+  private int epoch = 0;
+  private boolean running = false;
+  private boolean pending = false;
+
+  /**
+   *
+   * @param inModel the model to sort
+   */
+  public MessageRowSorter(MessageTableModel inModel) {
+    this.model = inModel;
+    resortTimer = new Timer(RESORT_DELAY, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        sort();
+      }
+    });
+    resortTimer.setRepeats(false);
+  }
+
+  @Override
+  public MessageTableModel getModel() {
+    return model;
+  }
+
+  /**
+   * Show only some model rows.
+   *
+   * @param inFilter model rows to show, null to show all
+   */
+  public void setFilter(BitSet inFilter) {
+    filter = inFilter == null ? null : (BitSet) inFilter.clone();
+    sort();
+  }
+
+  /**
+   * @return true while a sort is being worked out
+   */
+  public boolean isSorting() {
+    return running;
+  }
+
+  /**
+   * Sort by the column, ascending, or reverse it if it is already the
+   * sort column.
+   *
+   * @param column the model column
+   */
+  @Override
+  public void toggleSortOrder(int column) {
+    SortOrder order = SortOrder.ASCENDING;
+    if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column
+      && sortKeys.get(0).getSortOrder() == SortOrder.ASCENDING) {
+      order = SortOrder.DESCENDING;
+    }
+    setSortKeys(Collections.singletonList(new SortKey(column, order)));
+  }
+
+  /**
+   * Only the first key is used.
+   *
+   * @param keys the sort keys, null or empty for the model order
+   */
+  @Override
+  public void setSortKeys(List<? extends SortKey> keys) {
+    if (keys == null || keys.isEmpty() || keys.get(0).getSortOrder() == SortOrder.UNSORTED) {
+      sortKeys = Collections.emptyList();
+    } else {
+      sortKeys = Collections.singletonList(keys.get(0));
+    }
+    fireSortOrderChanged();
+    sort();
+  }
+
+  @Override
+  public List<? extends SortKey> getSortKeys() {
+    return sortKeys;
+  }
+
+  @Override
+  public int convertRowIndexToModel(int index) {
+    int result = index;
+    if (viewToModel != null) {
+      if (index < 0 || index >= viewCount) {
+        throw new IndexOutOfBoundsException("Row: " + index + ", Rows: " + viewCount);
+      }
+      result = viewToModel[index];
+    }
+    return result;
+  }
+
+  @Override
+  public int convertRowIndexToView(int index) {
+    int result = index;
+    if (viewToModel != null) {
+      if (modelToView == null) {
+        modelToView = new int[model.getRowCount()];
+        Arrays.fill(modelToView, -1);
+        for (int row = 0; row < viewCount; row++) {
+          modelToView[viewToModel[row]] = row;
+        }
+      }
+      result = index < 0 || index >= modelToView.length ? -1 : modelToView[index];
+    }
+    return result;
+  }
+
+  @Override
+  public int getViewRowCount() {
+    return viewToModel == null ? model.getRowCount() : viewCount;
+  }
+
+  @Override
+  public int getModelRowCount() {
+    return model.getRowCount();
+  }
+
+  @Override
+  public void modelStructureChanged() {
+    allRowsChanged();
+  }
+
+  /**
+   * New data: show it in model order until it is sorted again.
+   */
+  @Override
+  public void allRowsChanged() {
+    epoch++;
+    viewToModel = null;
+    modelToView = null;
+    sort();
+  }
+
+  /**
+   * Rows only ever arrive at the end of the model. They are shown at the
+   * end of the view now and sorted in later.
+   */
+  @Override
+  public void rowsInserted(int firstRow, int endRow) {
+    if (viewToModel != null) {
+      for (int row = firstRow; row <= endRow; row++) {
+        if (filter == null || filter.get(row)) {
+          if (viewCount == viewToModel.length) {
+            viewToModel = Arrays.copyOf(viewToModel, Math.max(16, viewCount * 3 / 2));
+          }
+          viewToModel[viewCount++] = row;
+        }
+      }
+      modelToView = null;
+      if (!sortKeys.isEmpty()) {
+        resortSoon();
+      }
+    }
+  }
+
+  /**
+   * Drop the rows from the view and renumber the rest, keeping the order.
+   */
+  @Override
+  public void rowsDeleted(int firstRow, int endRow) {
+    epoch++;
+    if (viewToModel != null) {
+      final int removed = endRow - firstRow + 1;
+      int kept = 0;
+      for (int row = 0; row < viewCount; row++) {
+        final int modelRow = viewToModel[row];
+        if (modelRow < firstRow) {
+          viewToModel[kept++] = modelRow;
+        } else if (modelRow > endRow) {
+          viewToModel[kept++] = modelRow - removed;
+        }
+      }
+      viewCount = kept;
+      modelToView = null;
+    }
+    if (filter != null) {
+      filter = shift(filter, firstRow, endRow);
+    }
+    if (running) {
+      pending = true;
+    }
+  }
+
+  @Override
+  public void rowsUpdated(int firstRow, int endRow) {
+    // a loaded body can change the text column
+    if (!sortKeys.isEmpty()) {
+      resortSoon();
+    }
+  }
+
+  @Override
+  public void rowsUpdated(int firstRow, int endRow, int column) {
+    if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column) {
+      resortSoon();
+    }
+  }
+
+  private void resortSoon() {
+    if (!resortTimer.isRunning()) {
+      resortTimer.start();
+    }
+  }
+
+  /**
+   * Start working out the view order, or note that it has to be done
+   * again once the sort in progress is done.
+   */
+  private void sort() {
+    resortTimer.stop();
+    if (running) {
+      pending = true;
+    } else if (sortKeys.isEmpty() && filter == null) {
+      if (viewToModel != null) {
+        final int[] previous = viewToModel;
+        viewToModel = null;
+        modelToView = null;
+        fireRowSorterChanged(previous);
+      }
+    } else {
+      running = true;
+      final SortKey key = sortKeys.isEmpty() ? null : sortKeys.get(0);
+      executor.execute(new Sort(epoch, model.getRowCount(), key,
+        filter == null ? null : (BitSet) filter.clone()));
+    }
+  }
+
+  /**
+   * Called on the EDT with the order a Sort worked out, null if the model
+   * changed under it.
+   */
+  private void sorted(Sort sort, int[] order) {
+    running = false;
+    if (order != null && sort.epoch == epoch) {
+      final int[] previous = viewToModel;
+      final int rows = model.getRowCount();
+      int count = order.length;
+      int[] view = order;
+      if (rows > sort.rows) {
+        // rows added while sorting, at the end until the next sort
+        view = Arrays.copyOf(order, count + rows - sort.rows);
+        for (int row = sort.rows; row < rows; row++) {
+          if (filter == null || filter.get(row)) {
+            view[count++] = row;
+          }
+        }
+        if (sort.key != null) {
+          resortSoon();
+        }
+      }
+      viewToModel = view;
+      viewCount = count;
+      modelToView = null;
+      fireRowSorterChanged(previous);
+    } else if (sort.epoch != epoch) {
+      pending = true;
+    }
+    if (pending) {
+      pending = false;
+      sort();
+    }
+  }
+
+  /**
+   * The filter with the deleted rows taken out and the rows after them
+   * moved down.
+   */
+  private static BitSet shift(BitSet bits, int firstRow, int endRow) {
+    final BitSet shifted = bits.get(0, firstRow);
+    final BitSet after = bits.get(endRow + 1, Math.max(endRow + 1, bits.length()));
+    for (int row = after.nextSetBit(0); row >= 0; row = after.nextSetBit(row + 1)) {
+      shifted.set(firstRow + row);
+    }
+    return shifted;
+  }
+
+  /**
+   * Works out one view order on the background thread.
+   */
+  private final class Sort implements Runnable {
+
+    private final int epoch;
+    private final int rows;
+    private final SortKey key;
+    private final BitSet matches;
+    private final boolean numeric;
+    private long[] numbers;
+    private String[] texts;
+    private int copied = 0;
+    private boolean stale = false;
+
+    private Sort(int inEpoch, int inRows, SortKey inKey, BitSet inMatches) {
+      this.epoch = inEpoch;
+      this.rows = inRows;
+      this.key = inKey;
+      this.matches = inMatches;
+      this.numeric = inKey != null && model.isNumeric(inKey.getColumn());
+    }
+
+    @Override
+    public void run() {
+      int[] order = null;
+      try {
+        if (key != null) {
+          copyValues();
+        }
+        if (!stale) {
+          order = key == null ? identity() : numeric ? sortNumbers() : sortTexts();
+          order = applyFilter(order);
+        }
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Can not sort", e);
+        order = null;
+      }
+      final int[] result = order;
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          sorted(Sort.this, result);
+        }
+      });
+    }
+
+    /**
+     * Copy the sort column a slice at a time on the EDT, giving up if the
+     * model changes meanwhile.
+     */
+    private void copyValues() {
+      if (numeric) {
+        numbers = new long[rows];
+      } else {
+        texts = new String[rows];
+      }
+      final int column = key.getColumn();
+      final Runnable slice = new Runnable() {
+        @Override
+        public void run() {
+          if (epoch != MessageRowSorter.this.epoch) {
+            stale = true;
+          } else {
+            final long deadline = System.nanoTime() + SLICE_NANOS;
+            int row = copied;
+            do {
+              if (numeric) {
+                numbers[row] = model.getNumber(row, column);
+              } else {
+                final Object value = model.getValueAt(row, column);
+                texts[row] = value == null ? null : value.toString();
+              }
+              row++;
+            } while (row < rows && ((row & 0xFF) != 0 || System.nanoTime() < deadline));
+            copied = row;
+          }
+        }
+      };
+      try {
+        while (!stale && copied < rows) {
+          SwingUtilities.invokeAndWait(slice);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        stale = true;
+      } catch (InvocationTargetException e) {
+        LOGGER.log(Level.WARNING, "Can not read sort values", e.getCause());
+        stale = true;
+      }
+    }
+
+    private int[] identity() {
+      final int[] order = new int[rows];
+      for (int row = 0; row < rows; row++) {
+        order[row] = row;
+      }
+      return order;
+    }
+
+    /**
+     * Pack each value, less the smallest, above its row number and sort
+     * the longs; equal values keep their model order. Values spread too
+     * wide to pack fall back to a comparator.
+     */
+    private int[] sortNumbers() {
+      final boolean descending = key.getSortOrder() == SortOrder.DESCENDING;
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      for (long value : numbers) {
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+      }
+      final int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, rows - 1));
+      final long range = max - min;
+      final int[] order;
+      if (rows > 0 && range >= 0 && (range >>> (63 - bits)) == 0) {
+        final long[] packed = new long[rows];
+        for (int row = 0; row < rows; row++) {
+          final long value = descending ? max - numbers[row] : numbers[row] - min;
+          packed[row] = (value << bits) | row;
+        }
+        if (rows >= PARALLEL_THRESHOLD) {
+          Arrays.parallelSort(packed);
+        } else {
+          Arrays.sort(packed);
+        }
+        final long mask = (1L << bits) - 1;
+        order = new int[rows];
+        for (int i = 0; i < rows; i++) {
+          order[i] = (int) (packed[i] & mask);
+        }
+      } else {
+        order = sortBoxed(new Comparator<Integer>() {
+          @Override
+          public int compare(Integer a, Integer b) {
+            return Long.compare(numbers[a], numbers[b]);
+          }
+        });
+      }
+      return order;
+    }
+
+    private int[] sortTexts() {
+      return sortBoxed(new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          final String first = texts[a];
+          final String second = texts[b];
+          return first == null ? (second == null ? 0 : -1)
+            : second == null ? 1 : first.compareTo(second);
+        }
+      });
+    }
+
+    private int[] sortBoxed(Comparator<Integer> comparator) {
+      final Integer[] boxed = new Integer[rows];
+      for (int row = 0; row < rows; row++) {
+        boxed[row] = row;
+      }
+      final Comparator<Integer> ordered = key.getSortOrder() == SortOrder.DESCENDING
+        ? Collections.reverseOrder(comparator) : comparator;
+      if (rows >= PARALLEL_THRESHOLD) {
+        Arrays.parallelSort(boxed, ordered);
+      } else {
+        Arrays.sort(boxed, ordered);
+      }
+      final int[] order = new int[rows];
+      for (int i = 0; i < rows; i++) {
+        order[i] = boxed[i];
+      }
+      return order;
+    }
+
+    private int[] applyFilter(int[] order) {
+      int[] result = order;
+      if (matches != null) {
+        int count = 0;
+        for (int row : order) {
+          if (matches.get(row)) {
+            count++;
+          }
+        }
+        result = new int[count];
+        count = 0;
+        for (int row : order) {
+          if (matches.get(row)) {
+            result[count++] = row;
+          }
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -14,11 +14,16 @@
  */
 package com.jmstoolkit.beans;
 
-import java.text.SimpleDateFormat;
-import java.util.Enumeration;
-import java.util.Properties;
+import com.jmstoolkit.Timing;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.jms.ConnectionFactory;
@@ -26,8 +31,8 @@ import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
-import javax.jms.ObjectMessage;
-import javax.jms.TextMessage;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
 import org.springframework.jms.listener.DefaultMessageListenerContainer;
 
@@ -37,13 +42,22 @@ import org.springframework.jms.listener.DefaultMessageListenerContainer;
  */
 public class MessageTableModel extends AbstractTableModel implements MessageListener {
   private static final Logger LOGGER = Logger.getLogger(MessageTableModel.class.getName());
-  private static final SimpleDateFormat DATE_TIME = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+  /** Milliseconds between two drains of the listener buffer on the EDT. */
+  private static final int DRAIN_INTERVAL = 100;
+  /** Most records moved into the table by a single drain. */
+  private static final int MAX_DRAIN = 10000;
+  /** System property with the estimated bytes kept on heap before spilling. */
+  public static final String P_SPILL_THRESHOLD = "jmstoolkit.spill.threshold";
+  /** System property with the most received messages waiting for a drain. */
+  public static final String P_MAX_PENDING = "jmstoolkit.listen.pending";
+  /** Default most received messages waiting for a drain. */
+  public static final int D_MAX_PENDING = 10 * MAX_DRAIN;
 
   /**
    *
    */
   public static final String PROP_DATA = "data";
-  private List<MessageTableRecord> data = new ArrayList<>();
+  private final ColumnarMessageStore store = new ColumnarMessageStore();
   private String[] columnName = new String[]{
     "Timestamp",
     "Message ID",
@@ -58,8 +72,25 @@ public class MessageTableModel extends AbstractTableModel implements MessageList
 
   private Boolean running = false;
   private Boolean shutdown = false;
-  private Integer messagesReceived = 0;
+  private final AtomicLong messagesReceived = new AtomicLong();
+  private long messagesEvicted = 0;
+  private final AtomicLong messagesDropped = new AtomicLong();
+  private volatile RetentionPolicy retention = RetentionPolicy.UNBOUNDED;
+  private volatile boolean headersOnly = false;
+  /** Rows past the in-memory store: a spill file or an opened snapshot. */
+  private RecordFile spill;
+  private long spillThreshold = Long.getLong(P_SPILL_THRESHOLD,
+    Runtime.getRuntime().maxMemory() / 4);
   private DefaultMessageListenerContainer listenerContainer;
+  /** Filled by the listener threads, emptied on the EDT by the drain timer. */
+  private final ConcurrentLinkedQueue<MessageTableRecord> received
+    = new ConcurrentLinkedQueue<>();
+  /** Records and estimated bytes in received, as its size() walks the queue. */
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicLong pendingBytes = new AtomicLong();
+  private final int maxPending = Math.max(MAX_DRAIN,
+    Integer.getInteger(P_MAX_PENDING, D_MAX_PENDING));
+  private final Timer drainTimer = new Timer(DRAIN_INTERVAL, new Drain());
 
   /**
    *
@@ -76,6 +107,7 @@ public class MessageTableModel extends AbstractTableModel implements MessageList
     if (!shutdown) {
       LOGGER.info("Starting listener...");
       listenerContainer.initialize();
+      drainTimer.start();
       running = true;
     }
   }
@@ -96,6 +128,39 @@ public class MessageTableModel extends AbstractTableModel implements MessageList
     public void run() {
       LOGGER.info("MessageListener shut down.");
       shutdown = false;
+      // pick up whatever arrived after the last tick
+      drainTimer.stop();
+      SwingUtilities.invokeLater(new Drain());
+    }
+  }
+
+  /**
+   * Runs on the EDT. Moves the records buffered by the listener threads into
+   * the table and fires one row range insert for the lot, so the repaint
+   * rate is bounded by the timer no matter how fast messages arrive.
+   */
+  private class Drain implements ActionListener, Runnable {
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      drain();
+    }
+
+    @Override
+    public void run() {
+      while (drain() == MAX_DRAIN) {
+        // keep going until the buffer is empty
+      }
+    }
+
+    private int drain() {
+      List<MessageTableRecord> records = new ArrayList<>();
+      MessageTableRecord record;
+      while (records.size() < MAX_DRAIN && (record = poll()) != null) {
+        records.add(record);
+      }
+      addData(records);
+      evict();
+      return records.size();
     }
   }
 
@@ -107,6 +172,111 @@ public class MessageTableModel extends AbstractTableModel implements MessageList
     return this.running;
   }
 
+  /**
+   *
+   * @return number of messages delivered to the listener
+   */
+  public long getMessagesReceived() {
+    return messagesReceived.get();
+  }
+
+  /**
+   *
+   * @return number of rows dropped by the retention policy
+   */
+  public long getMessagesEvicted() {
+    return messagesEvicted;
+  }
+
+  /**
+   *
+   * @return number of received messages dropped before they reached the
+   * table, because more arrived than the drain could keep up with
+   */
+  public long getMessagesDropped() {
+    return messagesDropped.get();
+  }
+
+  /**
+   *
+   * @return the retention policy applied while listening
+   */
+  public RetentionPolicy getRetention() {
+    return retention;
+  }
+
+  /**
+   *
+   * @param inRetention the retention policy applied while listening
+   */
+  public void setRetention(RetentionPolicy inRetention) {
+    this.retention = inRetention == null ? RetentionPolicy.UNBOUNDED : inRetention;
+  }
+
+  /**
+   * Drop the oldest rows beyond the retention limits.
+   */
+  private void evict() {
+    final int excess = retention.countExcess(store, System.currentTimeMillis());
+    if (excess > 0) {
+      store.removeFirst(excess);
+      messagesEvicted += excess;
+      this.fireTableRowsDeleted(0, excess - 1);
+    }
+  }
+
+  /**
+   *
+   * @return true if received messages are stored without their body
+   */
+  public boolean isHeadersOnly() {
+    return headersOnly;
+  }
+
+  /**
+   *
+   * @param inHeadersOnly true to store received messages without their body
+   */
+  public void setHeadersOnly(boolean inHeadersOnly) {
+    this.headersOnly = inHeadersOnly;
+  }
+
+  /**
+   *
+   * @return number of received messages not yet added to the table
+   */
+  public int getPending() {
+    return pending.get();
+  }
+
+  private MessageTableRecord poll() {
+    final MessageTableRecord record = received.poll();
+    if (record != null) {
+      pending.decrementAndGet();
+      try {
+        pendingBytes.addAndGet(-ColumnarMessageStore.estimateSize(record));
+      } catch (JMSException e) {
+        LOGGER.log(Level.WARNING, "JMS problem", e);
+      }
+    }
+    return record;
+  }
+
+  /**
+   * Drop the oldest buffered records while the buffer holds more than
+   * maxPending records, or more than the retention policy would keep
+   * after the next drain anyway.
+   */
+  private void trim() {
+    final RetentionPolicy policy = retention;
+    final int maxRecords = policy.getMaxMessages() > 0
+      ? Math.min(maxPending, policy.getMaxMessages()) : maxPending;
+    final long maxBytes = policy.getMaxBytes() > 0 ? policy.getMaxBytes() : Long.MAX_VALUE;
+    while ((pending.get() > maxRecords || pendingBytes.get() > maxBytes) && poll() != null) {
+      messagesDropped.incrementAndGet();
+    }
+  }
+
   /**
    *
    * @param destination JMS Destination
@@ -115,6 +285,17 @@ public class MessageTableModel extends AbstractTableModel implements MessageList
     listenerContainer.setDestination(destination);
   }
 
+  /**
+   * Let the broker filter what the listener receives.
+   *
+   * @param messageSelector JMS message selector, null or empty for all
+   */
+  public void setMessageSelector(String messageSelector) {
+    listenerContainer.setMessageSelector(
+      messageSelector == null || messageSelector.trim().isEmpty()
+      ? null : messageSelector);
+  }
+
   /**
    *
    * @param connectionFactory JMS ConecctionFactory
@@ -125,10 +306,20 @@ public class MessageTableModel extends AbstractTableModel implements MessageList
 
   /**
    *
-   * @return List of data
+   * @return read only List view of the data, records are rebuilt on access
    */
-  public List getData() {
-    return data;
+  public List<MessageTableRecord> getData() {
+    return new AbstractList<MessageTableRecord>() {
+      @Override
+      public MessageTableRecord get(int index) {
+        return getRecord(index);
+      }
+
+      @Override
+      public int size() {
+        return getRowCount();
+      }
+    };
   }
 
   /**
@@ -136,15 +327,222 @@ public class MessageTableModel extends AbstractTableModel implements MessageList
    * @param value List of MessageTableRecords
    */
   public void setData(List<MessageTableRecord> value) {
-    List oldData = data;
-    data = value;
+    store.clear();
+    if (spill != null) {
+      spill.close();
+      spill = null;
+    }
+    append(value);
+    this.fireTableDataChanged();
+  }
+
+  /**
+   * Show the rows of a snapshot, replacing the current data. Rows are read
+   * from the file as they are displayed.
+   *
+   * @param snapshot the opened snapshot, closed when the data is replaced
+   */
+  public void setSnapshot(SnapshotReader snapshot) {
+    store.clear();
+    if (spill != null) {
+      spill.close();
+    }
+    spill = snapshot;
     this.fireTableDataChanged();
   }
 
+  /**
+   *
+   * @return estimated bytes of rows kept on heap before the rest go to disk,
+   * zero or less to never spill
+   */
+  public long getSpillThreshold() {
+    return spillThreshold;
+  }
+
+  /**
+   * Only applies while the retention policy is unbounded, a bounded policy
+   * already limits the heap used.
+   *
+   * @param inSpillThreshold estimated bytes of rows kept on heap before the
+   * rest go to disk, zero or less to never spill
+   */
+  public void setSpillThreshold(long inSpillThreshold) {
+    this.spillThreshold = inSpillThreshold;
+  }
+
+  /**
+   *
+   * @return number of rows held in the spill file rather than on heap
+   */
+  public int getSpilledRowCount() {
+    return spill == null ? 0 : spill.size();
+  }
+
+  /**
+   * Append records to the end of the table, firing a single row range
+   * insert rather than a full data change.
+   *
+   * @param records List of MessageTableRecords to append
+   */
+  public void addData(List<MessageTableRecord> records) {
+    if (!records.isEmpty()) {
+      final long started = Timing.start();
+      int firstRow = getRowCount();
+      append(records);
+      if (getRowCount() > firstRow) {
+        this.fireTableRowsInserted(firstRow, getRowCount() - 1);
+      }
+      Timing.stop(Timing.Stage.TABLE_UPDATE, started);
+    }
+  }
+
+  private void append(List<MessageTableRecord> records) {
+    try {
+      for (MessageTableRecord record : records) {
+        if (spill == null && !isSpilling()) {
+          store.add(record);
+        } else {
+          if (spill == null) {
+            LOGGER.log(Level.INFO, "Table over {0} bytes, spilling to disk",
+              spillThreshold);
+            spill = new SpillFile();
+          }
+          spill.add(record);
+        }
+      }
+    } catch (JMSException e) {
+      LOGGER.log(Level.WARNING, "JMS problem", e);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Can not write spill file", e);
+    }
+  }
+
+  private boolean isSpilling() {
+    return spillThreshold > 0
+      && retention == RetentionPolicy.UNBOUNDED
+      && store.getBytes() >= spillThreshold;
+  }
+
+  /**
+   * Rows past the end of the in-memory store are read from the spill file.
+   */
+  private MessageTableRecord getSpilled(int rowIndex) {
+    MessageTableRecord record = null;
+    try {
+      record = spill.get(rowIndex - store.size());
+    } catch (JMSException e) {
+      LOGGER.log(Level.WARNING, "JMS problem", e);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Can not read spill file", e);
+    }
+    return record;
+  }
+
+  /**
+   *
+   * @param rowIndex the row
+   * @return the MessageTableRecord for the row
+   */
+  public MessageTableRecord getRecord(int rowIndex) {
+    MessageTableRecord record = null;
+    if (rowIndex >= store.size() && spill != null) {
+      record = getSpilled(rowIndex);
+    } else {
+      try {
+        record = store.getRecord(rowIndex);
+      } catch (JMSException e) {
+        LOGGER.log(Level.WARNING, "JMS problem", e);
+      }
+    }
+    return record;
+  }
+
+  /**
+   *
+   * @param rowIndex the row
+   * @return the JMS message ID of the row
+   */
+  public String getMessageID(int rowIndex) {
+    String result = null;
+    if (rowIndex >= store.size() && spill != null) {
+      MessageTableRecord record = getSpilled(rowIndex);
+      try {
+        result = record == null ? null : record.getJMSMessageID();
+      } catch (JMSException e) {
+        LOGGER.log(Level.WARNING, "JMS problem", e);
+      }
+    } else {
+      result = store.getMessageID(rowIndex);
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param rowIndex the row
+   * @return the JMS destination the row came from
+   */
+  public Destination getDestination(int rowIndex) {
+    Destination result = null;
+    if (rowIndex >= store.size() && spill != null) {
+      MessageTableRecord record = getSpilled(rowIndex);
+      try {
+        result = record == null ? null : record.getJMSDestination();
+      } catch (JMSException e) {
+        LOGGER.log(Level.WARNING, "JMS problem", e);
+      }
+    } else {
+      result = store.getDestination(rowIndex);
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param rowIndex the row
+   * @return false if only the headers and a text preview are stored
+   */
+  public boolean isBodyLoaded(int rowIndex) {
+    boolean loaded;
+    if (rowIndex >= store.size() && spill != null) {
+      MessageTableRecord record = getSpilled(rowIndex);
+      loaded = record == null || record.isBodyLoaded();
+    } else {
+      loaded = store.isBodyLoaded(rowIndex);
+    }
+    return loaded;
+  }
+
+  /**
+   * Fill in the body of a row that was stored without one, for example
+   * after browsing the message again by ID.
+   *
+   * @param rowIndex the row
+   * @param record the full record, must have the message ID of the row
+   */
+  public void setBody(int rowIndex, MessageTableRecord record) {
+    try {
+      if (rowIndex < getRowCount()
+        && record.getJMSMessageID() != null
+        && record.getJMSMessageID().equals(getMessageID(rowIndex))) {
+        if (rowIndex < store.size()) {
+          store.setBody(rowIndex, record);
+        } else {
+          spill.set(rowIndex - store.size(), record);
+        }
+        this.fireTableRowsUpdated(rowIndex, rowIndex);
+      }
+    } catch (JMSException e) {
+      LOGGER.log(Level.WARNING, "JMS problem", e);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Can not write spill file", e);
+    }
+  }
 
   @Override
   public int getRowCount() {
-    return this.data.size();
+    return spill == null ? store.size() : store.size() + spill.size();
   }
 
   @Override
@@ -171,87 +569,148 @@ public class MessageTableModel extends AbstractTableModel implements MessageList
     columnName = aColumnName;
   }
 
+  /**
+   *
+   * @param columnIndex a column
+   * @return true if the column holds a number or timestamp, which is sorted
+   * by value rather than by its text
+   */
+  public boolean isNumeric(int columnIndex) {
+    return columnIndex == 0 || (columnIndex >= 4 && columnIndex <= 6);
+  }
+
+  /**
+   * The value a numeric column sorts by, without formatting it.
+   *
+   * @param rowIndex the row
+   * @param columnIndex a column for which isNumeric is true
+   * @return the timestamp, priority, delivery mode or expiration, 0 for a
+   * spilled row that can not be read
+   */
+  public long getNumber(int rowIndex, int columnIndex) {
+    long result = 0;
+    if (rowIndex >= store.size() && spill != null) {
+      final MessageTableRecord record = getSpilled(rowIndex);
+      if (record != null) {
+        try {
+          result = columnIndex == 0 ? record.getJMSTimestamp()
+            : columnIndex == 4 ? record.getJMSPriority()
+            : columnIndex == 5 ? record.getJMSDeliveryMode()
+            : record.getJMSExpiration();
+        } catch (JMSException e) {
+          LOGGER.log(Level.WARNING, "JMS problem", e);
+        }
+      }
+    } else {
+      result = columnIndex == 0 ? store.getTimestamp(rowIndex)
+        : columnIndex == 4 ? store.getPriority(rowIndex)
+        : columnIndex == 5 ? store.getDeliveryMode(rowIndex)
+        : store.getExpiration(rowIndex);
+    }
+    return result;
+  }
+
+  /**
+   * Only hands out strings made when the row was added, nothing is
+   * formatted or allocated while painting rows held on heap.
+   */
   @Override
   public Object getValueAt(int rowIndex, int columnIndex) {
-    Object[] record = data.toArray();
-    MessageTableRecord qRecord = (MessageTableRecord) record[rowIndex];
+    if (rowIndex >= store.size() && spill != null) {
+      return getSpilledValueAt(rowIndex, columnIndex);
+    }
     String result = "";
-    try {
-      switch (columnIndex) {
-        case 0:
-          result = DATE_TIME.format(qRecord.getJMSTimestamp());
-          break;
-        case 1:
-          result = qRecord.getJMSMessageID();
-          break;
-        case 2:
-          result = qRecord.getJMSCorrelationID();
-          break;
-        case 3:
-          result = "";
-          break;
-        case 4:
-          result = Integer.toString(qRecord.getJMSPriority());
-          break;
-        case 5:
-          result = Integer.toString(qRecord.getJMSDeliveryMode());
-          break;
-        case 6:
-          result = Long.toString(qRecord.getJMSExpiration());
-          break;
-        case 7:
-          result = qRecord.getJMSType();
-          break;
-        case 8:
-          result = qRecord.getText();
-          break;
+    switch (columnIndex) {
+      case 0:
+        result = store.getTimestampText(rowIndex);
+        break;
+      case 1:
+        result = store.getMessageID(rowIndex);
+        break;
+      case 2:
+        result = store.getCorrelationID(rowIndex);
+        break;
+      case 3:
+        result = "";
+        break;
+      case 4:
+        result = CellText.number(store.getPriority(rowIndex));
+        break;
+      case 5:
+        result = CellText.number(store.getDeliveryMode(rowIndex));
+        break;
+      case 6:
+        result = store.getExpirationText(rowIndex);
+        break;
+      case 7:
+        result = store.getType(rowIndex);
+        break;
+      case 8:
+        result = store.getText(rowIndex);
+        break;
+    }
+    return result;
+  }
+
+  private Object getSpilledValueAt(int rowIndex, int columnIndex) {
+    String result = "";
+    MessageTableRecord record = getSpilled(rowIndex);
+    if (record != null) {
+      try {
+        switch (columnIndex) {
+          case 0:
+            result = record.getTimestampText();
+            break;
+          case 1:
+            result = record.getJMSMessageID();
+            break;
+          case 2:
+            result = record.getJMSCorrelationID();
+            break;
+          case 4:
+            result = CellText.number(record.getJMSPriority());
+            break;
+          case 5:
+            result = CellText.number(record.getJMSDeliveryMode());
+            break;
+          case 6:
+            result = record.getExpirationText();
+            break;
+          case 7:
+            result = record.getJMSType();
+            break;
+          case 8:
+            result = record.getText();
+            break;
+          default:
+            break;
+        }
+      } catch (JMSException e) {
+        LOGGER.log(Level.WARNING, "JMS problem", e);
       }
-    } catch (JMSException e) {
-      LOGGER.log(Level.WARNING, "JMS problem", e);
     }
     return result;
   }
 
   /**
+   * Called on a listener container thread. The record is only buffered here,
+   * it is added to the table by the drain timer on the EDT.
    *
    * @param message The message received
    */
   @Override
   public void onMessage(Message message) {
     LOGGER.log(Level.FINE, "Message Received");
-    messagesReceived++;
+    messagesReceived.incrementAndGet();
     try {
-      MessageTableRecord qRecord = new MessageTableRecord();
-      qRecord.setJMSCorrelationID(message.getJMSCorrelationID());
-      qRecord.setJMSDeliveryMode(message.getJMSDeliveryMode());
-      qRecord.setJMSExpiration(message.getJMSExpiration());
-      qRecord.setJMSMessageID(message.getJMSMessageID());
-      qRecord.setJMSTimestamp(message.getJMSTimestamp());
-      qRecord.setJMSType(message.getJMSType());
-      qRecord.setJMSDestination(message.getJMSDestination());
-      qRecord.setJMSCorrelationIDAsBytes(message.getJMSCorrelationIDAsBytes());
-      qRecord.setJMSPriority(message.getJMSPriority());
-      qRecord.setJMSType(message.getJMSType());
-      qRecord.setJMSReplyTo(message.getJMSReplyTo());
-      qRecord.setJMSRedelivered(message.getJMSRedelivered());
-      Enumeration pEnumerator = message.getPropertyNames();
-      Properties props = new Properties();
-      while (pEnumerator.hasMoreElements()) {
-        String pElement = (String) pEnumerator.nextElement();
-        props.put(pElement, message.getStringProperty(pElement));
-      }
-      qRecord.setProperties(props);
-
-      if (message instanceof TextMessage) {
-        qRecord.setText(((TextMessage) message).getText());
-      }
-      if (message instanceof ObjectMessage) {
-        qRecord.setObject(((ObjectMessage) message).getObject());
-      }
-
-      List newData = data;
-      newData.add(qRecord);
-      this.setData(newData);
+      // headers only keeps nothing of the message beyond the record, the
+      // body is browsed again by ID from the record's destination if asked for
+      MessageTableRecord qRecord = MessageTableRecord.fromMessage(message, headersOnly);
+      final int size = ColumnarMessageStore.estimateSize(qRecord);
+      received.offer(qRecord);
+      pending.incrementAndGet();
+      pendingBytes.addAndGet(size);
+      trim();
     } catch (JMSException e) {
       LOGGER.log(Level.WARNING, "JMS problem", e);
     }
@@ -15,11 +15,14 @@
 
 package com.jmstoolkit.beans;
 
+import com.jmstoolkit.Timing;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Enumeration;
 import java.util.Properties;
 import javax.jms.Destination;
 import javax.jms.JMSException;
+import javax.jms.Message;
 import javax.jms.ObjectMessage;
 import javax.jms.TextMessage;
 
@@ -29,6 +32,9 @@ import javax.jms.TextMessage;
  */
 public class MessageTableRecord implements TextMessage, ObjectMessage {
 
+  /** Characters of text kept when only headers are copied. */
+  public static final int PREVIEW_LENGTH = 200;
+
   private String jmsMessageID;
   private long jmsTimestamp;
   private byte[] jmsCorrelationIDAsBytes;
@@ -42,7 +48,137 @@ public class MessageTableRecord implements TextMessage, ObjectMessage {
   private long jmsExpiration;
   private String text;
   private Serializable object;
+  private byte[] objectBytes;
   private Properties properties = new Properties();
+  private boolean bodyLoaded = true;
+  private String timestampText;
+  private String expirationText;
+
+  /**
+   * Copy a JMS message into a new record.
+   *
+   * With headersOnly the text is cut to PREVIEW_LENGTH characters and
+   * ObjectMessages are not deserialized, the record is marked as not
+   * having its body loaded. The body can then be browsed again by
+   * message ID from the record's JMSDestination.
+   *
+   * @param message the message to copy
+   * @param headersOnly true to skip the body
+   * @return a new MessageTableRecord
+   * @throws JMSException if the message can not be read
+   */
+  public static MessageTableRecord fromMessage(Message message,
+    boolean headersOnly) throws JMSException {
+    final MessageTableRecord record = new MessageTableRecord();
+    Timing.Stage stage = Timing.Stage.PROPERTIES;
+    long started = Timing.start();
+    try {
+      record.setJMSMessageID(message.getJMSMessageID());
+      record.setJMSCorrelationID(message.getJMSCorrelationID());
+      record.setJMSCorrelationIDAsBytes(message.getJMSCorrelationIDAsBytes());
+      record.setJMSDeliveryMode(message.getJMSDeliveryMode());
+      record.setJMSDestination(message.getJMSDestination());
+      record.setJMSReplyTo(message.getJMSReplyTo());
+      record.setJMSRedelivered(message.getJMSRedelivered());
+      record.setJMSExpiration(message.getJMSExpiration());
+      record.setJMSPriority(message.getJMSPriority());
+      record.setJMSTimestamp(message.getJMSTimestamp());
+      record.setJMSType(message.getJMSType());
+
+      final Enumeration propertyEnumerator = message.getPropertyNames();
+      final Properties props = new Properties();
+      while (propertyEnumerator.hasMoreElements()) {
+        final String pElement = (String) propertyEnumerator.nextElement();
+        if (!(pElement == null || pElement.isEmpty())) {
+          final String value = message.getStringProperty(pElement);
+          if (value != null) {
+            props.put(pElement, value);
+          }
+        }
+      }
+      record.setProperties(props);
+      Timing.stop(stage, started);
+
+      stage = Timing.Stage.BODY;
+      started = Timing.start();
+      if (headersOnly) {
+        if (message instanceof TextMessage) {
+          final String text = ((TextMessage) message).getText();
+          record.setText(text == null || text.length() <= PREVIEW_LENGTH
+            ? text : text.substring(0, PREVIEW_LENGTH));
+        }
+        record.setBodyLoaded(false);
+      } else {
+        record.copyBody(message);
+      }
+      Timing.stop(stage, started);
+      // here on the browse or listener thread, not on the EDT
+      record.render();
+      final String body = record.getText();
+      Timing.message(body == null ? 0 : body.length());
+    } catch (JMSException e) {
+      Timing.error(stage);
+      throw e;
+    }
+    return record;
+  }
+
+  private void copyBody(Message message) throws JMSException {
+    if (message instanceof TextMessage) {
+      setText(((TextMessage) message).getText());
+    }
+    if (message instanceof ObjectMessage) {
+      setObject(((ObjectMessage) message).getObject());
+    }
+    setBodyLoaded(true);
+  }
+
+  /**
+   * Make the display strings the message table shows now, so it does
+   * not have to when painting.
+   */
+  public void render() {
+    getTimestampText();
+    getExpirationText();
+  }
+
+  /**
+   *
+   * @return the timestamp as shown in the message table
+   */
+  public String getTimestampText() {
+    if (timestampText == null) {
+      timestampText = CellText.timestamp(jmsTimestamp);
+    }
+    return timestampText;
+  }
+
+  /**
+   *
+   * @return the expiration as shown in the message table
+   */
+  public String getExpirationText() {
+    if (expirationText == null) {
+      expirationText = CellText.number(jmsExpiration);
+    }
+    return expirationText;
+  }
+
+  /**
+   *
+   * @return false if only the headers and a text preview were copied
+   */
+  public boolean isBodyLoaded() {
+    return bodyLoaded;
+  }
+
+  /**
+   *
+   * @param inBodyLoaded false if only the headers were copied
+   */
+  public void setBodyLoaded(boolean inBodyLoaded) {
+    this.bodyLoaded = inBodyLoaded;
+  }
 
   /**
    *
@@ -82,6 +218,7 @@ public class MessageTableRecord implements TextMessage, ObjectMessage {
   @Override
   public void setJMSTimestamp(long arg0) throws JMSException {
     this.jmsTimestamp = arg0;
+    this.timestampText = null;
   }
 
   /**
@@ -242,6 +379,7 @@ public class MessageTableRecord implements TextMessage, ObjectMessage {
   @Override
   public void setJMSExpiration(long arg0) throws JMSException {
     this.jmsExpiration = arg0;
+    this.expirationText = null;
   }
 
   /**
@@ -512,6 +650,7 @@ public class MessageTableRecord implements TextMessage, ObjectMessage {
   @Override
   public void clearBody() throws JMSException {
     this.object = null;
+    this.objectBytes = null;
     this.text = null;
   }
 
@@ -543,18 +682,66 @@ public class MessageTableRecord implements TextMessage, ObjectMessage {
   @Override
   public void setObject(Serializable arg0) throws JMSException {
     this.object = arg0;
+    this.objectBytes = null;
   }
 
   /**
+   * The body is deserialized here, the first time it is asked for, and
+   * only if every class in it is allowed by ObjectBody. A body that is
+   * refused leaves the record marked as not having its body loaded.
    *
-   * @return
+   * @return the ObjectMessage body, or null if there is none or it was
+   * refused
    * @throws JMSException
    */
   @Override
   public Serializable getObject() throws JMSException {
+    if (this.object == null && this.objectBytes != null) {
+      this.object = ObjectBody.deserialize(this.objectBytes);
+      if (this.object == null) {
+        setBodyLoaded(false);
+      }
+    }
     return this.object;
   }
 
+  /**
+   *
+   * @param inBytes a serialized ObjectMessage body, as read from a file,
+   * kept as it is until getObject is called
+   */
+  public void setObjectBytes(byte[] inBytes) {
+    this.object = null;
+    this.objectBytes = inBytes;
+  }
+
+  /**
+   *
+   * @return the serialized ObjectMessage body, or null if there is none
+   * @throws JMSException if the body can not be serialized
+   */
+  public byte[] getObjectBytes() throws JMSException {
+    if (this.objectBytes == null && this.object != null) {
+      try {
+        this.objectBytes = ObjectBody.serialize(this.object);
+      } catch (IOException e) {
+        final JMSException jmsException = new JMSException("ObjectMessage body not serializable");
+        jmsException.setLinkedException(e);
+        throw jmsException;
+      }
+    }
+    return this.objectBytes;
+  }
+
+  /**
+   *
+   * @return true if the record has an ObjectMessage body, without
+   * deserializing it
+   */
+  public boolean hasObject() {
+    return this.object != null || this.objectBytes != null;
+  }
+
   /**
    * @return the properties
    */
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Java serialization of ObjectMessage bodies read back from files. Bytes
+ * from a snapshot or spill file are only turned into objects through an
+ * allow-list of plain value and collection classes, so a file from
+ * somewhere else can not run code from whatever is on the class path.
+ * More classes, or packages ending in ".", can be allowed with the
+ * jmstoolkit.deserialize.allow system property (comma separated).
+ *
+ * @author Scott Douglass
+ */
+final class ObjectBody {
+
+  private static final Logger LOGGER = Logger.getLogger(ObjectBody.class.getName());
+  /** System property with extra classes or packages to allow. */
+  public static final String P_ALLOW = "jmstoolkit.deserialize.allow";
+  private static final Set<String> ALLOWED = new HashSet<>(Arrays.asList(
+    "java.lang.String", "java.lang.Boolean", "java.lang.Character",
+    "java.lang.Number", "java.lang.Byte", "java.lang.Short",
+    "java.lang.Integer", "java.lang.Long", "java.lang.Float",
+    "java.lang.Double", "java.lang.Enum",
+    "java.math.BigInteger", "java.math.BigDecimal",
+    "java.util.Date", "java.util.UUID", "java.util.Locale",
+    "java.util.ArrayList", "java.util.LinkedList", "java.util.Vector",
+    "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap",
+    "java.util.Hashtable", "java.util.Properties",
+    "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeSet",
+    "java.util.Arrays$ArrayList",
+    "java.util.Collections$EmptyList", "java.util.Collections$EmptyMap",
+    "java.util.Collections$EmptySet",
+    "java.util.Collections$UnmodifiableCollection",
+    "java.util.Collections$UnmodifiableList",
+    "java.util.Collections$UnmodifiableRandomAccessList",
+    "java.util.Collections$UnmodifiableMap",
+    "java.util.Collections$UnmodifiableSet",
+    "java.sql.Date", "java.sql.Time", "java.sql.Timestamp"));
+  private static final List<String> EXTRA = extra(System.getProperty(P_ALLOW));
+
+  private ObjectBody() {
+  }
+
+  /**
+   * @param inValue an ObjectMessage body, may be null
+   * @return the serialized body, or null for a null body
+   * @throws IOException if the body can not be serialized
+   */
+  static byte[] serialize(Serializable inValue) throws IOException {
+    byte[] bytes = null;
+    if (inValue != null) {
+      final ByteArrayOutputStream objectBytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream objectOut = new ObjectOutputStream(objectBytes)) {
+        objectOut.writeObject(inValue);
+      }
+      bytes = objectBytes.toByteArray();
+    }
+    return bytes;
+  }
+
+  /**
+   * @param inBytes a serialized body, may be null
+   * @return the body, or null when the bytes are null, broken or hold a
+   * class that is not allowed
+   */
+  static Serializable deserialize(byte[] inBytes) {
+    Serializable result = null;
+    if (inBytes != null) {
+      try (ObjectInputStream objectIn = new AllowListInputStream(new ByteArrayInputStream(inBytes))) {
+        result = (Serializable) objectIn.readObject();
+      } catch (IOException | ClassNotFoundException | ClassCastException e) {
+        LOGGER.log(Level.FINE, "ObjectMessage body not deserialized", e);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param inName a class name as written in the stream
+   * @return true if the class may be deserialized
+   */
+  static boolean isAllowed(String inName) {
+    String name = inName;
+    while (name.startsWith("[")) {
+      name = name.substring(1);
+    }
+    boolean result;
+    if (name.length() == 1) {
+      // primitive array
+      result = true;
+    } else {
+      if (name.startsWith("L") && name.endsWith(";")) {
+        name = name.substring(1, name.length() - 1);
+      }
+      result = ALLOWED.contains(name);
+      for (int i = 0; !result && i < EXTRA.size(); i++) {
+        final String allowed = EXTRA.get(i);
+        result = allowed.endsWith(".") ? name.startsWith(allowed) : name.equals(allowed);
+      }
+    }
+    return result;
+  }
+
+  private static List<String> extra(String inProperty) {
+    final List<String> result = new ArrayList<>();
+    if (inProperty != null) {
+      for (String name : inProperty.split(",")) {
+        if (!name.trim().isEmpty()) {
+          result.add(name.trim());
+        }
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Refuses every class that is not on the allow-list before it is loaded.
+   */
+  private static final class AllowListInputStream extends ObjectInputStream {
+
+    AllowListInputStream(InputStream inStream) throws IOException {
+      super(inStream);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass inDescriptor)
+      throws IOException, ClassNotFoundException {
+      if (!isAllowed(inDescriptor.getName())) {
+        throw new InvalidClassException(inDescriptor.getName(), "not allowed in a message body");
+      }
+      return super.resolveClass(inDescriptor);
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(String[] inInterfaces)
+      throws IOException, ClassNotFoundException {
+      throw new InvalidClassException("proxy", "not allowed in a message body");
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.io.IOException;
+import javax.jms.JMSException;
+
+/**
+ * Table rows kept on disk rather than on heap, read back one at a time by
+ * MessageTableModel: the spill file of a big browse, or an opened snapshot.
+ *
+ * @author Scott Douglass
+ */
+public interface RecordFile {
+
+  /**
+   *
+   * @return the number of records
+   */
+  int size();
+
+  /**
+   *
+   * @param row the record number
+   * @return the record, possibly shared with earlier callers
+   * @throws IOException if the file can not be read
+   * @throws JMSException if a field can not be set on the record
+   */
+  MessageTableRecord get(int row) throws IOException, JMSException;
+
+  /**
+   * Append a record.
+   *
+   * @param record the record to add
+   * @throws IOException if the file can not be written
+   * @throws JMSException if a field can not be read from the record
+   */
+  void add(MessageTableRecord record) throws IOException, JMSException;
+
+  /**
+   * Replace a record, e.g. once its body has been loaded.
+   *
+   * @param row the record number
+   * @param record the new record
+   * @throws IOException if the file can not be written
+   * @throws JMSException if a field can not be read from the record
+   */
+  void set(int row, MessageTableRecord record) throws IOException, JMSException;
+
+  /**
+   * Release the file.
+   */
+  void close();
+}
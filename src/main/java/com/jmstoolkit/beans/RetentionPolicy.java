@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+/**
+ * Limits on how much a MessageTableModel keeps while listening. Once any
+ * limit is exceeded the oldest rows are dropped. A limit of zero or less
+ * means no limit.
+ *
+ * @author Scott Douglass
+ */
+public class RetentionPolicy {
+
+  /** Keep everything, the behaviour before retention existed. */
+  public static final RetentionPolicy UNBOUNDED = new RetentionPolicy(0, 0L, 0L);
+
+  private final int maxMessages;
+  private final long maxBytes;
+  private final long maxAge;
+
+  /**
+   *
+   * @param inMaxMessages most rows to keep
+   * @param inMaxBytes most estimated heap to use for rows, in bytes
+   * @param inMaxAge oldest JMS timestamp to keep, in milliseconds before now
+   */
+  public RetentionPolicy(int inMaxMessages, long inMaxBytes, long inMaxAge) {
+    this.maxMessages = inMaxMessages;
+    this.maxBytes = inMaxBytes;
+    this.maxAge = inMaxAge;
+  }
+
+  /**
+   *
+   * @param inMaxMessages most rows to keep
+   * @return a policy limited by row count only
+   */
+  public static RetentionPolicy byCount(int inMaxMessages) {
+    return new RetentionPolicy(inMaxMessages, 0L, 0L);
+  }
+
+  /**
+   *
+   * @param inMaxBytes most estimated heap to use for rows, in bytes
+   * @return a policy limited by size only
+   */
+  public static RetentionPolicy byBytes(long inMaxBytes) {
+    return new RetentionPolicy(0, inMaxBytes, 0L);
+  }
+
+  /**
+   *
+   * @param inMaxAge oldest JMS timestamp to keep, in milliseconds before now
+   * @return a policy limited by age only
+   */
+  public static RetentionPolicy byAge(long inMaxAge) {
+    return new RetentionPolicy(0, 0L, inMaxAge);
+  }
+
+  /**
+   * @return the maxMessages
+   */
+  public int getMaxMessages() {
+    return maxMessages;
+  }
+
+  /**
+   * @return the maxBytes
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return the maxAge
+   */
+  public long getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * Work out how many of the oldest rows have to go.
+   *
+   * @param store the rows
+   * @param now the current time in milliseconds
+   * @return number of rows to remove from the front of the store
+   */
+  int countExcess(ColumnarMessageStore store, long now) {
+    int excess = 0;
+    if (maxMessages > 0 && store.size() > maxMessages) {
+      excess = store.size() - maxMessages;
+    }
+    if (maxBytes > 0) {
+      long bytes = store.getBytes();
+      for (int row = 0; row < excess; row++) {
+        bytes -= store.getBytes(row);
+      }
+      while (bytes > maxBytes && excess < store.size()) {
+        bytes -= store.getBytes(excess);
+        excess++;
+      }
+    }
+    if (maxAge > 0) {
+      final long oldest = now - maxAge;
+      while (excess < store.size() && store.getTimestamp(excess) < oldest) {
+        excess++;
+      }
+    }
+    return excess;
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+
+/**
+ * Opens a snapshot written by SnapshotWriter. Only the header, trailer and
+ * dictionary are read up front; the index and the records are memory
+ * mapped and decoded when a row is asked for, so even a snapshot of
+ * several GB opens at once.
+ *
+ * The file is never changed. Records added or replaced after opening, for
+ * example by loading a body from the broker, are kept in memory.
+ *
+ * @author Scott Douglass
+ */
+public class SnapshotReader implements RecordFile {
+
+  /** Size of one memory mapped region of the records. */
+  static final int SEGMENT_SIZE = 256 * 1024 * 1024;
+  /** Number of decoded records kept in memory. */
+  private static final int CACHE_SIZE = 1024;
+
+  private final FileChannel channel;
+  private final String source;
+  private final long created;
+  private final String[] words;
+  private final int count;
+  private final MappedByteBuffer index;
+  private final long recordsEnd;
+  private final List<MappedByteBuffer> segments = new ArrayList<>();
+  private final Map<Integer, MessageTableRecord> replaced = new HashMap<>();
+  private final List<MessageTableRecord> added = new ArrayList<>();
+  private final Map<Integer, MessageTableRecord> cache
+    = new LinkedHashMap<Integer, MessageTableRecord>(CACHE_SIZE, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, MessageTableRecord> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  /**
+   * A destination known only by name, as stored in the snapshot.
+   */
+  public static final class NamedDestination implements Destination, Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private final String name;
+
+    NamedDestination(String inName) {
+      this.name = inName;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * Open a snapshot.
+   *
+   * @param file the snapshot file
+   * @throws IOException if the file can not be read, is not a snapshot,
+   * was not closed properly or has a newer version
+   */
+  public SnapshotReader(Path file) throws IOException {
+    channel = FileChannel.open(file, StandardOpenOption.READ);
+    boolean opened = false;
+    try {
+      final long length = channel.size();
+      final ByteBuffer header = read(0, (int) Math.min(length, 16));
+      if (length < 16 + SnapshotWriter.TRAILER_SIZE
+        || header.getInt() != SnapshotWriter.MAGIC) {
+        throw new IOException("Not a snapshot: " + file);
+      }
+      final short version = header.getShort();
+      if (version > SnapshotWriter.VERSION) {
+        throw new IOException("Snapshot version " + version
+          + " is newer than the supported version " + SnapshotWriter.VERSION);
+      }
+      header.getShort();
+      created = header.getLong();
+      source = readString(read(16, 4), 16);
+
+      final ByteBuffer trailer = read(length - SnapshotWriter.TRAILER_SIZE,
+        SnapshotWriter.TRAILER_SIZE);
+      final long dictionaryOffset = trailer.getLong();
+      final long indexOffset = trailer.getLong();
+      count = trailer.getInt();
+      if (trailer.getInt() != SnapshotWriter.END
+        || indexOffset + 8L * count != length - SnapshotWriter.TRAILER_SIZE) {
+        throw new IOException("Snapshot is incomplete: " + file);
+      }
+      recordsEnd = dictionaryOffset;
+      final ByteBuffer dictionary = read(dictionaryOffset,
+        (int) (indexOffset - dictionaryOffset));
+      words = new String[dictionary.getInt()];
+      for (int i = 0; i < words.length; i++) {
+        words[i] = getString(dictionary);
+      }
+      index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, 8L * count);
+      opened = true;
+    } finally {
+      if (!opened) {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * @return what was browsed, e.g. the JNDI name of the queue
+   */
+  public String getSource() {
+    return source;
+  }
+
+  /**
+   * @return when the snapshot was started, in milliseconds
+   */
+  public long getCreated() {
+    return created;
+  }
+
+  @Override
+  public int size() {
+    return count + added.size();
+  }
+
+  @Override
+  public MessageTableRecord get(int row) throws IOException, JMSException {
+    if (row < 0 || row >= size()) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size());
+    }
+    MessageTableRecord record;
+    if (row >= count) {
+      record = added.get(row - count);
+    } else {
+      record = replaced.get(row);
+      if (record == null) {
+        record = cache.get(row);
+      }
+      if (record == null) {
+        record = decode(readRecord(index.getLong(row * 8)));
+        cache.put(row, record);
+      }
+    }
+    return record;
+  }
+
+  @Override
+  public void add(MessageTableRecord record) {
+    added.add(record);
+  }
+
+  @Override
+  public void set(int row, MessageTableRecord record) {
+    if (row >= count) {
+      added.set(row - count, record);
+    } else {
+      replaced.put(row, record);
+      cache.remove(row);
+    }
+  }
+
+  @Override
+  public void close() {
+    cache.clear();
+    segments.clear();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // nothing to be done, the file was only read
+    }
+  }
+
+  private ByteBuffer read(long offset, int length) throws IOException {
+    final ByteBuffer bytes = ByteBuffer.allocate(length);
+    long position = offset;
+    while (bytes.hasRemaining()) {
+      final int read = channel.read(bytes, position);
+      if (read < 0) {
+        throw new IOException("Snapshot is truncated");
+      }
+      position += read;
+    }
+    bytes.flip();
+    return bytes;
+  }
+
+  /**
+   * A string at a file offset, when only its length has been read.
+   */
+  private String readString(ByteBuffer lengthBytes, long offset) throws IOException {
+    final int length = lengthBytes.getInt();
+    return length < 0 ? null : new String(read(offset + 4, length).array(),
+      StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The bytes of the record at offset, from a mapping if the record lies
+   * within one segment.
+   */
+  private ByteBuffer readRecord(long offset) throws IOException {
+    final int segment = (int) (offset / SEGMENT_SIZE);
+    final int start = (int) (offset % SEGMENT_SIZE);
+    ByteBuffer result;
+    if (start + 4 <= SEGMENT_SIZE) {
+      final MappedByteBuffer mapping = map(segment);
+      final int length = mapping.getInt(start);
+      if (start + 4 + length <= mapping.limit()) {
+        result = mapping.duplicate();
+        result.position(start + 4);
+        result.limit(start + 4 + length);
+        result = result.slice();
+      } else {
+        result = read(offset + 4, length);
+      }
+    } else {
+      result = read(offset + 4, read(offset, 4).getInt());
+    }
+    return result;
+  }
+
+  private MappedByteBuffer map(int segment) throws IOException {
+    while (segments.size() <= segment) {
+      segments.add(null);
+    }
+    MappedByteBuffer mapping = segments.get(segment);
+    if (mapping == null) {
+      final long start = (long) segment * SEGMENT_SIZE;
+      mapping = channel.map(FileChannel.MapMode.READ_ONLY, start,
+        Math.min(SEGMENT_SIZE, recordsEnd - start));
+      segments.set(segment, mapping);
+    }
+    return mapping;
+  }
+
+  private MessageTableRecord decode(ByteBuffer in) throws IOException, JMSException {
+    final MessageTableRecord record = new MessageTableRecord();
+    record.setJMSTimestamp(in.getLong());
+    record.setJMSExpiration(in.getLong());
+    record.setJMSPriority(in.get());
+    record.setJMSDeliveryMode(in.get());
+    final int flags = in.get();
+    record.setJMSRedelivered((flags & SnapshotWriter.FLAG_REDELIVERED) != 0);
+    record.setBodyLoaded((flags & SnapshotWriter.FLAG_BODY_LOADED) != 0);
+    record.setJMSMessageID(getString(in));
+    record.setJMSCorrelationID(getString(in));
+    record.setJMSType(word(in.getInt()));
+    record.setJMSDestination(destination(word(in.getInt())));
+    record.setJMSReplyTo(destination(word(in.getInt())));
+    record.setJMSCorrelationIDAsBytes(getBytes(in));
+    final int propertyCount = in.getInt();
+    if (propertyCount >= 0) {
+      final Properties properties = new Properties();
+      for (int i = 0; i < propertyCount; i++) {
+        final String name = word(in.getInt());
+        properties.put(name, getString(in));
+      }
+      record.setProperties(properties);
+    } else {
+      record.setProperties(null);
+    }
+    record.setText(getString(in));
+    // kept as bytes, ObjectBody deserializes them if the body is asked for
+    record.setObjectBytes(getBytes(in));
+    return record;
+  }
+
+  private String word(int number) {
+    return number < 0 ? null : words[number];
+  }
+
+  private static Destination destination(String name) {
+    return name == null ? null : new NamedDestination(name);
+  }
+
+  private static byte[] getBytes(ByteBuffer in) {
+    final int length = in.getInt();
+    byte[] bytes = null;
+    if (length >= 0) {
+      bytes = new byte[length];
+      in.get(bytes);
+    }
+    return bytes;
+  }
+
+  private static String getString(ByteBuffer in) {
+    final byte[] bytes = getBytes(in);
+    return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+}
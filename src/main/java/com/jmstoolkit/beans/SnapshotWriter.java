@@ -0,0 +1,216 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+
+/**
+ * Writes browse results to a snapshot file that SnapshotReader can open
+ * later, on any machine and without a broker.
+ *
+ * Layout, all numbers big endian:
+ * <pre>
+ * header     int MAGIC, short VERSION, short 0, long created, string source
+ * records    int length, then the record (see write)
+ * dictionary int count, then count strings
+ * index      long offset of each record
+ * trailer    long dictionary offset, long index offset, int count, int END
+ * </pre>
+ * Strings are an int byte length, -1 for null, and UTF-8 bytes. JMSType,
+ * destination and property names repeat from message to message, so
+ * records refer to them by their number in the dictionary.
+ *
+ * @author Scott Douglass
+ */
+public class SnapshotWriter implements Closeable {
+
+  /** First bytes of a snapshot, "JTKS". */
+  static final int MAGIC = 0x4A544B53;
+  /** Last bytes of a complete snapshot, "JTKE". */
+  static final int END = 0x4A544B45;
+  /** Format version written; readers refuse newer versions. */
+  static final short VERSION = 1;
+  /** Bytes in the trailer. */
+  static final int TRAILER_SIZE = 24;
+  static final int FLAG_REDELIVERED = 1;
+  static final int FLAG_BODY_LOADED = 2;
+  private static final int INDEX_CHUNK = 1 << 14;
+
+  private final DataOutputStream out;
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+  private final DataOutputStream record = new DataOutputStream(buffer);
+  private final Map<String, Integer> dictionary = new HashMap<>();
+  private final List<String> words = new ArrayList<>();
+  private final List<long[]> index = new ArrayList<>();
+  private long position = 0;
+  private int count = 0;
+  private boolean closed = false;
+
+  /**
+   * Create or truncate a snapshot file.
+   *
+   * @param file the file to write
+   * @param source what was browsed, e.g. the JNDI name of the queue
+   * @throws IOException if the file can not be written
+   */
+  public SnapshotWriter(Path file, String source) throws IOException {
+    out = new DataOutputStream(new BufferedOutputStream(
+      Files.newOutputStream(file), 1 << 16));
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeShort(0);
+    out.writeLong(System.currentTimeMillis());
+    position = 16 + writeString(out, source);
+  }
+
+  /**
+   * @return records written so far
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Append a record.
+   *
+   * @param inRecord the record to write
+   * @throws IOException if the file can not be written
+   * @throws JMSException if a field can not be read from the record
+   */
+  public void write(MessageTableRecord inRecord) throws IOException, JMSException {
+    buffer.reset();
+    record.writeLong(inRecord.getJMSTimestamp());
+    record.writeLong(inRecord.getJMSExpiration());
+    record.writeByte(inRecord.getJMSPriority());
+    record.writeByte(inRecord.getJMSDeliveryMode());
+    record.writeByte((inRecord.getJMSRedelivered() ? FLAG_REDELIVERED : 0)
+      | (inRecord.isBodyLoaded() ? FLAG_BODY_LOADED : 0));
+    writeString(record, inRecord.getJMSMessageID());
+    writeString(record, inRecord.getJMSCorrelationID());
+    record.writeInt(word(inRecord.getJMSType()));
+    record.writeInt(word(destinationName(inRecord.getJMSDestination())));
+    record.writeInt(word(destinationName(inRecord.getJMSReplyTo())));
+    writeBytes(record, inRecord.getJMSCorrelationIDAsBytes());
+    final Properties properties = inRecord.getProperties();
+    record.writeInt(properties == null ? -1 : properties.size());
+    if (properties != null) {
+      for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+        record.writeInt(word(String.valueOf(entry.getKey())));
+        writeString(record, String.valueOf(entry.getValue()));
+      }
+    }
+    writeString(record, inRecord.getText());
+    writeBytes(record, inRecord.getObjectBytes());
+    record.flush();
+
+    if ((count & (INDEX_CHUNK - 1)) == 0) {
+      index.add(new long[INDEX_CHUNK]);
+    }
+    index.get(count / INDEX_CHUNK)[count % INDEX_CHUNK] = position;
+    out.writeInt(buffer.size());
+    buffer.writeTo(out);
+    position += 4 + buffer.size();
+    count++;
+  }
+
+  /**
+   * Write the dictionary, index and trailer and close the file. A snapshot
+   * that was not closed can not be opened.
+   *
+   * @throws IOException if the file can not be written
+   */
+  @Override
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      try {
+        final long dictionaryOffset = position;
+        out.writeInt(words.size());
+        position += 4;
+        for (String word : words) {
+          position += writeString(out, word);
+        }
+        final long indexOffset = position;
+        for (int row = 0; row < count; row++) {
+          out.writeLong(index.get(row / INDEX_CHUNK)[row % INDEX_CHUNK]);
+        }
+        out.writeLong(dictionaryOffset);
+        out.writeLong(indexOffset);
+        out.writeInt(count);
+        out.writeInt(END);
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * @return the dictionary number of a string, -1 for null
+   */
+  private int word(String value) {
+    int number = -1;
+    if (value != null) {
+      final Integer known = dictionary.get(value);
+      if (known == null) {
+        number = words.size();
+        words.add(value);
+        dictionary.put(value, number);
+      } else {
+        number = known;
+      }
+    }
+    return number;
+  }
+
+  private static String destinationName(Destination destination) {
+    return destination == null ? null : destination.toString();
+  }
+
+  /**
+   * @return bytes written
+   */
+  private static int writeString(DataOutputStream stream, String value)
+    throws IOException {
+    return writeBytes(stream, value == null ? null
+      : value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static int writeBytes(DataOutputStream stream, byte[] value)
+    throws IOException {
+    int length = 4;
+    if (value == null) {
+      stream.writeInt(-1);
+    } else {
+      stream.writeInt(value.length);
+      stream.write(value);
+      length += value.length;
+    }
+    return length;
+  }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+
+/**
+ * Append only file of encoded MessageTableRecords, used by
+ * MessageTableModel once a browse no longer fits in its memory budget.
+ *
+ * Records are written at the end of the file and found again through an
+ * in-memory offset index. Reads go through read-only memory mappings of
+ * fixed size segments; a record never crosses a segment boundary unless it
+ * is larger than a segment, in which case it is read with a plain
+ * positional read. Recently decoded records are kept in a small LRU cache,
+ * which is what the table hits while painting.
+ *
+ * Nothing in the file is Java deserialized when a record is read. The
+ * few distinct destinations are kept in memory and written as a number,
+ * and ObjectMessage bodies are handed to the record as bytes, which
+ * ObjectBody only deserializes if the body is asked for.
+ *
+ * @author Scott Douglass
+ */
+public class SpillFile implements RecordFile {
+
+  /** Size of one memory mapped region of the file. */
+  static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+  /** Number of decoded records kept in memory. */
+  private static final int CACHE_SIZE = 1024;
+  private static final int INDEX_CHUNK = 1 << 14;
+
+  private final int segmentSize;
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel channel;
+  private final List<long[]> index = new ArrayList<>();
+  private final List<MappedByteBuffer> segments = new ArrayList<>();
+  private final Map<Integer, MessageTableRecord> cache
+    = new LinkedHashMap<Integer, MessageTableRecord>(CACHE_SIZE, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, MessageTableRecord> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+  private final List<Destination> destinations = new ArrayList<>();
+  private final Map<Destination, Integer> destinationNumbers = new HashMap<>();
+  private long length = 0;
+  private int size = 0;
+
+  /**
+   * Create a new, empty spill file in the temporary directory. It is
+   * deleted on close, or on exit at the latest.
+   *
+   * @throws IOException if the file can not be created
+   */
+  public SpillFile() throws IOException {
+    this(SEGMENT_SIZE);
+  }
+
+  /**
+   * @param inSegmentSize bytes mapped at a time, smaller in tests to get
+   * records at and across segment boundaries without large files
+   * @throws IOException if the file can not be created
+   */
+  SpillFile(int inSegmentSize) throws IOException {
+    segmentSize = inSegmentSize;
+    file = File.createTempFile("jmstoolkit-spill", ".dat");
+    file.deleteOnExit();
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    channel = randomAccessFile.getChannel();
+  }
+
+  /**
+   *
+   * @return the number of records
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   *
+   * @return bytes written to the file
+   */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * Append a record.
+   *
+   * @param record the record to write
+   * @throws IOException if the file can not be written
+   * @throws JMSException if a field can not be read from the record
+   */
+  @Override
+  public void add(MessageTableRecord record) throws IOException, JMSException {
+    if ((size & (INDEX_CHUNK - 1)) == 0) {
+      index.add(new long[INDEX_CHUNK]);
+    }
+    setOffset(size, write(record));
+    size++;
+  }
+
+  /**
+   * Replace a record. The new version is appended, the old one is left as
+   * garbage in the file.
+   *
+   * @param row the record number
+   * @param record the record to write
+   * @throws IOException if the file can not be written
+   * @throws JMSException if a field can not be read from the record
+   */
+  @Override
+  public void set(int row, MessageTableRecord record) throws IOException, JMSException {
+    checkRow(row);
+    setOffset(row, write(record));
+    cache.remove(row);
+  }
+
+  /**
+   *
+   * @param row the record number
+   * @return the decoded record, possibly shared with earlier callers
+   * @throws IOException if the file can not be read
+   * @throws JMSException if a field can not be set on the record
+   */
+  @Override
+  public MessageTableRecord get(int row) throws IOException, JMSException {
+    checkRow(row);
+    MessageTableRecord record = cache.get(row);
+    if (record == null) {
+      record = decode(read(getOffset(row)));
+      cache.put(row, record);
+    }
+    return record;
+  }
+
+  /**
+   * Close and delete the file.
+   */
+  @Override
+  public void close() {
+    cache.clear();
+    destinations.clear();
+    destinationNumbers.clear();
+    segments.clear();
+    try {
+      channel.close();
+      randomAccessFile.close();
+    } catch (IOException e) {
+      // nothing to be done, the file is deleted on exit anyway
+    }
+    if (!file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+    }
+  }
+
+  private long getOffset(int row) {
+    return index.get(row / INDEX_CHUNK)[row % INDEX_CHUNK];
+  }
+
+  private void setOffset(int row, long offset) {
+    index.get(row / INDEX_CHUNK)[row % INDEX_CHUNK] = offset;
+  }
+
+  /**
+   * Write a length prefixed record at the end of the file.
+   *
+   * @return the offset of the record
+   */
+  private long write(MessageTableRecord record) throws IOException, JMSException {
+    buffer.reset();
+    final DataOutputStream out = new DataOutputStream(buffer);
+    out.writeInt(0);
+    encode(record, out);
+    out.flush();
+    final ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+    bytes.putInt(0, bytes.limit() - 4);
+    // keep records inside one segment so they can be read from a mapping
+    final long room = segmentSize - (length % segmentSize);
+    if ((bytes.limit() > room && bytes.limit() <= segmentSize) || room < 4) {
+      length += room;
+    }
+    final long offset = length;
+    long position = offset;
+    while (bytes.hasRemaining()) {
+      position += channel.write(bytes, position);
+    }
+    length = position;
+    return offset;
+  }
+
+  private byte[] read(long offset) throws IOException {
+    final int segment = (int) (offset / segmentSize);
+    final int start = (int) (offset % segmentSize);
+    MappedByteBuffer mapping = segment < segments.size() ? segments.get(segment) : null;
+    if (mapping == null || mapping.limit() < start + 4) {
+      mapping = map(segment);
+    }
+    final int recordLength = mapping.getInt(start);
+    final byte[] bytes = new byte[recordLength];
+    if (start + 4 + recordLength <= segmentSize) {
+      if (mapping.limit() < start + 4 + recordLength) {
+        mapping = map(segment);
+      }
+      final ByteBuffer view = mapping.duplicate();
+      view.position(start + 4);
+      view.get(bytes);
+    } else {
+      // bigger than a segment
+      final ByteBuffer target = ByteBuffer.wrap(bytes);
+      long position = offset + 4;
+      while (target.hasRemaining()) {
+        position += channel.read(target, position);
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Map a segment, or as much of it as has been written so far.
+   */
+  private MappedByteBuffer map(int segment) throws IOException {
+    final long start = (long) segment * segmentSize;
+    final long mapped = Math.min(segmentSize, length - start);
+    final MappedByteBuffer mapping
+      = channel.map(FileChannel.MapMode.READ_ONLY, start, mapped);
+    while (segments.size() <= segment) {
+      segments.add(null);
+    }
+    segments.set(segment, mapping);
+    return mapping;
+  }
+
+  private void encode(MessageTableRecord record, DataOutputStream out)
+    throws IOException, JMSException {
+    out.writeLong(record.getJMSTimestamp());
+    out.writeLong(record.getJMSExpiration());
+    out.writeInt(record.getJMSPriority());
+    out.writeInt(record.getJMSDeliveryMode());
+    out.writeBoolean(record.getJMSRedelivered());
+    out.writeBoolean(record.isBodyLoaded());
+    writeString(out, record.getJMSMessageID());
+    writeString(out, record.getJMSCorrelationID());
+    writeString(out, record.getJMSType());
+    writeString(out, record.getText());
+    writeBytes(out, record.getJMSCorrelationIDAsBytes());
+    final Properties properties = record.getProperties();
+    out.writeInt(properties == null ? -1 : properties.size());
+    if (properties != null) {
+      for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+        writeString(out, String.valueOf(entry.getKey()));
+        writeString(out, String.valueOf(entry.getValue()));
+      }
+    }
+    out.writeInt(destinationNumber(record.getJMSDestination()));
+    out.writeInt(destinationNumber(record.getJMSReplyTo()));
+    writeBytes(out, record.getObjectBytes());
+  }
+
+  private MessageTableRecord decode(byte[] bytes)
+    throws IOException, JMSException {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    final MessageTableRecord record = new MessageTableRecord();
+    record.setJMSTimestamp(in.readLong());
+    record.setJMSExpiration(in.readLong());
+    record.setJMSPriority(in.readInt());
+    record.setJMSDeliveryMode(in.readInt());
+    record.setJMSRedelivered(in.readBoolean());
+    record.setBodyLoaded(in.readBoolean());
+    record.setJMSMessageID(readString(in));
+    record.setJMSCorrelationID(readString(in));
+    record.setJMSType(readString(in));
+    record.setText(readString(in));
+    final byte[] correlationIDAsBytes = readBytes(in);
+    if (correlationIDAsBytes != null) {
+      record.setJMSCorrelationIDAsBytes(correlationIDAsBytes);
+    }
+    final int propertyCount = in.readInt();
+    if (propertyCount >= 0) {
+      final Properties properties = new Properties();
+      for (int i = 0; i < propertyCount; i++) {
+        properties.put(readString(in), readString(in));
+      }
+      record.setProperties(properties);
+    } else {
+      record.setProperties(null);
+    }
+    record.setJMSDestination(destination(in.readInt()));
+    record.setJMSReplyTo(destination(in.readInt()));
+    record.setObjectBytes(readBytes(in));
+    return record;
+  }
+
+  private static void writeString(DataOutputStream out, String value)
+    throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    final int stringLength = in.readInt();
+    String value = null;
+    if (stringLength >= 0) {
+      final byte[] bytes = new byte[stringLength];
+      in.readFully(bytes);
+      value = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return value;
+  }
+
+  private int destinationNumber(Destination destination) {
+    Integer number = -1;
+    if (destination != null) {
+      number = destinationNumbers.get(destination);
+      if (number == null) {
+        number = destinations.size();
+        destinations.add(destination);
+        destinationNumbers.put(destination, number);
+      }
+    }
+    return number;
+  }
+
+  private Destination destination(int number) {
+    return number < 0 ? null : destinations.get(number);
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] value)
+    throws IOException {
+    out.writeInt(value == null ? -1 : value.length);
+    if (value != null) {
+      out.write(value);
+    }
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    final int bytesLength = in.readInt();
+    byte[] value = null;
+    if (bytesLength >= 0) {
+      value = new byte[bytesLength];
+      in.readFully(value);
+    }
+    return value;
+  }
+}
@@ -14,6 +14,9 @@
  */
 package com.jmstoolkit.queuebrowser;
 
+import com.jmstoolkit.Timing;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.jdesktop.application.Application;
 import org.jdesktop.application.SingleFrameApplication;
 
@@ -22,6 +25,10 @@ import org.jdesktop.application.SingleFrameApplication;
  */
 public class QueueBrowserApp extends SingleFrameApplication {
 
+  private static final Logger LOGGER = Logger.getLogger(QueueBrowserApp.class.getName());
+  /** When main was called, for the startup times. */
+  private static long mainStarted = System.nanoTime();
+
   /**
    * At startup create and show the main frame of the application.
    */
@@ -30,6 +37,24 @@ public class QueueBrowserApp extends SingleFrameApplication {
     show(new QueueBrowserView(this));
   }
 
+  /**
+   * Called once startup has returned and the event queue is empty, so the
+   * window has been painted.
+   */
+  @Override
+  protected void ready() {
+    final long millis = millisSinceMain();
+    Timing.get().setFirstPaintMillis(millis);
+    LOGGER.log(Level.INFO, "First paint {0} ms after start", millis);
+  }
+
+  /**
+   * @return milliseconds since main was called
+   */
+  static long millisSinceMain() {
+    return (System.nanoTime() - mainStarted) / 1000000;
+  }
+
   /**
    * This method is to initialize the specified window by injecting resources.
    * Windows shown in our application come fully initialized from the GUI
@@ -53,6 +78,7 @@ public class QueueBrowserApp extends SingleFrameApplication {
    * @param args The command line arguments
    */
   public static void main(String[] args) {
+    mainStarted = System.nanoTime();
     launch(QueueBrowserApp.class, args);
   }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.queuebrowser;
+
+import com.jmstoolkit.Timing;
+import com.jmstoolkit.beans.MessageIndex;
+import com.jmstoolkit.beans.MessageTableRecord;
+import com.jmstoolkit.beans.SnapshotWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import org.springframework.jms.core.BrowserCallback;
+
+/**
+ * Converts the browsed messages into MessageTableRecords and hands them
+ * on in chunks, so the caller never has to hold the whole queue in a
+ * single list.
+ *
+ * @author Scott Douglass
+ */
+abstract class QueueBrowserCallback implements BrowserCallback<Integer> {
+
+  /** Longest time a partial chunk is held back before being published. */
+  private static final long MAX_CHUNK_DELAY = 100L;
+  private final int chunkSize;
+  private final boolean headersOnly;
+  private final MessageIndex index;
+  private final SnapshotWriter snapshot;
+
+  QueueBrowserCallback(int inChunkSize, boolean inHeadersOnly, MessageIndex inIndex,
+    SnapshotWriter inSnapshot) {
+    this.chunkSize = inChunkSize;
+    this.headersOnly = inHeadersOnly;
+    this.index = inIndex;
+    this.snapshot = inSnapshot;
+  }
+
+  /**
+   * Called from the browsing thread with each chunk of converted records.
+   * @param chunk the records, ownership passes to the implementation
+   */
+  protected abstract void publishChunk(List<MessageTableRecord> chunk);
+
+  /**
+   *
+   * @return true if browsing should stop early
+   */
+  protected boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public Integer doInJms(Session session, QueueBrowser browser) throws JMSException {
+    Enumeration messageEnumerator = browser.getEnumeration();
+    List<MessageTableRecord> chunk = new ArrayList<>(chunkSize);
+    long lastPublish = System.currentTimeMillis();
+    int count = 0;
+    long started = Timing.start();
+    while (messageEnumerator.hasMoreElements() && !isCancelled()) {
+      final Message message = (Message) messageEnumerator.nextElement();
+      Timing.stop(Timing.Stage.ENUMERATION, started);
+      MessageTableRecord qRecord = MessageTableRecord.fromMessage(message, headersOnly);
+      if (index != null) {
+        index.add(count, qRecord);
+      }
+      if (snapshot != null) {
+        try {
+          snapshot.write(qRecord);
+        } catch (IOException e) {
+          JMSException jmse = new JMSException("Can not write snapshot: " + e.getMessage());
+          jmse.setLinkedException(e);
+          throw jmse;
+        }
+      }
+      chunk.add(qRecord);
+      count++;
+      // publish full chunks, or whatever we have if the broker is slow,
+      // so the first rows show up straight away
+      long now = System.currentTimeMillis();
+      if (chunk.size() >= chunkSize || now - lastPublish >= MAX_CHUNK_DELAY) {
+        publishChunk(chunk);
+        chunk = new ArrayList<>(chunkSize);
+        lastPublish = now;
+      }
+      started = Timing.start();
+    }
+    if (!chunk.isEmpty()) {
+      publishChunk(chunk);
+    }
+    return count;
+  }
+}
@@ -0,0 +1,573 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.queuebrowser;
+
+import com.jmstoolkit.DrainEngine;
+import com.jmstoolkit.JTKException;
+import com.jmstoolkit.JmsSetup;
+import com.jmstoolkit.MessageExporter;
+import com.jmstoolkit.MessageImporter;
+import com.jmstoolkit.ReplayEngine;
+import com.jmstoolkit.SelectorParser;
+import com.jmstoolkit.Timing;
+import com.jmstoolkit.TransferEngine;
+import com.jmstoolkit.Settings;
+import com.jmstoolkit.beans.MessageTableRecord;
+import com.jmstoolkit.beans.SnapshotWriter;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.jms.Destination;
+import javax.jms.InvalidSelectorException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import javax.naming.NamingException;
+import org.springframework.jms.JmsException;
+import org.springframework.jms.core.BrowserCallback;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.SessionCallback;
+
+/**
+ * Command line QueueBrowser for hosts without a display and for scripts.
+ * Uses the same app.properties and jndi.properties as the GUI but loads
+ * no AWT or Swing classes.
+ *
+ * Records are written one per line as they arrive, nothing is kept in
+ * memory, so any number of messages can be browsed or listened to.
+ * Run it with:
+ * <pre>
+ * java -cp jmstoolkit-browser-jar-with-dependencies.jar \
+ *   com.jmstoolkit.queuebrowser.QueueBrowserCli browse -d queue/InputQueue
+ * </pre>
+ *
+ * @author Scott Douglass
+ */
+public final class QueueBrowserCli {
+
+  private static final String USAGE
+    = "Usage: QueueBrowserCli browse|count|drain|listen|move|copy|replay\n"
+    + "         [options]\n"
+    + "  -c, --factory NAME     JNDI name of the connection factory\n"
+    + "                         (default: first in app.properties)\n"
+    + "  -d, --destination NAME JNDI name of the destination\n"
+    + "                         (default: first in app.properties)\n"
+    + "  -s, --selector EXPR    JMS message selector\n"
+    + "  -n, --limit N          stop after N messages\n"
+    + "  -t, --timeout MS       listen: stop after MS without a message\n"
+    + "  -o, --out FILE         write records to FILE instead of stdout\n"
+    + "  -F, --format FORMAT    text, ndjson, csv or snapshot (default: from\n"
+    + "                         the --out file name, text for stdout)\n"
+    + "  -z, --gzip             gzip ndjson or csv (default for --out *.gz)\n"
+    + "      --headers-only     browse/listen: skip message bodies\n"
+    + "      --to NAME          move/copy: JNDI name of the target destination\n"
+    + "  -i, --in FILE          replay: ndjson, csv or snapshot file to send\n"
+    + "  -p, --pacing PACING    replay: original, max or messages per second\n"
+    + "                         (default: max)\n"
+    + "      --speed X          replay: original timing X times faster\n"
+    + "      --producers N      replay: concurrent producers\n";
+  private static final String P_CONNECTION_FACTORIES = "connection_factories";
+  private static final String P_DESTINATIONS = "destinations";
+  private static final long RECEIVE_TIMEOUT = 1000L;
+  private static final String SNAPSHOT_SUFFIX = ".jtks";
+  /** Milliseconds Ctrl-C waits for the current command to finish cleanly. */
+  private static final long SHUTDOWN_TIMEOUT = 10000L;
+  /** Exit code for bad arguments. */
+  private static final int EXIT_USAGE = 2;
+  /** Exit code for JMS, JNDI or I/O failures. */
+  private static final int EXIT_FAILURE = 1;
+
+  private final Properties appProperties = new Properties();
+  private final SimpleDateFormat dateTime
+    = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+  private String command;
+  private String factoryName;
+  private String destinationName;
+  private String selector;
+  private long limit = 0;
+  private long timeout = 0;
+  private String out;
+  private String format;
+  private boolean gzip = false;
+  private boolean headersOnly = false;
+  private String in;
+  private String to;
+  private String pacing = "max";
+  private double speed = 1;
+  private int producers = 0;
+  private volatile boolean stopped = false;
+  private volatile DrainEngine drainEngine;
+  private volatile ReplayEngine replayEngine;
+  private final CountDownLatch done = new CountDownLatch(1);
+  private JmsSetup jmsSetup;
+  private Writer writer;
+  private MessageExporter exporter;
+  private SnapshotWriter snapshot;
+
+  private QueueBrowserCli() {
+  }
+
+  /**
+   *
+   * @param args the command and options, see USAGE
+   */
+  public static void main(String[] args) {
+    final QueueBrowserCli cli = new QueueBrowserCli();
+    final int code = cli.run(args);
+    if (!cli.stopped) {
+      // the JVM is already on its way out after Ctrl-C
+      System.exit(code);
+    }
+  }
+
+  private int run(String[] args) {
+    int code = 0;
+    try {
+      parse(args);
+      JmsSetup.loadSettings(appProperties);
+      factoryName = defaultSetting(factoryName, P_CONNECTION_FACTORIES);
+      destinationName = defaultSetting(destinationName, P_DESTINATIONS);
+      if (factoryName == null || destinationName == null) {
+        throw new IllegalArgumentException("No connection factory or destination");
+      }
+      jmsSetup = new JmsSetup(appProperties, 1);
+      Timing.register();
+      jmsSetup.setConnectionFactory(factoryName);
+      final Destination destination = jmsSetup.setDestination(destinationName);
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          QueueBrowserCli.this.stop();
+        }
+      });
+      openOut();
+      try {
+        final long count;
+        switch (command) {
+          case "browse":
+            count = browse(asQueue(destination), true);
+            break;
+          case "count":
+            count = browse(asQueue(destination), false);
+            writer.write(Long.toString(count));
+            writer.write('\n');
+            break;
+          case "drain":
+            count = drain(destination);
+            break;
+          case "listen":
+            count = listen(destination);
+            break;
+          case "move":
+          case "copy":
+            count = transfer(destination);
+            break;
+          case "replay":
+            count = replay(destination);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown command: " + command);
+        }
+        System.err.println(command + ": " + count + " messages");
+      } finally {
+        if (exporter != null) {
+          exporter.close();
+        } else if (snapshot != null) {
+          snapshot.close();
+        } else {
+          writer.close();
+        }
+      }
+    } catch (IllegalArgumentException | InvalidSelectorException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      code = EXIT_USAGE;
+    } catch (JTKException e) {
+      System.err.println(e.toStringWithStackTrace());
+      code = EXIT_FAILURE;
+    } catch (NamingException | JMSException | JmsException | IOException e) {
+      System.err.println(JTKException.formatException(e));
+      code = EXIT_FAILURE;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      code = EXIT_FAILURE;
+    } finally {
+      if (jmsSetup != null) {
+        jmsSetup.destroy();
+      }
+      done.countDown();
+    }
+    return code;
+  }
+
+  /**
+   * Ctrl-C: let the command commit and flush what it has.
+   */
+  private void stop() {
+    stopped = true;
+    final DrainEngine engine = drainEngine;
+    if (engine != null) {
+      engine.cancel();
+    }
+    final ReplayEngine replay = replayEngine;
+    if (replay != null) {
+      replay.cancel();
+    }
+    try {
+      done.await(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void parse(String[] args) throws InvalidSelectorException {
+    if (args.length == 0) {
+      throw new IllegalArgumentException("No command");
+    }
+    command = args[0];
+    for (int i = 1; i < args.length; i++) {
+      final String option = args[i];
+      if ("--headers-only".equals(option)) {
+        headersOnly = true;
+      } else if ("-z".equals(option) || "--gzip".equals(option)) {
+        gzip = true;
+      } else if (i + 1 < args.length) {
+        final String value = args[++i];
+        switch (option) {
+          case "-c":
+          case "--factory":
+            factoryName = value;
+            break;
+          case "-d":
+          case "--destination":
+            destinationName = value;
+            break;
+          case "-s":
+          case "--selector":
+            SelectorParser.validate(value);
+            selector = value.trim().isEmpty() ? null : value;
+            break;
+          case "-n":
+          case "--limit":
+            limit = parseLong(option, value);
+            break;
+          case "-t":
+          case "--timeout":
+            timeout = parseLong(option, value);
+            break;
+          case "-o":
+          case "--out":
+            out = value;
+            break;
+          case "-F":
+          case "--format":
+            format = value.toLowerCase(Locale.ROOT);
+            if (!("text".equals(format) || "ndjson".equals(format)
+              || "csv".equals(format) || "snapshot".equals(format))) {
+              throw new IllegalArgumentException("Unknown format: " + value);
+            }
+            break;
+          case "--to":
+            to = value;
+            break;
+          case "-i":
+          case "--in":
+            in = value;
+            break;
+          case "-p":
+          case "--pacing":
+            pacing = value.toLowerCase(Locale.ROOT);
+            if (!("original".equals(pacing) || "max".equals(pacing))) {
+              parseDouble(option, pacing);
+            }
+            break;
+          case "--speed":
+            speed = parseDouble(option, value);
+            break;
+          case "--producers":
+            producers = (int) parseLong(option, value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option: " + option);
+        }
+      } else {
+        throw new IllegalArgumentException("Missing value for " + option);
+      }
+    }
+  }
+
+  private static long parseLong(String option, String value) {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+    }
+  }
+
+  private static double parseDouble(String option, String value) {
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+    }
+  }
+
+  private String defaultSetting(String value, String key) {
+    String result = value;
+    if (result == null) {
+      final List<String> settings = Settings.getSettings(appProperties, key);
+      result = settings.isEmpty() ? null : settings.get(0);
+    }
+    return result;
+  }
+
+  /**
+   * Set up the writer for text and counts, the exporter for NDJSON and
+   * CSV, or the snapshot writer.
+   */
+  private void openOut() throws IOException {
+    String outFormat = format;
+    if (outFormat == null) {
+      if (out != null && out.toLowerCase(Locale.ROOT).endsWith(SNAPSHOT_SUFFIX)) {
+        outFormat = "snapshot";
+      } else {
+        outFormat = out == null || !(out.matches("(?i).*\\.(ndjson|jsonl|json|csv)(\\.gz)?"))
+          ? "text" : MessageExporter.Format.forFileName(out).name();
+      }
+    }
+    final boolean compress = gzip || (out != null && out.toLowerCase(Locale.ROOT).endsWith(".gz"));
+    if ("text".equalsIgnoreCase(outFormat) || "count".equals(command)) {
+      final OutputStream stream = out == null ? System.out : new FileOutputStream(out);
+      writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+    } else if ("snapshot".equals(outFormat)) {
+      if (out == null) {
+        throw new IllegalArgumentException("A snapshot needs --out");
+      }
+      snapshot = new SnapshotWriter(Paths.get(out), destinationName);
+    } else {
+      final MessageExporter.Format exportFormat
+        = MessageExporter.Format.valueOf(outFormat.toUpperCase(Locale.ROOT));
+      exporter = out == null
+        ? new MessageExporter(Channels.newChannel(System.out), exportFormat, compress)
+        : new MessageExporter(Paths.get(out), exportFormat, compress);
+    }
+  }
+
+  private Queue asQueue(Destination destination) {
+    if (!(destination instanceof Queue)) {
+      throw new IllegalArgumentException("Not a queue: " + destinationName);
+    }
+    return (Queue) destination;
+  }
+
+  /**
+   * Walk the queue, writing each message if write is true.
+   */
+  private long browse(Queue queue, final boolean write) throws IOException {
+    final BrowserCallback<Long> callback = new BrowserCallback<Long>() {
+      @Override
+      public Long doInJms(Session session, QueueBrowser browser)
+        throws JMSException {
+        final Enumeration messages = browser.getEnumeration();
+        long count = 0;
+        while (messages.hasMoreElements() && !stopped
+          && (limit <= 0 || count < limit)) {
+          final Message message = (Message) messages.nextElement();
+          if (write) {
+            writeRecord(MessageTableRecord.fromMessage(message, headersOnly), false);
+          }
+          count++;
+        }
+        return count;
+      }
+    };
+    final JmsTemplate jmsTemplate = jmsSetup.getJmsTemplate();
+    return selector == null ? jmsTemplate.browse(queue, callback)
+      : jmsTemplate.browseSelected(queue, selector, callback);
+  }
+
+  private long drain(Destination destination)
+    throws JMSException, InterruptedException {
+    final DrainEngine engine = new DrainEngine(
+      jmsSetup.getConnectionFactory().getTargetConnectionFactory(), destination)
+      .configure(appProperties);
+    engine.setSelector(selector);
+    engine.setLimit(limit);
+    drainEngine = engine;
+    if (stopped) {
+      engine.cancel();
+    }
+    return engine.run();
+  }
+
+  /**
+   * Move or copy the selected messages to the --to destination.
+   */
+  private long transfer(Destination destination)
+    throws JMSException, InterruptedException, NamingException {
+    if (to == null) {
+      throw new IllegalArgumentException(command + " needs --to");
+    }
+    final TransferEngine engine = new TransferEngine(
+      jmsSetup.getConnectionFactory().getTargetConnectionFactory(), destination,
+      (Destination) jmsSetup.lookup(to), "copy".equals(command))
+      .configure(appProperties);
+    engine.setSelector(selector);
+    engine.setLimit(limit);
+    drainEngine = engine;
+    if (stopped) {
+      engine.cancel();
+    }
+    return engine.run();
+  }
+
+  /**
+   * Send the messages of the --in file through the cached connection
+   * factory and print what was achieved.
+   */
+  private long replay(Destination destination)
+    throws JMSException, IOException, InterruptedException {
+    if (in == null) {
+      throw new IllegalArgumentException("replay needs --in");
+    }
+    final ReplayEngine engine = new ReplayEngine(
+      jmsSetup.getConnectionFactory().getTargetConnectionFactory(), destination).configure(appProperties);
+    if (producers > 0) {
+      engine.setProducers(producers);
+    }
+    if ("original".equals(pacing)) {
+      engine.setPacing(ReplayEngine.Pacing.ORIGINAL);
+      engine.setSpeed(speed);
+    } else if (!"max".equals(pacing)) {
+      engine.setPacing(ReplayEngine.Pacing.FIXED_RATE);
+      engine.setRate(Double.parseDouble(pacing));
+    }
+    replayEngine = engine;
+    if (stopped) {
+      engine.cancel();
+    }
+    try (MessageImporter importer = new MessageImporter(Paths.get(in))) {
+      final ReplayEngine.Result result = engine.run(importer);
+      System.err.println(result);
+      return result.getCount();
+    }
+  }
+
+  /**
+   * Consume and write messages until the limit, the timeout or Ctrl-C.
+   */
+  private long listen(final Destination destination) {
+    return jmsSetup.getJmsTemplate().execute(new SessionCallback<Long>() {
+      @Override
+      public Long doInJms(Session session) throws JMSException {
+        final MessageConsumer consumer = session.createConsumer(destination, selector);
+        long count = 0;
+        long idle = 0;
+        try {
+          while (!stopped && (limit <= 0 || count < limit)
+            && (timeout <= 0 || idle < timeout)) {
+            final Message message = consumer.receive(RECEIVE_TIMEOUT);
+            if (message == null) {
+              idle += RECEIVE_TIMEOUT;
+            } else {
+              idle = 0;
+              writeRecord(MessageTableRecord.fromMessage(message, headersOnly), true);
+              count++;
+            }
+          }
+        } finally {
+          consumer.close();
+        }
+        return count;
+      }
+    }, true);
+  }
+
+  /**
+   * Hand the record to the exporter, or write it as one tab separated
+   * line: timestamp, message ID, correlation ID, type,
+   * priority, properties and text.
+   */
+  private void writeRecord(MessageTableRecord record, boolean flush)
+    throws JMSException {
+    try {
+      if (exporter != null) {
+        exporter.write(record);
+        if (flush) {
+          exporter.flush();
+        }
+      } else if (snapshot != null) {
+        snapshot.write(record);
+      } else {
+        writer.write(toLine(record));
+        if (flush) {
+          writer.flush();
+        }
+      }
+    } catch (IOException e) {
+      final JMSException jmse = new JMSException("Can not write record: " + e.getMessage());
+      jmse.setLinkedException(e);
+      throw jmse;
+    }
+  }
+
+  private String toLine(MessageTableRecord record) throws JMSException {
+    final StringBuilder line = new StringBuilder(256);
+    line.append(dateTime.format(new Date(record.getJMSTimestamp()))).append('\t');
+    appendField(line, record.getJMSMessageID());
+    appendField(line, record.getJMSCorrelationID());
+    appendField(line, record.getJMSType());
+    line.append(record.getJMSPriority()).append('\t');
+    final StringBuilder properties = new StringBuilder();
+    if (record.getProperties() != null) {
+      for (Map.Entry<Object, Object> entry : record.getProperties().entrySet()) {
+        if (properties.length() > 0) {
+          properties.append(", ");
+        }
+        properties.append(entry.getKey()).append('=').append(entry.getValue());
+      }
+    }
+    appendField(line, properties.toString());
+    line.append(escape(record.getText())).append('\n');
+    return line.toString();
+  }
+
+  private static void appendField(StringBuilder line, String value) {
+    line.append(escape(value)).append('\t');
+  }
+
+  private static String escape(String value) {
+    return value == null ? "" : value.replace("\\", "\\\\").replace("\t", "\\t")
+      .replace("\r", "\\r").replace("\n", "\\n");
+  }
+}
@@ -14,11 +14,27 @@
  */
 package com.jmstoolkit.queuebrowser;
 
+import com.jmstoolkit.beans.DestinationSummaryTableModel;
+import com.jmstoolkit.beans.MessageIndex;
+import com.jmstoolkit.beans.MessageRowSorter;
 import com.jmstoolkit.beans.MessageTableRecord;
+import com.jmstoolkit.beans.SnapshotReader;
+import com.jmstoolkit.beans.SnapshotWriter;
 import com.jmstoolkit.Settings;
+import com.jmstoolkit.DepthSampler;
+import com.jmstoolkit.DrainEngine;
 import com.jmstoolkit.JTKException;
+import com.jmstoolkit.JmsSetup;
+import com.jmstoolkit.MessageExporter;
+import com.jmstoolkit.MessageImporter;
+import com.jmstoolkit.ReplayEngine;
+import com.jmstoolkit.SelectorParser;
+import com.jmstoolkit.Timing;
+import com.jmstoolkit.TransferEngine;
 import javax.jms.Destination;
+import javax.jms.InvalidSelectorException;
 import javax.jms.JMSException;
+import javax.jms.Queue;
 import javax.jms.QueueBrowser;
 import javax.jms.Session;
 import javax.naming.NamingException;
@@ -28,25 +44,40 @@ import org.jdesktop.application.SingleFrameApplication;
 import org.jdesktop.application.FrameView;
 import org.jdesktop.application.Task;
 import org.jdesktop.application.TaskMonitor;
+import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.jms.ConnectionFactory;
 import javax.jms.Message;
-import javax.jms.ObjectMessage;
-import javax.jms.TextMessage;
 import javax.swing.Timer;
 import javax.swing.Icon;
 import javax.swing.JDialog;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
-import org.springframework.jms.connection.CachingConnectionFactory;
-import org.springframework.jms.connection.UserCredentialsConnectionFactoryAdapter;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import org.springframework.jms.JmsException;
 import org.springframework.jms.core.BrowserCallback;
 import org.springframework.jms.core.JmsTemplate;
-import org.springframework.jndi.JndiTemplate;
 
 /**
  * The application's main frame.
@@ -55,23 +86,39 @@ public class QueueBrowserView extends FrameView {
 
   private static final String P_CONNECTION_FACTORIES = "connection_factories";
   private static final String P_DESTINATIONS = "destinations";
-  private static final String D_JNDI_PROPERTIES = "jndi.properties";
-  private JndiTemplate jndiTemplate;
+  /** Prefix of the recently used selectors, followed by the destination. */
+  private static final String P_SELECTORS = "selectors";
+  private static final int MAX_RECENT_SELECTORS = 10;
+  /** Number of browsed records handed to the table in one go. */
+  private static final int BROWSE_CHUNK_SIZE = 500;
+  /** Most destinations browsed at the same time by Browse All. */
+  private static final int BROWSE_ALL_THREADS = 8;
+  private static final String SNAPSHOT_SUFFIX = ".jtks";
+  private JmsSetup jmsSetup;
   private JmsTemplate jmsTemplate;
   private Task browseTask;
   private List<String> connectionFactoryList = new ArrayList<>();
   private List<String> destinationList = new ArrayList<>();
   private Properties appProperties = new Properties();
-  private CachingConnectionFactory connectionFactory;
+  /** Full text index of the last browse, used by the search field. */
+  private final MessageIndex messageIndex = new MessageIndex();
+  /** Sorts and filters the message table off the EDT. */
+  private MessageRowSorter messageRowSorter;
+  private final DestinationSummaryTableModel summaryTableModel
+    = new DestinationSummaryTableModel();
+  private JDialog summaryDialog;
+  private DepthSampler depthSampler;
+  /** Set once the user picks a destination, for StartupTask. */
+  private volatile boolean destinationChosen = false;
+  /** Set once the user picks a connection factory, for StartupTask. */
+  private volatile boolean factoryChosen = false;
 
   private void _init() {
     try {
-      Settings.loadSystemSettings(
-        System.getProperty(D_JNDI_PROPERTIES, D_JNDI_PROPERTIES));
       // load settings from default file: app.properties
       // which contains previously used connection
       // factories and destinations
-      Settings.loadSettings(appProperties);
+      JmsSetup.loadSettings(appProperties);
       connectionFactoryList = Settings.getSettings(appProperties, P_CONNECTION_FACTORIES);
       destinationList = Settings.getSettings(appProperties, P_DESTINATIONS);
     } catch (JTKException se) {
@@ -80,23 +127,13 @@ public class QueueBrowserView extends FrameView {
       System.out.println(se.toStringWithStackTrace());
     }
     // FIXME: Not using the applicationContext at all... ho hum
-    this.jmsTemplate = new JmsTemplate();
-
-    this.connectionFactory = new CachingConnectionFactory();
-    this.connectionFactory.setCacheProducers(true);
-    this.jmsTemplate.setConnectionFactory(connectionFactory);
-    this.jndiTemplate = new JndiTemplate();
-  }
-
-  private ConnectionFactory wrapConnectionFactory(String inJNDIName)
-    throws NamingException {
-    UserCredentialsConnectionFactoryAdapter uccfa
-      = new UserCredentialsConnectionFactoryAdapter();
-    uccfa.setUsername(appProperties.getProperty("jmstoolkit.username"));
-    uccfa.setPassword(appProperties.getProperty("jmstoolkit.password"));
-    uccfa.setTargetConnectionFactory(
-      (ConnectionFactory) jndiTemplate.lookup(inJNDIName));
-    return uccfa;
+    // one session per concurrent browse
+    this.jmsSetup = new JmsSetup(appProperties, BROWSE_ALL_THREADS);
+    // resolve every known name now, a JNDI lookup can be slow
+    jmsSetup.prefetch(connectionFactoryList, destinationList);
+    Timing.register();
+    this.jmsTemplate = jmsSetup.getJmsTemplate();
+    this.depthSampler = new DepthSampler(jmsTemplate).configure(appProperties);
   }
 
   /**
@@ -108,22 +145,8 @@ public class QueueBrowserView extends FrameView {
 
     _init();
     initComponents();
-
-    // post components, finish inititalization based on initial values
-    // of combo boxes
-    try {
-      this.jmsTemplate.setDefaultDestination(
-        (Destination) this.jndiTemplate.lookup(
-          destinationComboBox.getSelectedItem().toString()));
-      connectionFactory.setTargetConnectionFactory(
-        wrapConnectionFactory(connectionFactoryComboBox.getSelectedItem().toString()));
-    } catch (NamingException ex) {
-      messageTextArea.setText(
-        JTKException.formatException(ex));
-    } catch (NullPointerException e) {
-      // if we have no previous properties, we'll get NullPointerException from
-      // the .toString()s... but we don't care.
-    }
+    messageRowSorter = new MessageRowSorter(messageTableModel);
+    messageRecordTable.setRowSorter(messageRowSorter);
 
     // status bar initialization - message timeout, idle icon and busy animation, etc
     ResourceMap resourceMap = getResourceMap();
@@ -193,6 +216,11 @@ public class QueueBrowserView extends FrameView {
         }
       }
     });
+
+    // post components, finish inititalization based on initial values
+    // of combo boxes, without holding up the window
+    getApplication().getContext().getTaskService().execute(
+      new StartupTask(getApplication()));
   }
 
   /**
@@ -208,6 +236,25 @@ public class QueueBrowserView extends FrameView {
     QueueBrowserApp.getApplication().show(aboutBox);
   }
 
+  /**
+   * Show where the time has gone since the start or the last reset; the
+   * same figures are published over JMX as com.jmstoolkit:type=Timing.
+   */
+  @Action
+  public void showTimings() {
+    final JTextArea summary = new JTextArea(Timing.get().getSummary());
+    summary.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+    summary.setEditable(false);
+    final String reset = getResourceMap().getString("timingsReset.text");
+    final String close = getResourceMap().getString("timingsClose.text");
+    if (JOptionPane.showOptionDialog(getFrame(), new JScrollPane(summary),
+      getResourceMap().getString("showTimings.Action.text"),
+      JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null,
+      new Object[]{reset, close}, close) == 0) {
+      Timing.get().reset();
+    }
+  }
+
   /**
    * This method is called from within the constructor to initialize the form.
    * WARNING: Do NOT modify this code. The content of this method is always
@@ -224,6 +271,10 @@ public class QueueBrowserView extends FrameView {
     cancelButton = new javax.swing.JButton();
     connectionFactoryLabel = new javax.swing.JLabel();
     connectionFactoryComboBox = new javax.swing.JComboBox();
+    selectorLabel = new javax.swing.JLabel();
+    selectorComboBox = new javax.swing.JComboBox();
+    searchLabel = new javax.swing.JLabel();
+    searchTextField = new javax.swing.JTextField();
     messageSplitPane = new javax.swing.JSplitPane();
     messagePropertiesSplitPane = new javax.swing.JSplitPane();
     messageScrollPane = new javax.swing.JScrollPane();
@@ -235,12 +286,24 @@ public class QueueBrowserView extends FrameView {
     menuBar = new javax.swing.JMenuBar();
     javax.swing.JMenu fileMenu = new javax.swing.JMenu();
     drainQueueMenuItem = new javax.swing.JMenuItem();
+    removeSelectedMenuItem = new javax.swing.JMenuItem();
+    moveMenuItem = new javax.swing.JMenuItem();
+    copyMenuItem = new javax.swing.JMenuItem();
+    exportMenuItem = new javax.swing.JMenuItem();
+    snapshotMenuItem = new javax.swing.JCheckBoxMenuItem();
+    openSnapshotMenuItem = new javax.swing.JMenuItem();
+    replayMenuItem = new javax.swing.JMenuItem();
+    headersOnlyMenuItem = new javax.swing.JCheckBoxMenuItem();
+    sampleDepthMenuItem = new javax.swing.JCheckBoxMenuItem();
+    browseAllMenuItem = new javax.swing.JMenuItem();
     javax.swing.JMenuItem exitMenuItem = new javax.swing.JMenuItem();
     javax.swing.JMenu helpMenu = new javax.swing.JMenu();
     javax.swing.JMenuItem aboutMenuItem = new javax.swing.JMenuItem();
+    timingsMenuItem = new javax.swing.JMenuItem();
     statusPanel = new javax.swing.JPanel();
     javax.swing.JSeparator statusPanelSeparator = new javax.swing.JSeparator();
     statusMessageLabel = new javax.swing.JLabel();
+    depthLabel = new javax.swing.JLabel();
     statusAnimationLabel = new javax.swing.JLabel();
     progressBar = new javax.swing.JProgressBar();
     messageTableModel = new com.jmstoolkit.beans.MessageTableModel();
@@ -299,6 +362,26 @@ public class QueueBrowserView extends FrameView {
       }
     });
 
+    selectorLabel.setText(resourceMap.getString("selectorLabel.text")); // NOI18N
+    selectorLabel.setName("selectorLabel"); // NOI18N
+
+    selectorComboBox.setEditable(true);
+    selectorComboBox.setModel(new javax.swing.DefaultComboBoxModel(getRecentSelectors().toArray()));
+    selectorComboBox.setToolTipText(resourceMap.getString("selectorComboBox.toolTipText")); // NOI18N
+    selectorComboBox.setName("selectorComboBox"); // NOI18N
+    selectorComboBox.setSelectedItem("");
+
+    searchLabel.setText(resourceMap.getString("searchLabel.text")); // NOI18N
+    searchLabel.setName("searchLabel"); // NOI18N
+
+    searchTextField.setToolTipText(resourceMap.getString("searchTextField.toolTipText")); // NOI18N
+    searchTextField.setName("searchTextField"); // NOI18N
+    searchTextField.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        searchTextFieldActionPerformed(evt);
+      }
+    });
+
     messageSplitPane.setOrientation(javax.swing.JSplitPane.VERTICAL_SPLIT);
     messageSplitPane.setName("messageSplitPane"); // NOI18N
     messageSplitPane.setPreferredSize(new java.awt.Dimension(456, 400));
@@ -368,7 +451,15 @@ public class QueueBrowserView extends FrameView {
           .addGroup(mainPanelLayout.createSequentialGroup()
             .addComponent(connectionFactoryLabel)
             .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-            .addComponent(connectionFactoryComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, 240, javax.swing.GroupLayout.PREFERRED_SIZE)))
+            .addComponent(connectionFactoryComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, 240, javax.swing.GroupLayout.PREFERRED_SIZE))
+          .addGroup(mainPanelLayout.createSequentialGroup()
+            .addComponent(selectorLabel)
+            .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+            .addComponent(selectorComboBox, 0, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+          .addGroup(mainPanelLayout.createSequentialGroup()
+            .addComponent(searchLabel)
+            .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+            .addComponent(searchTextField)))
         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
         .addComponent(browseButton)
         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
@@ -390,6 +481,14 @@ public class QueueBrowserView extends FrameView {
           .addComponent(cancelButton)
           .addComponent(browseButton))
         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+        .addGroup(mainPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+          .addComponent(selectorLabel)
+          .addComponent(selectorComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+        .addGroup(mainPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+          .addComponent(searchLabel)
+          .addComponent(searchTextField, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
         .addComponent(messageSplitPane, javax.swing.GroupLayout.DEFAULT_SIZE, 454, Short.MAX_VALUE))
     );
 
@@ -403,6 +502,56 @@ public class QueueBrowserView extends FrameView {
     drainQueueMenuItem.setName("drainQueueMenuItem"); // NOI18N
     fileMenu.add(drainQueueMenuItem);
 
+    removeSelectedMenuItem.setAction(actionMap.get("removeSelectedMessages")); // NOI18N
+    removeSelectedMenuItem.setText(resourceMap.getString("removeSelectedMenuItem.text")); // NOI18N
+    removeSelectedMenuItem.setName("removeSelectedMenuItem"); // NOI18N
+    fileMenu.add(removeSelectedMenuItem);
+
+    moveMenuItem.setAction(actionMap.get("moveMessages")); // NOI18N
+    moveMenuItem.setText(resourceMap.getString("moveMenuItem.text")); // NOI18N
+    moveMenuItem.setName("moveMenuItem"); // NOI18N
+    fileMenu.add(moveMenuItem);
+
+    copyMenuItem.setAction(actionMap.get("copyMessages")); // NOI18N
+    copyMenuItem.setText(resourceMap.getString("copyMenuItem.text")); // NOI18N
+    copyMenuItem.setName("copyMenuItem"); // NOI18N
+    fileMenu.add(copyMenuItem);
+
+    exportMenuItem.setAction(actionMap.get("exportQueue")); // NOI18N
+    exportMenuItem.setText(resourceMap.getString("exportMenuItem.text")); // NOI18N
+    exportMenuItem.setName("exportMenuItem"); // NOI18N
+    fileMenu.add(exportMenuItem);
+
+    snapshotMenuItem.setText(resourceMap.getString("snapshotMenuItem.text")); // NOI18N
+    snapshotMenuItem.setToolTipText(resourceMap.getString("snapshotMenuItem.toolTipText")); // NOI18N
+    snapshotMenuItem.setName("snapshotMenuItem"); // NOI18N
+    fileMenu.add(snapshotMenuItem);
+
+    openSnapshotMenuItem.setAction(actionMap.get("openSnapshot")); // NOI18N
+    openSnapshotMenuItem.setText(resourceMap.getString("openSnapshotMenuItem.text")); // NOI18N
+    openSnapshotMenuItem.setName("openSnapshotMenuItem"); // NOI18N
+    fileMenu.add(openSnapshotMenuItem);
+
+    replayMenuItem.setAction(actionMap.get("replayMessages")); // NOI18N
+    replayMenuItem.setText(resourceMap.getString("replayMenuItem.text")); // NOI18N
+    replayMenuItem.setName("replayMenuItem"); // NOI18N
+    fileMenu.add(replayMenuItem);
+
+    headersOnlyMenuItem.setText(resourceMap.getString("headersOnlyMenuItem.text")); // NOI18N
+    headersOnlyMenuItem.setToolTipText(resourceMap.getString("headersOnlyMenuItem.toolTipText")); // NOI18N
+    headersOnlyMenuItem.setName("headersOnlyMenuItem"); // NOI18N
+    fileMenu.add(headersOnlyMenuItem);
+
+    sampleDepthMenuItem.setAction(actionMap.get("sampleDepth")); // NOI18N
+    sampleDepthMenuItem.setText(resourceMap.getString("sampleDepthMenuItem.text")); // NOI18N
+    sampleDepthMenuItem.setName("sampleDepthMenuItem"); // NOI18N
+    fileMenu.add(sampleDepthMenuItem);
+
+    browseAllMenuItem.setAction(actionMap.get("browseAllQueues")); // NOI18N
+    browseAllMenuItem.setText(resourceMap.getString("browseAllMenuItem.text")); // NOI18N
+    browseAllMenuItem.setName("browseAllMenuItem"); // NOI18N
+    fileMenu.add(browseAllMenuItem);
+
     exitMenuItem.setAction(actionMap.get("quit")); // NOI18N
     exitMenuItem.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_X, java.awt.event.InputEvent.CTRL_MASK));
     exitMenuItem.setText(resourceMap.getString("exitMenuItem.text")); // NOI18N
@@ -419,6 +568,10 @@ public class QueueBrowserView extends FrameView {
     aboutMenuItem.setName("aboutMenuItem"); // NOI18N
     helpMenu.add(aboutMenuItem);
 
+    timingsMenuItem.setAction(actionMap.get("showTimings")); // NOI18N
+    timingsMenuItem.setName("timingsMenuItem"); // NOI18N
+    helpMenu.add(timingsMenuItem);
+
     menuBar.add(helpMenu);
 
     statusPanel.setName("statusPanel"); // NOI18N
@@ -429,6 +582,9 @@ public class QueueBrowserView extends FrameView {
     statusMessageLabel.setAlignmentY(0.0F);
     statusMessageLabel.setName("statusMessageLabel"); // NOI18N
 
+    depthLabel.setToolTipText(resourceMap.getString("depthLabel.toolTipText")); // NOI18N
+    depthLabel.setName("depthLabel"); // NOI18N
+
     statusAnimationLabel.setHorizontalAlignment(javax.swing.SwingConstants.LEFT);
     statusAnimationLabel.setName("statusAnimationLabel"); // NOI18N
 
@@ -443,6 +599,8 @@ public class QueueBrowserView extends FrameView {
         .addContainerGap()
         .addComponent(statusMessageLabel, javax.swing.GroupLayout.PREFERRED_SIZE, 235, javax.swing.GroupLayout.PREFERRED_SIZE)
         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, 166, Short.MAX_VALUE)
+        .addComponent(depthLabel)
+        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
         .addComponent(progressBar, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
         .addComponent(statusAnimationLabel)
@@ -457,6 +615,7 @@ public class QueueBrowserView extends FrameView {
           .addGroup(statusPanelLayout.createSequentialGroup()
             .addGroup(statusPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
               .addComponent(statusMessageLabel, javax.swing.GroupLayout.PREFERRED_SIZE, 21, javax.swing.GroupLayout.PREFERRED_SIZE)
+              .addComponent(depthLabel)
               .addComponent(statusAnimationLabel))
             .addGap(3, 3, 3))
           .addGroup(statusPanelLayout.createSequentialGroup()
@@ -533,18 +692,18 @@ public class QueueBrowserView extends FrameView {
   }// </editor-fold>//GEN-END:initComponents
 
   private void destinationComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_destinationComboBoxActionPerformed
-    try {
-      String selectedItem = destinationComboBox.getSelectedItem().toString().trim();
-      this.jmsTemplate.setDefaultDestination(
-        (Destination) this.jndiTemplate.lookup(selectedItem));
-      if (evt.getActionCommand().equals("comboBoxEdited")
-        && (!destinationList.contains(selectedItem))) {
-        destinationList = Settings.addSetting(appProperties, P_DESTINATIONS, selectedItem);
-        destinationComboBox.addItem(selectedItem);
-      }
-    } catch (NamingException ex) {
-      messageTextArea.setText(JTKException.formatException(ex));
+    String selectedItem = getDestinationName();
+    destinationChosen = true;
+    getApplication().getContext().getTaskService().execute(
+      new SelectTask(getApplication(), selectedItem, false));
+    if (evt.getActionCommand().equals("comboBoxEdited")
+      && (!destinationList.contains(selectedItem))) {
+      destinationList = Settings.addSetting(appProperties, P_DESTINATIONS, selectedItem);
+      destinationComboBox.addItem(selectedItem);
     }
+    selectorComboBox.setModel(
+      new javax.swing.DefaultComboBoxModel(getRecentSelectors().toArray()));
+    selectorComboBox.setSelectedItem("");
   }//GEN-LAST:event_destinationComboBoxActionPerformed
 
   private void cancelButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_cancelButtonActionPerformed
@@ -554,28 +713,30 @@ public class QueueBrowserView extends FrameView {
   }//GEN-LAST:event_cancelButtonActionPerformed
 
   private void connectionFactoryComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_connectionFactoryComboBoxActionPerformed
-    try {
-      String selectedItem
-        = connectionFactoryComboBox.getSelectedItem().toString().trim();
-      connectionFactory.setTargetConnectionFactory(
-        wrapConnectionFactory(selectedItem));
-      if (evt.getActionCommand().equals("comboBoxEdited")
-        && (!connectionFactoryList.contains(selectedItem))) {
-        connectionFactoryList
-          = Settings.addSetting(appProperties, P_CONNECTION_FACTORIES, selectedItem);
-        connectionFactoryComboBox.addItem(selectedItem);
-      }
-    } catch (NamingException ex) {
-      messageTextArea.setText(JTKException.formatException(ex));
+    String selectedItem = getSelected(connectionFactoryComboBox);
+    factoryChosen = true;
+    getApplication().getContext().getTaskService().execute(
+      new SelectTask(getApplication(), selectedItem, true));
+    if (evt.getActionCommand().equals("comboBoxEdited")
+      && (!connectionFactoryList.contains(selectedItem))) {
+      connectionFactoryList
+        = Settings.addSetting(appProperties, P_CONNECTION_FACTORIES, selectedItem);
+      connectionFactoryComboBox.addItem(selectedItem);
     }
   }//GEN-LAST:event_connectionFactoryComboBoxActionPerformed
 
   private void messageRecordTableMouseClicked(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_messageRecordTableMouseClicked
     Integer selectedColumn = messageRecordTable.getSelectedColumn();
     Integer selectedRow = messageRecordTable.getSelectedRow();
+    Integer modelRow = messageRecordTable.convertRowIndexToModel(selectedRow);
+    if (!messageTableModel.isBodyLoaded(modelRow)) {
+      // browsed without bodies, fetch this one from the broker
+      getApplication().getContext().getTaskService().execute(
+        new LoadBodyTask(getApplication(), modelRow));
+    }
     this.messageTextArea.setText(
       (String) this.messageRecordTable.getValueAt(selectedRow, selectedColumn));
-    MessageTableRecord mRecord = (MessageTableRecord) this.messageTableModel.getData().get(selectedRow);
+    MessageTableRecord mRecord = this.messageTableModel.getRecord(modelRow);
     this.messagePropertyTableModel.setData(mRecord.getProperties());
     this.messagePropertyTableModel.fireTableDataChanged();
   }//GEN-LAST:event_messageRecordTableMouseClicked
@@ -583,18 +744,42 @@ public class QueueBrowserView extends FrameView {
   private void queueDrainedDialogOKButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_queueDrainedDialogOKButtonActionPerformed
     queueDrainedDialog.setVisible(false);
   }//GEN-LAST:event_queueDrainedDialogOKButtonActionPerformed
+
+  private void searchTextFieldActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_searchTextFieldActionPerformed
+    String query = searchTextField.getText().trim();
+    if (query.isEmpty()) {
+      messageRowSorter.setFilter(null);
+      statusMessageLabel.setText("");
+    } else {
+      final BitSet matches = messageIndex.search(query);
+      messageRowSorter.setFilter(matches);
+      statusMessageLabel.setText("Matches: " + matches.cardinality());
+    }
+  }//GEN-LAST:event_searchTextFieldActionPerformed
   // Variables declaration - do not modify//GEN-BEGIN:variables
+  private javax.swing.JMenuItem browseAllMenuItem;
   private javax.swing.JButton browseButton;
   private javax.swing.JButton cancelButton;
   private javax.swing.JComboBox connectionFactoryComboBox;
   private javax.swing.JLabel connectionFactoryLabel;
+  private javax.swing.JMenuItem copyMenuItem;
+  private javax.swing.JLabel depthLabel;
   private javax.swing.JComboBox destinationComboBox;
   private javax.swing.JLabel destinationLabel;
   private javax.swing.JMenuItem drainQueueMenuItem;
+  private javax.swing.JMenuItem exportMenuItem;
+  private javax.swing.JCheckBoxMenuItem headersOnlyMenuItem;
   private javax.swing.JLabel itemsDrainedLabel;
   private javax.swing.JTextField itemsDrainedTextField;
   private javax.swing.JPanel mainPanel;
   private javax.swing.JMenuBar menuBar;
+  private javax.swing.JMenuItem moveMenuItem;
+  private javax.swing.JMenuItem openSnapshotMenuItem;
+  private javax.swing.JMenuItem replayMenuItem;
+  private javax.swing.JLabel searchLabel;
+  private javax.swing.JTextField searchTextField;
+  private javax.swing.JComboBox selectorComboBox;
+  private javax.swing.JLabel selectorLabel;
   private javax.swing.JScrollPane messagePropertiesScrollPane;
   private javax.swing.JSplitPane messagePropertiesSplitPane;
   private javax.swing.JTable messagePropertiesTable;
@@ -607,12 +792,16 @@ public class QueueBrowserView extends FrameView {
   private javax.swing.JTextArea messageTextArea;
   private javax.swing.JProgressBar progressBar;
   private javax.swing.JDialog queueDrainedDialog;
+  private javax.swing.JMenuItem removeSelectedMenuItem;
+  private javax.swing.JCheckBoxMenuItem sampleDepthMenuItem;
+  private javax.swing.JCheckBoxMenuItem snapshotMenuItem;
   private javax.swing.JButton queueDrainedDialogOKButton;
   private javax.swing.JScrollPane queueDrainedScrollPane;
   private javax.swing.JTextPane queueDrainedTextPane;
   private javax.swing.JLabel statusAnimationLabel;
   private javax.swing.JLabel statusMessageLabel;
   private javax.swing.JPanel statusPanel;
+  private javax.swing.JMenuItem timingsMenuItem;
   // End of variables declaration//GEN-END:variables
   private final Timer messageTimer;
   private final Timer busyIconTimer;
@@ -627,81 +816,394 @@ public class QueueBrowserView extends FrameView {
    */
   @Action
   public Task browseQueue() {
-    browseTask = new BrowseQueueTask(getApplication());
-    return browseTask;
+    Task task = null;
+    String selector = getSelector();
+    if (checkSelector(selector)) {
+      SnapshotWriter snapshot = null;
+      boolean browse = true;
+      if (snapshotMenuItem.isSelected()) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(getDestinationName()
+          .replaceAll("[^A-Za-z0-9._-]", "_") + SNAPSHOT_SUFFIX));
+        browse = chooser.showSaveDialog(getFrame()) == JFileChooser.APPROVE_OPTION;
+        if (browse) {
+          try {
+            snapshot = new SnapshotWriter(chooser.getSelectedFile().toPath(),
+              getDestinationName());
+          } catch (IOException e) {
+            messageTextArea.setText(JTKException.formatException(e));
+            browse = false;
+          }
+        }
+      }
+      if (browse) {
+        browseTask = new BrowseQueueTask(getApplication(), selector, snapshot);
+        task = browseTask;
+      }
+    }
+    return task;
+  }
+
+  private String getDestinationName() {
+    return getSelected(destinationComboBox);
+  }
+
+  private static String getSelected(javax.swing.JComboBox comboBox) {
+    Object selected = comboBox.getSelectedItem();
+    return selected == null ? "" : selected.toString().trim();
+  }
+
+  /**
+   * Show a snapshot written earlier in the table, without a broker.
+   */
+  @Action
+  public void openSnapshot() {
+    JFileChooser chooser = new JFileChooser();
+    if (chooser.showOpenDialog(getFrame()) == JFileChooser.APPROVE_OPTION) {
+      try {
+        SnapshotReader snapshot = new SnapshotReader(chooser.getSelectedFile().toPath());
+        messageRowSorter.setFilter(null);
+        // the index would have to read every record
+        messageIndex.clear();
+        messageTableModel.setSnapshot(snapshot);
+        statusMessageLabel.setText("Snapshot of " + snapshot.getSource()
+          + ": " + snapshot.size() + " messages");
+      } catch (IOException e) {
+        messageTextArea.setText(JTKException.formatException(e));
+        statusMessageLabel.setText("Can not open snapshot");
+      }
+    }
+  }
+
+  /**
+   *
+   * @return the selector typed or picked in the selector combo box
+   */
+  private String getSelector() {
+    Object selected = selectorComboBox.getEditor().getItem();
+    return selected == null ? "" : selected.toString().trim();
+  }
+
+  /**
+   *
+   * @return recently used selectors for the current destination
+   */
+  private List<String> getRecentSelectors() {
+    Object destination = destinationComboBox.getSelectedItem();
+    return destination == null ? new ArrayList<String>()
+      : Settings.getIndexedSettings(appProperties,
+        P_SELECTORS + "." + destination.toString().trim());
+  }
+
+  /**
+   * Check the selector syntax before it goes to the broker, and remember
+   * it for the current destination if it is good.
+   *
+   * @param selector the selector, may be empty
+   * @return true if the selector can be used
+   */
+  private boolean checkSelector(String selector) {
+    boolean valid = true;
+    try {
+      SelectorParser.validate(selector);
+      Object destination = destinationComboBox.getSelectedItem();
+      if (!selector.isEmpty() && destination != null) {
+        List<String> recent = Settings.addRecentSetting(appProperties,
+          P_SELECTORS + "." + destination.toString().trim(), selector,
+          MAX_RECENT_SELECTORS);
+        selectorComboBox.setModel(new javax.swing.DefaultComboBoxModel(recent.toArray()));
+        selectorComboBox.setSelectedItem(selector);
+      }
+    } catch (InvalidSelectorException e) {
+      messageTextArea.setText(e.getMessage());
+      statusMessageLabel.setText("Invalid selector");
+      valid = false;
+    }
+    return valid;
   }
 
-  private class BrowseQueueTask extends org.jdesktop.application.Task<Object, Void> {
+  private class BrowseQueueTask extends org.jdesktop.application.Task<Integer, List<MessageTableRecord>> {
 
-    private List<MessageTableRecord> messages = new ArrayList<>();
+    private final boolean headersOnly;
+    private final String selector;
+    private final SnapshotWriter snapshot;
 
-    BrowseQueueTask(org.jdesktop.application.Application app) {
+    BrowseQueueTask(org.jdesktop.application.Application app, String inSelector,
+      SnapshotWriter inSnapshot) {
       // Copy GUI state that
       // doInBackground() depends on from parameters
       // to ReceiveMessageTask fields, here.
       super(app);
+      headersOnly = headersOnlyMenuItem.isSelected();
+      selector = inSelector;
+      snapshot = inSnapshot;
       cancelButton.setEnabled(true);
       browseButton.setEnabled(false);
+      // start with an empty table, records are appended as they arrive
+      messageRowSorter.setFilter(null);
+      messageIndex.clear();
+      messageTableModel.setData(new ArrayList<MessageTableRecord>());
     }
 
     @Override
-    protected Object doInBackground() {
+    protected Integer doInBackground() throws IOException {
       // Your Task's code here.  This method runs
       // on a background thread, so don't reference
       // the Swing GUI from here.
-      messages = (List<MessageTableRecord>) jmsTemplate.browse(new QueueBrowserCallback());
-      return messages;  // return your result
+      QueueBrowserCallback callback = new QueueBrowserCallback(BROWSE_CHUNK_SIZE,
+        headersOnly, messageIndex, snapshot) {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishChunk(List<MessageTableRecord> chunk) {
+          publish(chunk);
+        }
+
+        @Override
+        protected boolean isCancelled() {
+          return BrowseQueueTask.this.isCancelled();
+        }
+      };
+      try {
+        // with a selector the broker only sends the matching messages
+        return selector.isEmpty()
+          ? jmsTemplate.browse(callback)
+          : jmsTemplate.browseSelected(selector, callback);
+      } finally {
+        if (snapshot != null) {
+          snapshot.close();
+        }
+      }
     }
 
     @Override
-    protected void succeeded(Object result) {
+    protected void process(List<List<MessageTableRecord>> chunks) {
+      // runs on the EDT, SwingWorker may coalesce several chunks
+      for (List<MessageTableRecord> chunk : chunks) {
+        messageTableModel.addData(chunk);
+      }
+      setMessage("Items browsed: " + messageTableModel.getRowCount());
+    }
+
+    @Override
+    protected void succeeded(Integer result) {
       // Update the GUI based on
       // the result computed by doInBackground().
-      messageTableModel.setData(messages);
       cancelButton.setEnabled(false);
       browseButton.setEnabled(true);
-      statusMessageLabel.setText("Items in queue: " + messages.size());
-    }
-  }
-
-  private static class QueueBrowserCallback implements BrowserCallback {
-
-    @Override
-    public Object doInJms(Session session, QueueBrowser browser) throws JMSException {
-      Enumeration messageEnumerator = browser.getEnumeration();
-      List<MessageTableRecord> messages = new ArrayList<>();
-      while (messageEnumerator.hasMoreElements()) {
-        MessageTableRecord qRecord = new MessageTableRecord();
-        Message msg = (Message) messageEnumerator.nextElement();
-        qRecord.setJMSCorrelationID(msg.getJMSCorrelationID());
-        qRecord.setJMSCorrelationIDAsBytes(msg.getJMSCorrelationIDAsBytes());
-        qRecord.setJMSDeliveryMode(msg.getJMSDeliveryMode());
-        qRecord.setJMSDestination(msg.getJMSDestination());
-        qRecord.setJMSRedelivered(msg.getJMSRedelivered());
-        qRecord.setJMSExpiration(msg.getJMSExpiration());
-        qRecord.setJMSPriority(msg.getJMSPriority());
-        qRecord.setJMSTimestamp(msg.getJMSTimestamp());
-        qRecord.setJMSType(msg.getJMSType());
-
-        Enumeration propertyEnumerator = msg.getPropertyNames();
-        Properties props = new Properties();
-        while (propertyEnumerator.hasMoreElements()) {
-          String pElement = (String) propertyEnumerator.nextElement();
-          if (!(pElement == null || pElement.isEmpty())) {
-            props.put(pElement, msg.getStringProperty(pElement));
+      statusMessageLabel.setText((selector.isEmpty()
+        ? "Items in queue: " : "Items matching selector: ") + result);
+    }
+  }
+
+  /**
+   * Browse every configured destination at once and show a count for each.
+   *
+   * @return a Task
+   */
+  @Action
+  public Task browseAllQueues() {
+    Task task = null;
+    String selector = getSelector();
+    if (checkSelector(selector)) {
+      browseTask = new BrowseAllTask(getApplication(), selector);
+      task = browseTask;
+      showSummaryDialog();
+    }
+    return task;
+  }
+
+  private void showSummaryDialog() {
+    if (summaryDialog == null) {
+      JFrame mainFrame = QueueBrowserApp.getApplication().getMainFrame();
+      summaryDialog = new JDialog(mainFrame,
+        getResourceMap().getString("summaryDialog.title"), false);
+      summaryDialog.setName("summaryDialog"); // NOI18N
+      JTable summaryTable = new JTable(summaryTableModel);
+      summaryTable.setAutoCreateRowSorter(true);
+      summaryDialog.getContentPane().add(new JScrollPane(summaryTable));
+      summaryDialog.setSize(700, 400);
+      summaryDialog.setLocationRelativeTo(mainFrame);
+    }
+    QueueBrowserApp.getApplication().show(summaryDialog);
+  }
+
+  /**
+   * Browses the destinations of the destination list in parallel, each on
+   * its own session, counting messages without converting them. Results
+   * are published as each destination finishes, so the total time is that
+   * of the slowest destination rather than the sum.
+   */
+  private class BrowseAllTask extends org.jdesktop.application.Task<Long, DestinationSummaryTableModel.Row> {
+
+    private final List<String> destinations;
+    private final String selector;
+
+    BrowseAllTask(org.jdesktop.application.Application app, String inSelector) {
+      super(app);
+      destinations = new ArrayList<>(destinationList);
+      selector = inSelector;
+      cancelButton.setEnabled(true);
+      browseButton.setEnabled(false);
+      browseAllMenuItem.setEnabled(false);
+      summaryTableModel.clear();
+    }
+
+    @Override
+    protected Long doInBackground() throws InterruptedException {
+      ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(BROWSE_ALL_THREADS, destinations.size())));
+      CompletionService<DestinationSummaryTableModel.Row> completion
+        = new ExecutorCompletionService<>(executor);
+      long total = 0;
+      try {
+        for (final String destination : destinations) {
+          completion.submit(new Callable<DestinationSummaryTableModel.Row>() {
+            @Override
+            public DestinationSummaryTableModel.Row call() {
+              return browseOne(destination);
+            }
+          });
+        }
+        for (int done = 1; done <= destinations.size(); done++) {
+          DestinationSummaryTableModel.Row row = completion.take().get();
+          total += row.getCount();
+          publish(row);
+          setProgress(done, 0, destinations.size());
+        }
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      } finally {
+        executor.shutdownNow();
+      }
+      return total;
+    }
+
+    private DestinationSummaryTableModel.Row browseOne(String destination) {
+      final DestinationSummaryTableModel.Row row
+        = new DestinationSummaryTableModel.Row(destination);
+      long start = System.currentTimeMillis();
+      try {
+        Object found = jmsSetup.lookup(destination);
+        if (found instanceof Queue) {
+          BrowserCallback<Integer> callback = new BrowserCallback<Integer>() {
+            @Override
+            public Integer doInJms(Session session, QueueBrowser browser)
+              throws JMSException {
+              Enumeration messageEnumerator = browser.getEnumeration();
+              while (messageEnumerator.hasMoreElements() && !isCancelled()) {
+                row.add(((Message) messageEnumerator.nextElement()).getJMSTimestamp());
+              }
+              return row.getCount();
+            }
+          };
+          if (selector.isEmpty()) {
+            jmsTemplate.browse((Queue) found, callback);
+          } else {
+            jmsTemplate.browseSelected((Queue) found, selector, callback);
           }
+        } else {
+          row.setStatus("Not a queue");
         }
-        qRecord.setProperties(props);
+      } catch (NamingException | JmsException e) {
+        row.setStatus(e.getMessage());
+      }
+      row.setElapsed(System.currentTimeMillis() - start);
+      return row;
+    }
+
+    @Override
+    protected void process(List<DestinationSummaryTableModel.Row> rows) {
+      for (DestinationSummaryTableModel.Row row : rows) {
+        summaryTableModel.setRow(row);
+      }
+      setMessage("Destinations browsed: " + summaryTableModel.getRowCount()
+        + " of " + destinations.size());
+    }
+
+    @Override
+    protected void finished() {
+      cancelButton.setEnabled(false);
+      browseButton.setEnabled(true);
+      browseAllMenuItem.setEnabled(true);
+    }
 
-        if (msg instanceof TextMessage) {
-          qRecord.setText(((TextMessage) msg).getText());
+    @Override
+    protected void succeeded(Long result) {
+      statusMessageLabel.setText("Items in all queues: " + result);
+    }
+  }
+
+  /**
+   * Browses a single message by JMSMessageID to fill in the body of a row
+   * that was browsed with headers only.
+   */
+  private class LoadBodyTask extends org.jdesktop.application.Task<MessageTableRecord, Void> {
+
+    private final int row;
+    private final String messageID;
+    private final Queue queue;
+
+    LoadBodyTask(org.jdesktop.application.Application app, int inRow) {
+      super(app);
+      row = inRow;
+      messageID = messageTableModel.getMessageID(inRow);
+      queue = getQueue(messageTableModel.getRecord(inRow));
+    }
+
+    /**
+     * The queue the row came from, which may no longer be the selected
+     * destination; null to browse the selected one.
+     */
+    private Queue getQueue(MessageTableRecord record) {
+      Queue result = null;
+      try {
+        if (record != null && record.getJMSDestination() instanceof Queue) {
+          result = (Queue) record.getJMSDestination();
         }
-        if (msg instanceof ObjectMessage) {
-          qRecord.setObject(((ObjectMessage) msg).getObject());
+      } catch (JMSException e) {
+        result = null;
+      }
+      return result;
+    }
+
+    @Override
+    protected MessageTableRecord doInBackground() {
+      MessageTableRecord result = null;
+      if (messageID != null) {
+        final String selector = "JMSMessageID = '" + messageID.replace("'", "''") + "'";
+        final BrowserCallback<MessageTableRecord> callback
+          = new BrowserCallback<MessageTableRecord>() {
+            @Override
+            public MessageTableRecord doInJms(Session session, QueueBrowser browser)
+              throws JMSException {
+              Enumeration messageEnumerator = browser.getEnumeration();
+              MessageTableRecord record = null;
+              if (messageEnumerator.hasMoreElements()) {
+                record = MessageTableRecord.fromMessage(
+                  (Message) messageEnumerator.nextElement(), false);
+              }
+              return record;
+            }
+          };
+        result = queue == null ? jmsTemplate.browseSelected(selector, callback)
+          : jmsTemplate.browseSelected(queue, selector, callback);
+      }
+      return result;
+    }
+
+    @Override
+    protected void succeeded(MessageTableRecord result) {
+      if (result == null) {
+        setMessage("Message no longer in queue: " + messageID);
+      } else {
+        messageTableModel.setBody(row, result);
+        int selectedRow = messageRecordTable.getSelectedRow();
+        if (selectedRow >= 0
+          && messageRecordTable.convertRowIndexToModel(selectedRow) == row) {
+          messageTextArea.setText((String) messageRecordTable.getValueAt(
+            selectedRow, messageRecordTable.getSelectedColumn()));
         }
-        messages.add(qRecord);
       }
-      return messages;
     }
   }
 
@@ -711,47 +1213,597 @@ public class QueueBrowserView extends FrameView {
    */
   @Action
   public Task drainQueue() {
-    return new DrainQueueTask(getApplication());
+    Task task = null;
+    String selector = getSelector();
+    if (checkSelector(selector)) {
+      // default to the number of messages browsed, as before
+      int browsed = messageTableModel.getRowCount();
+      String answer = JOptionPane.showInputDialog(getFrame(),
+        getResourceMap().getString("drainLimit.message"),
+        browsed > 0 ? Integer.toString(browsed) : "");
+      if (answer != null) {
+        try {
+          long limit = answer.trim().isEmpty() ? 0 : Long.parseLong(answer.trim());
+          task = new DrainQueueTask(getApplication(), selector, limit);
+        } catch (NumberFormatException e) {
+          statusMessageLabel.setText("Not a number: " + answer);
+        }
+      }
+    }
+    return task;
+  }
+
+  /**
+   * Remove exactly the selected messages by JMSMessageID, each from the
+   * queue it was browsed from. With nothing selected the rows the filter
+   * shows are removed, after saying so; rows it hides are left alone, as
+   * are messages that arrived since the browse.
+   *
+   * @return a DrainQueueTask
+   */
+  @Action
+  public Task removeSelectedMessages() {
+    Task task = null;
+    int[] viewRows = messageRecordTable.getSelectedRows();
+    final boolean selected = viewRows.length > 0;
+    if (!selected) {
+      viewRows = new int[messageRecordTable.getRowCount()];
+      for (int viewRow = 0; viewRow < viewRows.length; viewRow++) {
+        viewRows[viewRow] = viewRow;
+      }
+    }
+    // null for rows that did not come from a queue: the selected one
+    final Map<Queue, List<String>> messageIDs = new LinkedHashMap<>();
+    int count = 0;
+    for (int viewRow : viewRows) {
+      final int row = messageRecordTable.convertRowIndexToModel(viewRow);
+      final String messageID = messageTableModel.getMessageID(row);
+      if (messageID != null) {
+        final Destination destination = messageTableModel.getDestination(row);
+        final Queue queue = destination instanceof Queue ? (Queue) destination : null;
+        List<String> ids = messageIDs.get(queue);
+        if (ids == null) {
+          ids = new ArrayList<>();
+          messageIDs.put(queue, ids);
+        }
+        ids.add(messageID);
+        count++;
+      }
+    }
+    if (count == 0) {
+      statusMessageLabel.setText("No browsed messages to remove.");
+    } else if (JOptionPane.showConfirmDialog(getFrame(),
+      getResourceMap().getString(selected ? "removeSelected.message" : "removeShown.message",
+        count, messageIDs.size()),
+      getResourceMap().getString("removeSelectedMessages.Action.text"),
+      JOptionPane.OK_CANCEL_OPTION) == JOptionPane.OK_OPTION) {
+      task = new DrainQueueTask(getApplication(), messageIDs, count);
+    }
+    return task;
   }
 
   private class DrainQueueTask extends org.jdesktop.application.Task<Object, Void> {
 
-    private final Integer mCount;
-    private final JmsTemplate dqJmsTemplate;
+    private final List<DrainEngine> engines = new ArrayList<>();
+    private final long limit;
 
-    DrainQueueTask(org.jdesktop.application.Application app) {
+    DrainQueueTask(org.jdesktop.application.Application app, String inSelector,
+      long inLimit) {
       // Copy GUI state that
       // doInBackground() depends on from parameters
       // to DrainQueueTask fields, here.
       super(app);
-      mCount = messageTableModel.getRowCount();
-      dqJmsTemplate = jmsTemplate;
+      // a connection of its own, cached consumers would keep prefetched
+      // messages from the other consumers
+      final DrainEngine engine = new DrainEngine(
+        jmsSetup.getConnectionFactory().getTargetConnectionFactory(),
+        jmsTemplate.getDefaultDestination()).configure(appProperties);
+      engine.setSelector(inSelector);
+      engine.setLimit(inLimit);
+      engines.add(engine);
+      limit = inLimit;
+      drainQueueMenuItem.setEnabled(false);
+      removeSelectedMenuItem.setEnabled(false);
+    }
+
+    DrainQueueTask(org.jdesktop.application.Application app,
+      Map<Queue, List<String>> inMessageIDs, int inCount) {
+      super(app);
+      for (Map.Entry<Queue, List<String>> entry : inMessageIDs.entrySet()) {
+        final DrainEngine engine = new DrainEngine(
+          jmsSetup.getConnectionFactory().getTargetConnectionFactory(),
+          entry.getKey() == null ? jmsTemplate.getDefaultDestination() : entry.getKey())
+          .configure(appProperties);
+        engine.setMessageIDs(entry.getValue());
+        engines.add(engine);
+      }
+      limit = inCount;
       drainQueueMenuItem.setEnabled(false);
+      removeSelectedMenuItem.setEnabled(false);
     }
 
     @Override
-    protected Object doInBackground() {
+    protected Object doInBackground() throws JMSException, InterruptedException {
       // Your Task's code here.  This method runs
       // on a background thread, so don't reference
       // the Swing GUI from here.
-      Integer i = 0;
-      while (i < mCount) {
-        dqJmsTemplate.receive();
-        i++;
+      long drained = 0;
+      for (int i = 0; i < engines.size() && !isCancelled(); i++) {
+        final long before = drained;
+        engines.get(i).setProgress(new DrainEngine.Progress() {
+          @Override
+          public void drained(long count, double perSecond) {
+            setMessage(String.format("Drained %d (%.0f msg/s)", before + count, perSecond));
+            if (limit > 0) {
+              setProgress(Math.min(before + count, limit), 0, limit);
+            }
+          }
+        });
+        drained += engines.get(i).run();
+      }
+      return drained;  // return your result
+    }
+
+    @Override
+    protected void cancelled() {
+      for (DrainEngine engine : engines) {
+        engine.cancel();
       }
-      return i;  // return your result
+    }
+
+    @Override
+    protected void finished() {
+      drainQueueMenuItem.setEnabled(true);
+      removeSelectedMenuItem.setEnabled(true);
     }
 
     @Override
     protected void succeeded(Object result) {
       // Update the GUI based on
       // the result computed by doInBackground().
-      drainQueueMenuItem.setEnabled(true);
       itemsDrainedTextField.setText(result.toString());
       queueDrainedDialog.setVisible(true);
     }
   }
 
+  /**
+   * Move the messages matching the current selector to another
+   * destination from the list.
+   *
+   * @return a TransferTask
+   */
+  @Action
+  public Task moveMessages() {
+    return transfer(false);
+  }
+
+  /**
+   * Copy the messages matching the current selector to another
+   * destination from the list, leaving them on this queue.
+   *
+   * @return a TransferTask
+   */
+  @Action
+  public Task copyMessages() {
+    return transfer(true);
+  }
+
+  private Task transfer(boolean copy) {
+    Task task = null;
+    String selector = getSelector();
+    List<String> targets = new ArrayList<>(destinationList);
+    targets.remove(getDestinationName());
+    if (targets.isEmpty()) {
+      statusMessageLabel.setText("No other destination to send to.");
+    } else if (checkSelector(selector)) {
+      Object target = JOptionPane.showInputDialog(getFrame(),
+        getResourceMap().getString(copy ? "copyTarget.message" : "moveTarget.message",
+          getDestinationName()),
+        getResourceMap().getString(copy ? "copyMessages.Action.text" : "moveMessages.Action.text"),
+        JOptionPane.QUESTION_MESSAGE, null, targets.toArray(), targets.get(0));
+      if (target != null) {
+        task = new TransferTask(getApplication(), selector, target.toString(), copy);
+      }
+    }
+    return task;
+  }
+
+  private class TransferTask extends org.jdesktop.application.Task<Long, Void> {
+
+    private final Destination source;
+    private final String selector;
+    private final String targetName;
+    private final boolean copy;
+    private volatile TransferEngine engine;
+
+    TransferTask(org.jdesktop.application.Application app, String inSelector,
+      String inTargetName, boolean inCopy) {
+      super(app);
+      source = jmsTemplate.getDefaultDestination();
+      selector = inSelector;
+      targetName = inTargetName;
+      copy = inCopy;
+      moveMenuItem.setEnabled(false);
+      copyMenuItem.setEnabled(false);
+    }
+
+    @Override
+    protected Long doInBackground()
+      throws JMSException, NamingException, InterruptedException {
+      // the target is looked up here, not on the EDT
+      final Destination target = (Destination) jmsSetup.lookup(targetName);
+      // a connection of its own, like DrainQueueTask
+      engine = new TransferEngine(jmsSetup.getConnectionFactory().getTargetConnectionFactory(),
+        source, target, copy).configure(appProperties);
+      engine.setSelector(selector);
+      if (isCancelled()) {
+        // cancelled during the lookup
+        engine.cancel();
+      }
+      final String verb = copy ? "Copied" : "Moved";
+      engine.setProgress(new DrainEngine.Progress() {
+        @Override
+        public void drained(long count, double perSecond) {
+          setMessage(String.format("%s %d (%.0f msg/s)", verb, count, perSecond));
+        }
+      });
+      return engine.run();
+    }
+
+    @Override
+    protected void cancelled() {
+      final TransferEngine running = engine;
+      if (running != null) {
+        running.cancel();
+      }
+    }
+
+    @Override
+    protected void finished() {
+      moveMenuItem.setEnabled(true);
+      copyMenuItem.setEnabled(true);
+    }
+
+    @Override
+    protected void succeeded(Long result) {
+      statusMessageLabel.setText((copy ? "Copied " : "Moved ") + result
+        + " messages to " + targetName);
+    }
+
+    @Override
+    protected void failed(Throwable cause) {
+      messageTextArea.setText(JTKException.formatException(cause));
+      statusMessageLabel.setText((copy ? "Copy" : "Move") + " to " + targetName + " failed");
+    }
+  }
+
+  /**
+   * Looks up the connection factory and destination the combo boxes start
+   * with and opens the connection, so the window shows at once however
+   * slow JNDI or the broker are. Browsing is enabled when it is done.
+   */
+  private class StartupTask extends org.jdesktop.application.Task<Long, Void> {
+
+    private final String factoryName;
+    private final String destinationName;
+    /** Looked up in the background, made the default on the EDT. */
+    private volatile Destination destination;
+
+    StartupTask(org.jdesktop.application.Application app) {
+      super(app);
+      factoryName = getSelected(connectionFactoryComboBox);
+      destinationName = getDestinationName();
+      setJmsActionsEnabled(false);
+      setMessage("Connecting to " + factoryName);
+    }
+
+    /**
+     * @return milliseconds from main to the connection being ready, -1 if
+     * there is no connection factory yet
+     */
+    @Override
+    protected Long doInBackground() throws NamingException, JMSException {
+      long ready = -1;
+      if (!destinationName.isEmpty() && !destinationChosen) {
+        destination = (Destination) jmsSetup.lookup(destinationName);
+      }
+      if (!factoryName.isEmpty()) {
+        if (!factoryChosen) {
+          jmsSetup.setConnectionFactory(factoryName);
+        }
+        // the shared connection stays open for the first browse
+        jmsSetup.getConnectionFactory().createConnection().close();
+        ready = QueueBrowserApp.millisSinceMain();
+        Timing.get().setConnectionReadyMillis(ready);
+      }
+      return ready;
+    }
+
+    @Override
+    protected void succeeded(Long ready) {
+      if (ready >= 0) {
+        setMessage("Connected to " + factoryName + ", " + ready + " ms after start");
+      }
+    }
+
+    @Override
+    protected void failed(Throwable cause) {
+      messageTextArea.setText(JTKException.formatException(cause));
+      statusMessageLabel.setText("Can not connect to " + factoryName);
+    }
+
+    @Override
+    protected void finished() {
+      // here on the EDT, so no SelectTask can apply a choice in between;
+      // a choice made while starting up wins
+      if (destination != null && !destinationChosen) {
+        jmsTemplate.setDefaultDestination(destination);
+      }
+      setJmsActionsEnabled(true);
+    }
+  }
+
+  /**
+   * Enable or disable every action that needs the connection factory or
+   * the default destination, which StartupTask sets up.
+   */
+  private void setJmsActionsEnabled(boolean inEnabled) {
+    browseButton.setEnabled(inEnabled);
+    browseAllMenuItem.setEnabled(inEnabled);
+    drainQueueMenuItem.setEnabled(inEnabled);
+    removeSelectedMenuItem.setEnabled(inEnabled);
+    moveMenuItem.setEnabled(inEnabled);
+    copyMenuItem.setEnabled(inEnabled);
+    exportMenuItem.setEnabled(inEnabled);
+    replayMenuItem.setEnabled(inEnabled);
+    sampleDepthMenuItem.setEnabled(inEnabled);
+  }
+
+  /**
+   * Looks up a chosen connection factory or destination off the EDT, as
+   * a JNDI lookup can take most of a second, and makes it current if it
+   * is still the one chosen when the lookup is done. Names prefetched at
+   * startup come straight from the cache.
+   */
+  private class SelectTask extends org.jdesktop.application.Task<Object, Void> {
+
+    private final String name;
+    private final boolean factory;
+
+    SelectTask(org.jdesktop.application.Application app, String inName,
+      boolean inFactory) {
+      super(app);
+      name = inName;
+      factory = inFactory;
+      setMessage("Looking up " + inName);
+    }
+
+    @Override
+    protected Object doInBackground() throws NamingException {
+      return jmsSetup.lookup(name);
+    }
+
+    @Override
+    protected void succeeded(Object result) {
+      if (factory) {
+        if (name.equals(getSelected(connectionFactoryComboBox))) {
+          jmsSetup.setConnectionFactory(name, (ConnectionFactory) result);
+        }
+      } else if (name.equals(getDestinationName())) {
+        jmsTemplate.setDefaultDestination((Destination) result);
+        if (depthSampler.isRunning()) {
+          sampleDepth();
+        }
+      }
+    }
+
+    @Override
+    protected void failed(Throwable cause) {
+      messageTextArea.setText(JTKException.formatException(cause));
+      statusMessageLabel.setText("Can not look up " + name);
+    }
+  }
+
+  /**
+   * Browse the queue again, with the current selector, straight into an
+   * NDJSON or CSV file picked by the user. Nothing is added to the table,
+   * so queues of any size can be exported.
+   *
+   * @return an ExportQueueTask
+   */
+  @Action
+  public Task exportQueue() {
+    Task task = null;
+    String selector = getSelector();
+    if (checkSelector(selector)) {
+      JFileChooser chooser = new JFileChooser();
+      chooser.setSelectedFile(new File("messages.ndjson"));
+      if (chooser.showSaveDialog(getFrame()) == JFileChooser.APPROVE_OPTION) {
+        task = new ExportQueueTask(getApplication(), selector,
+          chooser.getSelectedFile());
+      }
+    }
+    return task;
+  }
+
+  private class ExportQueueTask extends org.jdesktop.application.Task<Long, Void> {
+
+    private final boolean headersOnly;
+    private final String selector;
+    private final File file;
+
+    ExportQueueTask(org.jdesktop.application.Application app, String inSelector,
+      File inFile) {
+      super(app);
+      headersOnly = headersOnlyMenuItem.isSelected();
+      selector = inSelector;
+      file = inFile;
+      exportMenuItem.setEnabled(false);
+    }
+
+    @Override
+    protected Long doInBackground() throws IOException {
+      final String name = file.getName();
+      try (MessageExporter exporter = new MessageExporter(file.toPath(),
+        MessageExporter.Format.forFileName(name),
+        name.toLowerCase(Locale.ROOT).endsWith(".gz"))) {
+        BrowserCallback<Long> callback = new BrowserCallback<Long>() {
+          @Override
+          public Long doInJms(Session session, QueueBrowser browser)
+            throws JMSException {
+            Enumeration messageEnumerator = browser.getEnumeration();
+            try {
+              while (messageEnumerator.hasMoreElements() && !isCancelled()) {
+                exporter.write(MessageTableRecord.fromMessage(
+                  (Message) messageEnumerator.nextElement(), headersOnly));
+                if (exporter.getCount() % BROWSE_CHUNK_SIZE == 0) {
+                  setMessage("Exported: " + exporter.getCount());
+                }
+              }
+            } catch (IOException e) {
+              JMSException jmse = new JMSException(e.getMessage());
+              jmse.setLinkedException(e);
+              throw jmse;
+            }
+            return exporter.getCount();
+          }
+        };
+        return selector.isEmpty()
+          ? jmsTemplate.browse(callback)
+          : jmsTemplate.browseSelected(selector, callback);
+      }
+    }
+
+    @Override
+    protected void finished() {
+      exportMenuItem.setEnabled(true);
+    }
+
+    @Override
+    protected void succeeded(Long result) {
+      statusMessageLabel.setText("Exported " + result + " messages to " + file.getName());
+    }
+  }
+
+  /**
+   * Send the messages of an export or snapshot file to the selected
+   * destination, paced as the user asks.
+   *
+   * @return a ReplayTask
+   */
+  @Action
+  public Task replayMessages() {
+    Task task = null;
+    JFileChooser chooser = new JFileChooser();
+    if (chooser.showOpenDialog(getFrame()) == JFileChooser.APPROVE_OPTION) {
+      String answer = JOptionPane.showInputDialog(getFrame(),
+        getResourceMap().getString("replayPacing.message", getDestinationName()), "max");
+      if (answer != null) {
+        String pacing = answer.trim().toLowerCase(Locale.ROOT);
+        try {
+          task = new ReplayTask(getApplication(), chooser.getSelectedFile(),
+            "original".equals(pacing) || "max".equals(pacing) ? pacing
+              : Double.toString(Double.parseDouble(pacing)));
+        } catch (NumberFormatException e) {
+          statusMessageLabel.setText("Not a number: " + answer);
+        }
+      }
+    }
+    return task;
+  }
+
+  private class ReplayTask extends org.jdesktop.application.Task<ReplayEngine.Result, Void> {
+
+    private final ReplayEngine engine;
+    private final File file;
+
+    ReplayTask(org.jdesktop.application.Application app, File inFile,
+      String inPacing) {
+      super(app);
+      // a connection of its own, the replay would otherwise resize the
+      // session cache the browser shares
+      engine = new ReplayEngine(jmsSetup.getConnectionFactory().getTargetConnectionFactory(),
+        jmsTemplate.getDefaultDestination()).configure(appProperties);
+      if ("original".equals(inPacing)) {
+        engine.setPacing(ReplayEngine.Pacing.ORIGINAL);
+      } else if (!"max".equals(inPacing)) {
+        engine.setPacing(ReplayEngine.Pacing.FIXED_RATE);
+        engine.setRate(Double.parseDouble(inPacing));
+      }
+      file = inFile;
+      replayMenuItem.setEnabled(false);
+    }
+
+    @Override
+    protected ReplayEngine.Result doInBackground()
+      throws IOException, JMSException, InterruptedException {
+      engine.setProgress(new ReplayEngine.Progress() {
+        @Override
+        public void replayed(long count, long total, double perSecond) {
+          setMessage(String.format("Replayed %d (%.0f msg/s)", count, perSecond));
+          if (total > 0) {
+            setProgress(Math.min(count, total), 0, total);
+          }
+        }
+      });
+      try (MessageImporter importer = new MessageImporter(file.toPath())) {
+        return engine.run(importer);
+      }
+    }
+
+    @Override
+    protected void cancelled() {
+      engine.cancel();
+    }
+
+    @Override
+    protected void finished() {
+      replayMenuItem.setEnabled(true);
+    }
+
+    @Override
+    protected void succeeded(ReplayEngine.Result result) {
+      statusMessageLabel.setText("Replayed " + result);
+    }
+  }
+
+  /**
+   * Start or stop sampling the depth of the selected destination, shown
+   * in the status bar.
+   */
+  @Action
+  public void sampleDepth() {
+    depthSampler.clear();
+    Destination destination = jmsTemplate.getDefaultDestination();
+    final String name = getDestinationName();
+    if (sampleDepthMenuItem.isSelected() && !name.isEmpty()
+      && destination instanceof Queue) {
+      depthSampler.setListener(new DepthSampler.Listener() {
+        @Override
+        public void sampled(final String sampled, final DepthSampler.Stats stats) {
+          SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              if (depthSampler.isRunning() && sampled.equals(name)) {
+                depthLabel.setText(stats.toString());
+              }
+            }
+          });
+        }
+      });
+      depthLabel.setText("");
+      depthSampler.addQueue(name, (Queue) destination);
+      depthSampler.start();
+    } else {
+      depthSampler.stop();
+      depthLabel.setText("");
+      if (sampleDepthMenuItem.isSelected()) {
+        statusMessageLabel.setText(name.isEmpty() ? "No destination is selected."
+          : "Only queues can be sampled.");
+      }
+    }
+  }
+
   /**
    *
    */
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import java.util.Enumeration;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * DrainEngine against an ActiveMQ broker in this JVM. The prefetch is as
+ * large as the queue, so the first consumer gets every message and the
+ * others time out while it still holds them.
+ *
+ * @author Scott Douglass
+ */
+public class DrainEngineTest {
+
+  private static final int MESSAGES = 1000;
+  private BrokerService broker;
+  private ActiveMQConnectionFactory connectionFactory;
+  private Queue queue;
+
+  @Before
+  public void setUp() throws Exception {
+    broker = new BrokerService();
+    broker.setBrokerName("DrainEngineTest");
+    broker.setPersistent(false);
+    broker.setUseJmx(false);
+    broker.start();
+    broker.waitUntilStarted();
+    connectionFactory = new ActiveMQConnectionFactory("vm://DrainEngineTest?create=false");
+    connectionFactory.getPrefetchPolicy().setQueuePrefetch(MESSAGES);
+    final Connection connection = connectionFactory.createConnection();
+    try {
+      final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+      queue = session.createQueue("drain.test");
+      final MessageProducer producer = session.createProducer(queue);
+      for (int i = 0; i < MESSAGES; i++) {
+        producer.send(session.createTextMessage("message " + i));
+      }
+    } finally {
+      connection.close();
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    broker.stop();
+    broker.waitUntilStopped();
+  }
+
+  @Test
+  public void removesExactlyTheLimitTransacted() throws Exception {
+    assertRemovesExactly(333, true);
+  }
+
+  @Test
+  public void removesExactlyTheLimitClientAcknowledge() throws Exception {
+    assertRemovesExactly(333, false);
+  }
+
+  @Test
+  public void removesEverythingBelowTheLimit() throws Exception {
+    final DrainEngine engine = engine(true);
+    engine.setLimit(MESSAGES + 100);
+    assertEquals(MESSAGES, engine.run());
+    assertEquals(0, depth());
+  }
+
+  private void assertRemovesExactly(int limit, boolean transacted) throws Exception {
+    final DrainEngine engine = engine(transacted);
+    engine.setLimit(limit);
+    assertEquals(limit, engine.run());
+    assertEquals(MESSAGES - limit, depth());
+  }
+
+  private DrainEngine engine(boolean transacted) {
+    final DrainEngine engine = new DrainEngine(connectionFactory, queue);
+    engine.setConsumers(4);
+    engine.setBatchSize(7);
+    engine.setReceiveTimeout(300);
+    engine.setTransacted(transacted);
+    return engine;
+  }
+
+  private int depth() throws JMSException {
+    int result = 0;
+    final Connection connection = connectionFactory.createConnection();
+    try {
+      connection.start();
+      final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+      final QueueBrowser browser = session.createBrowser(queue);
+      final Enumeration<?> messages = browser.getEnumeration();
+      while (messages.hasMoreElements()) {
+        messages.nextElement();
+        result++;
+      }
+    } finally {
+      connection.close();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import com.jmstoolkit.beans.MessageTableRecord;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import javax.jms.JMSException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MessageExporter output read back by MessageImporter, in every format.
+ *
+ * @author Scott Douglass
+ */
+public class MessageExportImportTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void ndjson() throws Exception {
+    assertRoundTrip("capture.ndjson", MessageExporter.Format.NDJSON, false);
+  }
+
+  @Test
+  public void ndjsonGzip() throws Exception {
+    assertRoundTrip("capture.ndjson.gz", MessageExporter.Format.NDJSON, true);
+  }
+
+  @Test
+  public void csv() throws Exception {
+    assertRoundTrip("capture.csv", MessageExporter.Format.CSV, false);
+  }
+
+  @Test
+  public void csvGzip() throws Exception {
+    assertRoundTrip("capture.csv.gz", MessageExporter.Format.CSV, true);
+  }
+
+  @Test
+  public void objectBodiesAreNotLoaded() throws Exception {
+    final Path file = folder.getRoot().toPath().resolve("objects.csv");
+    final MessageTableRecord record = record("ID:object", "", "");
+    record.setText(null);
+    record.setObject(Integer.valueOf(42));
+    try (MessageExporter exporter = new MessageExporter(file, MessageExporter.Format.CSV, false)) {
+      exporter.write(record);
+    }
+    try (MessageImporter importer = new MessageImporter(file)) {
+      final MessageTableRecord read = importer.next();
+      assertEquals("42", read.getText());
+      assertFalse(read.isBodyLoaded());
+      assertNull(importer.next());
+    }
+  }
+
+  private void assertRoundTrip(String name, MessageExporter.Format format,
+    boolean compress) throws Exception {
+    final List<MessageTableRecord> records = new ArrayList<>();
+    records.add(record("ID:1", "plain text", "type"));
+    records.add(record("ID:2", "", ""));
+    records.add(record("ID:3", "lines\r\nwith \"quotes\", commas\rand\n\nbreaks\r\n", null));
+    records.add(record(null, null, null));
+    final MessageTableRecord preview = record("ID:5", "cut", "type");
+    preview.setBodyLoaded(false);
+    records.add(preview);
+    final Path file = folder.getRoot().toPath().resolve(name);
+    try (MessageExporter exporter = new MessageExporter(file, format, compress)) {
+      for (MessageTableRecord record : records) {
+        exporter.write(record);
+      }
+    }
+    try (MessageImporter importer = new MessageImporter(file)) {
+      for (MessageTableRecord expected : records) {
+        assertSame(expected, importer.next());
+      }
+      assertNull(importer.next());
+    }
+  }
+
+  private static MessageTableRecord record(String messageID, String text,
+    String type) throws JMSException {
+    final MessageTableRecord record = new MessageTableRecord();
+    record.setJMSMessageID(messageID);
+    record.setJMSTimestamp(1300000000000L);
+    record.setJMSCorrelationID(text == null ? null : "corr" + text);
+    record.setJMSType(type);
+    record.setJMSPriority(7);
+    record.setJMSDeliveryMode(1);
+    record.setJMSExpiration(1300000060000L);
+    record.setJMSRedelivered(true);
+    final Properties properties = new Properties();
+    if (text != null) {
+      properties.put("key", text);
+    }
+    record.setProperties(properties);
+    record.setText(text);
+    return record;
+  }
+
+  private static void assertSame(MessageTableRecord expected,
+    MessageTableRecord actual) throws JMSException {
+    assertEquals(expected.getJMSMessageID(), actual.getJMSMessageID());
+    assertEquals(expected.getJMSTimestamp(), actual.getJMSTimestamp());
+    assertEquals(expected.getJMSCorrelationID(), actual.getJMSCorrelationID());
+    assertEquals(expected.getJMSType(), actual.getJMSType());
+    assertEquals(expected.getJMSPriority(), actual.getJMSPriority());
+    assertEquals(expected.getJMSDeliveryMode(), actual.getJMSDeliveryMode());
+    assertEquals(expected.getJMSExpiration(), actual.getJMSExpiration());
+    assertTrue(actual.getJMSRedelivered());
+    assertEquals(expected.getProperties(), actual.getProperties());
+    assertEquals(expected.getText(), actual.getText());
+    assertEquals(expected.isBodyLoaded(), actual.isBodyLoaded());
+  }
+}
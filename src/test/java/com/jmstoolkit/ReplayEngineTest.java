@@ -0,0 +1,207 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import com.jmstoolkit.beans.MessageTableRecord;
+import com.jmstoolkit.beans.SnapshotWriter;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.ObjectMessage;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ReplayEngine sending exported and snapshot captures to an ActiveMQ
+ * broker in this JVM.
+ *
+ * @author Scott Douglass
+ */
+public class ReplayEngineTest {
+
+  private static final int MESSAGES = 200;
+  private BrokerService broker;
+  private ActiveMQConnectionFactory connectionFactory;
+  private Queue queue;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void setUp() throws Exception {
+    broker = new BrokerService();
+    broker.setBrokerName("ReplayEngineTest");
+    broker.setPersistent(false);
+    broker.setUseJmx(false);
+    broker.start();
+    broker.waitUntilStarted();
+    connectionFactory = new ActiveMQConnectionFactory("vm://ReplayEngineTest?create=false");
+    connectionFactory.setTrustAllPackages(true);
+    queue = new ActiveMQQueue("replay.test");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    broker.stop();
+    broker.waitUntilStopped();
+  }
+
+  @Test
+  public void replaysAnExportSkippingBodiesItDoesNotHave() throws Exception {
+    final Path file = folder.getRoot().toPath().resolve("capture.ndjson.gz");
+    try (MessageExporter exporter = new MessageExporter(file,
+      MessageExporter.Format.NDJSON, true)) {
+      for (int i = 0; i < MESSAGES; i++) {
+        exporter.write(record(i));
+      }
+      final MessageTableRecord preview = record(MESSAGES);
+      preview.setBodyLoaded(false);
+      exporter.write(preview);
+      final MessageTableRecord object = record(MESSAGES + 1);
+      object.setText(null);
+      object.setObject(Integer.valueOf(42));
+      exporter.write(object);
+    }
+    final ReplayEngine.Result result = replay(file);
+    assertEquals(MESSAGES, result.getCount());
+    assertEquals(2, result.getSkipped());
+    final Map<String, Message> received = receive(MESSAGES);
+    for (int i = 0; i < MESSAGES; i++) {
+      final TextMessage message = (TextMessage) received.get("body " + i);
+      assertEquals("corr" + i, message.getJMSCorrelationID());
+      assertEquals("type" + (i % 3), message.getJMSType());
+      assertEquals("n" + i, message.getStringProperty("number"));
+      assertEquals("g" + (i % 2), message.getStringProperty("JMSXGroupID"));
+    }
+  }
+
+  @Test
+  public void replaysObjectBodiesFromASnapshot() throws Exception {
+    final Path file = folder.getRoot().toPath().resolve("capture.jtks");
+    try (SnapshotWriter writer = new SnapshotWriter(file, "replay.test")) {
+      final MessageTableRecord allowed = record(0);
+      allowed.setText(null);
+      allowed.setObject(Long.valueOf(7));
+      writer.write(allowed);
+      final MessageTableRecord refused = record(1);
+      refused.setText(null);
+      refused.setObject(new Payload());
+      writer.write(refused);
+      writer.write(record(2));
+    }
+    final ReplayEngine.Result result = replay(file);
+    assertEquals(2, result.getCount());
+    assertEquals(1, result.getSkipped());
+    final Map<String, Message> received = receive(2);
+    assertEquals(Long.valueOf(7), ((ObjectMessage) received.get("7")).getObject());
+    assertTrue(received.get("body 2") instanceof TextMessage);
+  }
+
+  @Test
+  public void keepsToAFixedRate() throws Exception {
+    final Path file = folder.getRoot().toPath().resolve("rate.csv");
+    try (MessageExporter exporter = new MessageExporter(file,
+      MessageExporter.Format.CSV, false)) {
+      for (int i = 0; i < 21; i++) {
+        exporter.write(record(i));
+      }
+    }
+    final ReplayEngine engine = new ReplayEngine(connectionFactory, queue);
+    engine.setPacing(ReplayEngine.Pacing.FIXED_RATE);
+    engine.setRate(100);
+    final long started = System.currentTimeMillis();
+    try (MessageImporter importer = new MessageImporter(file)) {
+      assertEquals(21, engine.run(importer).getCount());
+    }
+    // the 21st message is due 200 ms after the first
+    assertTrue(System.currentTimeMillis() - started >= 190);
+    receive(21);
+  }
+
+  private ReplayEngine.Result replay(Path file) throws Exception {
+    final ReplayEngine engine = new ReplayEngine(connectionFactory, queue);
+    engine.setProducers(3);
+    try (MessageImporter importer = new MessageImporter(file)) {
+      return engine.run(importer);
+    }
+  }
+
+  /**
+   * Every message on the queue, by text or object, and no more than
+   * expected.
+   */
+  private Map<String, Message> receive(int expected) throws JMSException {
+    final Map<String, Message> received = new HashMap<>();
+    final Connection connection = connectionFactory.createConnection();
+    try {
+      connection.start();
+      final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+      final MessageConsumer consumer = session.createConsumer(queue);
+      for (int i = 0; i < expected; i++) {
+        final Message message = consumer.receive(5000);
+        received.put(message instanceof TextMessage ? ((TextMessage) message).getText()
+          : String.valueOf(((ObjectMessage) message).getObject()), message);
+      }
+      assertNull(consumer.receive(100));
+    } finally {
+      connection.close();
+    }
+    assertEquals(expected, received.size());
+    return received;
+  }
+
+  private static MessageTableRecord record(int number) throws JMSException {
+    final MessageTableRecord record = new MessageTableRecord();
+    record.setJMSMessageID("ID:" + number);
+    record.setJMSTimestamp(1300000000000L + number);
+    record.setJMSCorrelationID("corr" + number);
+    record.setJMSType("type" + (number % 3));
+    record.setJMSPriority(4);
+    record.setJMSDeliveryMode(1);
+    final Properties properties = new Properties();
+    properties.put("number", "n" + number);
+    properties.put("JMSXGroupID", "g" + (number % 2));
+    properties.put("JMSXDeliveryCount", "3");
+    record.setProperties(properties);
+    record.setText("body " + number);
+    return record;
+  }
+
+  /**
+   * Serializable, but not a class a message body may be read back as.
+   */
+  static final class Payload implements Serializable {
+    private static final long serialVersionUID = 1L;
+  }
+}
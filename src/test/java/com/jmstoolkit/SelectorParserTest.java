@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit;
+
+import javax.jms.InvalidSelectorException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * SelectorParser against valid and broken selectors.
+ *
+ * @author Scott Douglass
+ */
+public class SelectorParserTest {
+
+  @Test
+  public void acceptsEmptySelectors() {
+    assertTrue(SelectorParser.isValid(null));
+    assertTrue(SelectorParser.isValid(""));
+    assertTrue(SelectorParser.isValid("   "));
+  }
+
+  @Test
+  public void acceptsTheJmsSyntax() {
+    final String[] selectors = {
+      "JMSPriority > 4",
+      "JMSType = 'order' AND region <> 'EU'",
+      "NOT (a = 1 OR b = 2) and c >= 3",
+      "amount * 1.5e2 + 7 / -x <= 0x1F",
+      "weight BETWEEN 1 AND 10",
+      "weight NOT BETWEEN .5 AND 10.25d",
+      "country IN ('UK', 'US', 'it''s')",
+      "country NOT IN ('FR')",
+      "name LIKE 'a\\_%' ESCAPE '\\'",
+      "name NOT LIKE '%x%'",
+      "comment IS NULL",
+      "comment IS NOT NULL",
+      "flag = TRUE OR flag = false",
+      "JMSXGroupID = 'g1'"
+    };
+    for (String selector : selectors) {
+      assertTrue(selector, SelectorParser.isValid(selector));
+    }
+  }
+
+  @Test
+  public void refusesBrokenSelectors() {
+    final String[] selectors = {
+      "JMSPriority >",
+      "a = 1 AND",
+      "(a = 1",
+      "a = 1)",
+      "a == 1",
+      "a NOT = 1",
+      "a IN (1, 2)",
+      "a IN 'x'",
+      "a LIKE b",
+      "a IS 1",
+      "a BETWEEN 1",
+      "a = 'unterminated",
+      "a = 1 # comment",
+      "AND = 1",
+      "a b"
+    };
+    for (String selector : selectors) {
+      assertFalse(selector, SelectorParser.isValid(selector));
+    }
+  }
+
+  @Test
+  public void reportsWhereTheErrorIs() {
+    assertError("a = 1 AND", "Invalid selector at position 10: expected"
+      + " identifier or literal, found end of selector");
+    assertError("a == 1", "Invalid selector at position 4: expected"
+      + " identifier or literal, found =");
+    assertError("a = 'x", "Invalid selector at position 5: unterminated string literal");
+    assertError("x IN ('a' 'b')", "Invalid selector at position 11: expected ), found 'b'");
+  }
+
+  private static void assertError(String selector, String message) {
+    try {
+      SelectorParser.validate(selector);
+      fail(selector);
+    } catch (InvalidSelectorException e) {
+      assertEquals(message, e.getMessage());
+    }
+  }
+}
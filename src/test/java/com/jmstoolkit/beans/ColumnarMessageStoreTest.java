@@ -0,0 +1,237 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Properties;
+import javax.jms.JMSException;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ColumnarMessageStore rows across chunk boundaries, records rebuilt from
+ * the columns, and the ring made by removing rows from the front.
+ *
+ * @author Scott Douglass
+ */
+public class ColumnarMessageStoreTest {
+
+  private static final int ROWS = ColumnarMessageStore.CHUNK_SIZE * 2 + 17;
+
+  @Test
+  public void readsEveryRowAcrossChunks() throws Exception {
+    final ColumnarMessageStore store = new ColumnarMessageStore();
+    long bytes = 0;
+    for (int i = 0; i < ROWS; i++) {
+      final MessageTableRecord record = record(i);
+      store.add(record);
+      bytes += ColumnarMessageStore.estimateSize(record);
+    }
+    assertEquals(ROWS, store.size());
+    assertEquals(bytes, store.getBytes());
+    for (int i = 0; i < ROWS; i++) {
+      assertRow(store, i, i);
+    }
+  }
+
+  @Test
+  public void rebuildsTheRecord() throws Exception {
+    final ColumnarMessageStore store = new ColumnarMessageStore();
+    final MessageTableRecord record = record(5);
+    record.setJMSCorrelationIDAsBytes(new byte[]{1, 2, 3});
+    record.setJMSReplyTo(new ActiveMQQueue("reply"));
+    record.setBodyLoaded(false);
+    store.add(record);
+    final MessageTableRecord rebuilt = store.getRecord(0);
+    assertEquals(record.getJMSMessageID(), rebuilt.getJMSMessageID());
+    assertEquals(record.getJMSTimestamp(), rebuilt.getJMSTimestamp());
+    assertEquals(record.getJMSExpiration(), rebuilt.getJMSExpiration());
+    assertEquals(record.getJMSPriority(), rebuilt.getJMSPriority());
+    assertEquals(record.getJMSDeliveryMode(), rebuilt.getJMSDeliveryMode());
+    assertEquals(record.getJMSRedelivered(), rebuilt.getJMSRedelivered());
+    assertEquals(record.getJMSCorrelationID(), rebuilt.getJMSCorrelationID());
+    assertEquals(record.getJMSType(), rebuilt.getJMSType());
+    assertEquals(record.getText(), rebuilt.getText());
+    assertArrayEquals(new byte[]{1, 2, 3}, rebuilt.getJMSCorrelationIDAsBytes());
+    assertEquals(record.getJMSDestination(), rebuilt.getJMSDestination());
+    assertEquals(new ActiveMQQueue("reply"), rebuilt.getJMSReplyTo());
+    assertEquals(record.getProperties(), rebuilt.getProperties());
+    assertFalse(rebuilt.isBodyLoaded());
+  }
+
+  @Test
+  public void setBodyReplacesTheTextAndSize() throws Exception {
+    final ColumnarMessageStore store = new ColumnarMessageStore();
+    final MessageTableRecord preview = record(1);
+    preview.setBodyLoaded(false);
+    store.add(preview);
+    final MessageTableRecord full = record(1);
+    full.setText("a much longer body than the preview was");
+    store.setBody(0, full);
+    assertEquals(full.getText(), store.getText(0));
+    assertTrue(store.isBodyLoaded(0));
+    assertEquals(ColumnarMessageStore.estimateSize(full), store.getBytes());
+  }
+
+  @Test
+  public void internsRepeatedTypes() throws Exception {
+    final ColumnarMessageStore store = new ColumnarMessageStore();
+    store.add(record(2));
+    store.add(record(4));
+    assertEquals(store.getType(0), store.getType(1));
+    assertSame(store.getType(0), store.getType(1));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void refusesRowsPastTheEnd() throws Exception {
+    final ColumnarMessageStore store = new ColumnarMessageStore();
+    store.add(record(0));
+    store.getMessageID(1);
+  }
+
+  @Test
+  public void removeFirstShiftsTheRows() throws Exception {
+    final ColumnarMessageStore store = filled(ROWS);
+    store.removeFirst(10);
+    assertRow(store, 0, 10);
+    // past the first chunk boundary
+    store.removeFirst(ColumnarMessageStore.CHUNK_SIZE);
+    assertEquals(ROWS - 10 - ColumnarMessageStore.CHUNK_SIZE, store.size());
+    for (int row = 0; row < store.size(); row++) {
+      assertRow(store, row, row + 10 + ColumnarMessageStore.CHUNK_SIZE);
+    }
+    assertEquals(bytes(store), store.getBytes());
+  }
+
+  @Test
+  public void removeFirstOfEverythingEmptiesTheStore() throws Exception {
+    final ColumnarMessageStore store = filled(100);
+    store.removeFirst(100);
+    assertEquals(0, store.size());
+    assertEquals(0, store.getBytes());
+    store.add(record(100));
+    assertRow(store, 0, 100);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void refusesToRemoveMoreThanStored() throws Exception {
+    filled(3).removeFirst(4);
+  }
+
+  @Test
+  public void recyclesEvictedChunks() throws Exception {
+    final ColumnarMessageStore store = filled(ColumnarMessageStore.CHUNK_SIZE + 1);
+    assertNull(field(store, "spare"));
+    final Object firstChunk = chunks(store).get(0);
+    store.removeFirst(ColumnarMessageStore.CHUNK_SIZE);
+    assertSame(firstChunk, field(store, "spare"));
+    // fill the second chunk, the next row needs a new one
+    int number = ColumnarMessageStore.CHUNK_SIZE + 1;
+    while (store.size() < ColumnarMessageStore.CHUNK_SIZE) {
+      store.add(record(number++));
+    }
+    assertNotNull(field(store, "spare"));
+    store.add(record(number++));
+    assertNull(field(store, "spare"));
+    assertSame(firstChunk, chunks(store).get(1));
+    for (int row = 0; row < store.size(); row++) {
+      assertRow(store, row, row + ColumnarMessageStore.CHUNK_SIZE);
+    }
+  }
+
+  @Test
+  public void keepsAConstantFootprintWhenTrimmedAsItGrows() throws Exception {
+    final ColumnarMessageStore store = new ColumnarMessageStore();
+    final int keep = ColumnarMessageStore.CHUNK_SIZE / 2 + 3;
+    for (int number = 0; number < ColumnarMessageStore.CHUNK_SIZE * 5; number++) {
+      store.add(record(number));
+      if (store.size() > keep) {
+        store.removeFirst(store.size() - keep);
+      }
+      assertTrue(chunks(store).size() <= 2);
+    }
+    final int last = ColumnarMessageStore.CHUNK_SIZE * 5 - 1;
+    for (int row = 0; row < keep; row++) {
+      assertRow(store, row, last - keep + 1 + row);
+    }
+    assertEquals(bytes(store), store.getBytes());
+  }
+
+  private static ColumnarMessageStore filled(int rows) throws JMSException {
+    final ColumnarMessageStore store = new ColumnarMessageStore();
+    for (int i = 0; i < rows; i++) {
+      store.add(record(i));
+    }
+    return store;
+  }
+
+  private static long bytes(ColumnarMessageStore store) {
+    long result = 0;
+    for (int row = 0; row < store.size(); row++) {
+      result += store.getBytes(row);
+    }
+    return result;
+  }
+
+  private static Object field(ColumnarMessageStore store, String name) throws Exception {
+    final Field field = ColumnarMessageStore.class.getDeclaredField(name);
+    field.setAccessible(true);
+    return field.get(store);
+  }
+
+  private static List<?> chunks(ColumnarMessageStore store) throws Exception {
+    return (List<?>) field(store, "chunks");
+  }
+
+  static MessageTableRecord record(int number) throws JMSException {
+    final MessageTableRecord record = new MessageTableRecord();
+    record.setJMSMessageID("ID:" + number);
+    record.setJMSTimestamp(1300000000000L + number);
+    record.setJMSExpiration(number % 3);
+    record.setJMSPriority(number % 10);
+    record.setJMSDeliveryMode(number % 2 + 1);
+    record.setJMSRedelivered(number % 5 == 0);
+    record.setJMSCorrelationID("corr" + (number % 7));
+    // a new String each time, so interning is what makes them the same
+    record.setJMSType(new String("type" + (number % 2)));
+    record.setJMSDestination(new ActiveMQQueue("store.test"));
+    final Properties properties = new Properties();
+    properties.put("number", Integer.toString(number));
+    record.setProperties(properties);
+    record.setText("body " + number);
+    return record;
+  }
+
+  static void assertRow(ColumnarMessageStore store, int row, int number) {
+    assertEquals("ID:" + number, store.getMessageID(row));
+    assertEquals(1300000000000L + number, store.getTimestamp(row));
+    assertEquals(number % 3, store.getExpiration(row));
+    assertEquals(number % 10, store.getPriority(row));
+    assertEquals(number % 2 + 1, store.getDeliveryMode(row));
+    assertEquals("corr" + (number % 7), store.getCorrelationID(row));
+    assertEquals("body " + number, store.getText(row));
+    assertEquals(Integer.toString(number), store.getProperties(row).get("number"));
+    assertTrue(store.isBodyLoaded(row));
+  }
+}
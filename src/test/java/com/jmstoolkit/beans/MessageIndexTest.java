@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Properties;
+import javax.jms.JMSException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * MessageIndex postings and AND, OR and prefix queries.
+ *
+ * @author Scott Douglass
+ */
+public class MessageIndexTest {
+
+  private MessageIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    index = new MessageIndex();
+    index.add(0, record("ID:a", "Order 1234 shipped", "region", "EU"));
+    index.add(1, record("ID:b", "order 5678 cancelled", "region", "US"));
+    index.add(2, record("ID:c", "Invoice 1234 paid", "region", "EU"));
+    index.add(3, record("ID:d", "invoices-overdue", null, null));
+  }
+
+  @Test
+  public void matchesWordsCaseInsensitively() {
+    assertRows(index.search("ORDER"), 0, 1);
+    assertRows(index.search("shipped"), 0);
+    assertRows(index.search("ship"));
+  }
+
+  @Test
+  public void indexesHeadersAndProperties() {
+    assertRows(index.search("region"), 0, 1, 2);
+    assertRows(index.search("eu"), 0, 2);
+    assertRows(index.search("ID:c"), 2);
+  }
+
+  @Test
+  public void allWordsMustMatch() {
+    assertRows(index.search("order 1234"), 0);
+    assertRows(index.search("  1234   eu  "), 0, 2);
+    assertRows(index.search("order paid"));
+  }
+
+  @Test
+  public void anyGroupMayMatchWithOr() {
+    assertRows(index.search("shipped OR paid"), 0, 2);
+    assertRows(index.search("order 1234 OR us"), 0, 1);
+    // lower case or is a word like any other
+    assertRows(index.search("shipped or paid"));
+  }
+
+  @Test
+  public void prefixesMatchEveryWordStartingWithThem() {
+    assertRows(index.search("invoice*"), 2, 3);
+    assertRows(index.search("ord* 56*"), 1);
+    assertRows(index.search("overdue OR can*"), 1, 3);
+    assertRows(index.search("x*"));
+  }
+
+  @Test
+  public void splitsQueryWordsLikeText() {
+    // "invoices-overdue" is two words, both must match
+    assertRows(index.search("invoices-overdue"), 3);
+    assertRows(index.search("invoices-paid"));
+  }
+
+  @Test
+  public void emptyQueriesMatchNothing() {
+    assertRows(index.search(""));
+    assertRows(index.search("OR"));
+    assertRows(index.search("*"));
+  }
+
+  @Test
+  public void keepsLargeGapsBetweenRows() throws Exception {
+    final MessageIndex sparse = new MessageIndex();
+    final int[] rows = {0, 1, 127, 128, 16383, 16384, 2097152, 300000000};
+    for (int row : rows) {
+      sparse.add(row, record("ID:" + row, "common", null, null));
+      // the same row twice is only posted once
+      sparse.add(row, record("ID:" + row, "common", null, null));
+    }
+    assertRows(sparse.search("common"), rows);
+    assertEquals(300000001, sparse.getDocumentCount());
+  }
+
+  @Test
+  public void cutsLongWordsAndClears() throws Exception {
+    final char[] word = new char[100];
+    Arrays.fill(word, 'w');
+    index.add(4, record("ID:e", new String(word), null, null));
+    assertEquals(64, MessageIndex.tokenize(new String(word)).get(0).length());
+    assertRows(index.search(new String(word)), 4);
+    index.clear();
+    assertEquals(0, index.getTermCount());
+    assertEquals(0, index.getDocumentCount());
+    assertRows(index.search("order"));
+  }
+
+  private static MessageTableRecord record(String messageID, String text,
+    String name, String value) throws JMSException {
+    final MessageTableRecord record = new MessageTableRecord();
+    record.setJMSMessageID(messageID);
+    record.setText(text);
+    final Properties properties = new Properties();
+    if (name != null) {
+      properties.put(name, value);
+    }
+    record.setProperties(properties);
+    return record;
+  }
+
+  private static void assertRows(BitSet actual, int... rows) {
+    final BitSet expected = new BitSet();
+    for (int row : rows) {
+      expected.set(row);
+    }
+    assertEquals(expected, actual);
+  }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import javax.jms.JMSException;
+import javax.swing.RowSorter.SortKey;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MessageRowSorter sorting and filtering a MessageTableModel, driven on
+ * the EDT as a JTable would.
+ *
+ * @author Scott Douglass
+ */
+public class MessageRowSorterTest {
+
+  private static final int ROWS = 3000;
+  private static final int EXPIRATION = 6;
+  private static final int PRIORITY = 4;
+  private static final int TEXT = 8;
+  private MessageTableModel model;
+  private MessageRowSorter sorter;
+
+  @Before
+  public void setUp() throws Exception {
+    onEdt(new Task() {
+      @Override
+      public void run() throws Exception {
+        model = new MessageTableModel();
+        model.setData(records(0, ROWS));
+        sorter = new MessageRowSorter(model);
+      }
+    });
+  }
+
+  @Test
+  public void sortsNumbersKeepingTiesInModelOrder() throws Exception {
+    sortBy(PRIORITY, SortOrder.ASCENDING);
+    assertEquals(ROWS, viewRowCount());
+    assertSorted(PRIORITY, false);
+    sortBy(PRIORITY, SortOrder.DESCENDING);
+    assertSorted(PRIORITY, true);
+  }
+
+  @Test
+  public void sortsNumbersTooWideToPackAndText() throws Exception {
+    onEdt(new Task() {
+      @Override
+      public void run() throws Exception {
+        final List<MessageTableRecord> records = records(0, ROWS);
+        for (int i = 0; i < ROWS; i += 2) {
+          records.get(i).setJMSExpiration(Long.MAX_VALUE - i);
+        }
+        model.setData(records);
+        sorter.allRowsChanged();
+      }
+    });
+    await();
+    sortBy(EXPIRATION, SortOrder.ASCENDING);
+    assertSorted(EXPIRATION, false);
+    sortBy(TEXT, SortOrder.DESCENDING);
+    assertSorted(TEXT, true);
+  }
+
+  @Test
+  public void showsOnlyFilteredRows() throws Exception {
+    final BitSet sevens = new BitSet();
+    for (int row = 0; row < ROWS; row += 7) {
+      sevens.set(row);
+    }
+    onEdt(new Task() {
+      @Override
+      public void run() {
+        sorter.setFilter(sevens);
+      }
+    });
+    await();
+    onEdt(new Task() {
+      @Override
+      public void run() {
+        assertEquals(sevens.cardinality(), sorter.getViewRowCount());
+        for (int view = 0; view < sorter.getViewRowCount(); view++) {
+          assertEquals(view * 7, sorter.convertRowIndexToModel(view));
+        }
+        assertEquals(2, sorter.convertRowIndexToView(14));
+        assertEquals(-1, sorter.convertRowIndexToView(15));
+      }
+    });
+    sortBy(PRIORITY, SortOrder.DESCENDING);
+    assertEquals(sevens.cardinality(), viewRowCount());
+    assertSorted(PRIORITY, true);
+    onEdt(new Task() {
+      @Override
+      public void run() {
+        for (int view = 0; view < sorter.getViewRowCount(); view++) {
+          assertTrue(sevens.get(sorter.convertRowIndexToModel(view)));
+        }
+        sorter.setFilter(null);
+        sorter.setSortKeys(null);
+      }
+    });
+    await();
+    onEdt(new Task() {
+      @Override
+      public void run() {
+        // nothing left to sort, so the view is the model
+        assertEquals(ROWS, sorter.getViewRowCount());
+        assertEquals(ROWS - 1, sorter.convertRowIndexToModel(ROWS - 1));
+        assertEquals(15, sorter.convertRowIndexToView(15));
+      }
+    });
+  }
+
+  @Test
+  public void sortsInRowsAddedLater() throws Exception {
+    sortBy(PRIORITY, SortOrder.ASCENDING);
+    onEdt(new Task() {
+      @Override
+      public void run() throws Exception {
+        model.addData(records(ROWS, ROWS + 100));
+        sorter.rowsInserted(ROWS, ROWS + 99);
+        // shown at the end until they are sorted in
+        assertEquals(ROWS + 100, sorter.getViewRowCount());
+        assertEquals(ROWS + 99, sorter.convertRowIndexToModel(ROWS + 99));
+      }
+    });
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (!isSorted(PRIORITY, false) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    await();
+    assertSorted(PRIORITY, false);
+  }
+
+  @Test
+  public void dropsASortTheModelChangedUnder() throws Exception {
+    onEdt(new Task() {
+      @Override
+      public void run() throws Exception {
+        sorter.setSortKeys(Collections.singletonList(
+          new SortKey(PRIORITY, SortOrder.ASCENDING)));
+        assertTrue(sorter.isSorting());
+        // before the sort has read a single value
+        final List<MessageTableRecord> records = records(0, ROWS / 2);
+        for (MessageTableRecord record : records) {
+          record.setJMSPriority(9 - record.getJMSPriority());
+        }
+        model.setData(records);
+        sorter.allRowsChanged();
+      }
+    });
+    await();
+    assertEquals(ROWS / 2, viewRowCount());
+    assertSorted(PRIORITY, false);
+  }
+
+  @Test
+  public void keepsTheOrderWhenOldRowsAreDeleted() throws Exception {
+    sortBy(PRIORITY, SortOrder.DESCENDING);
+    final List<String> before = messageIDs();
+    onEdt(new Task() {
+      @Override
+      public void run() throws Exception {
+        // what eviction leaves in the model, and the event it fires
+        model.setData(records(100, ROWS));
+        sorter.rowsDeleted(0, 99);
+      }
+    });
+    final List<String> expected = new ArrayList<>();
+    for (String messageID : before) {
+      if (Integer.parseInt(messageID.substring(3)) >= 100) {
+        expected.add(messageID);
+      }
+    }
+    assertEquals(expected, messageIDs());
+  }
+
+  @Test
+  public void staysWholeWhenRowsGoWhileSorting() throws Exception {
+    for (int i = 0; i < 30; i++) {
+      final int first = i * 10;
+      onEdt(new Task() {
+        @Override
+        public void run() {
+          sorter.setSortKeys(Collections.singletonList(
+            new SortKey(PRIORITY, SortOrder.ASCENDING)));
+        }
+      });
+      // at any point of the sort: copying, sorting or handing back
+      Thread.sleep(i % 6);
+      onEdt(new Task() {
+        @Override
+        public void run() throws Exception {
+          model.setData(records(first + 10, ROWS));
+          sorter.rowsDeleted(0, 9);
+        }
+      });
+    }
+    await();
+    final BitSet shown = new BitSet();
+    onEdt(new Task() {
+      @Override
+      public void run() {
+        for (int view = 0; view < sorter.getViewRowCount(); view++) {
+          shown.set(sorter.convertRowIndexToModel(view));
+        }
+      }
+    });
+    assertEquals(ROWS - 300, viewRowCount());
+    assertEquals(ROWS - 300, shown.cardinality());
+    assertEquals(ROWS - 300, shown.length());
+    assertSorted(PRIORITY, false);
+  }
+
+  private void sortBy(final int column, final SortOrder order) throws Exception {
+    onEdt(new Task() {
+      @Override
+      public void run() {
+        sorter.setSortKeys(Collections.singletonList(new SortKey(column, order)));
+      }
+    });
+    await();
+  }
+
+  /**
+   * Wait for the sort in progress, and any it started again, to be done.
+   */
+  private void await() throws Exception {
+    final boolean[] sorting = {true};
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (sorting[0]) {
+      assertTrue("still sorting", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+      onEdt(new Task() {
+        @Override
+        public void run() {
+          sorting[0] = sorter.isSorting();
+        }
+      });
+    }
+  }
+
+  private int viewRowCount() throws Exception {
+    final int[] count = new int[1];
+    onEdt(new Task() {
+      @Override
+      public void run() {
+        count[0] = sorter.getViewRowCount();
+      }
+    });
+    return count[0];
+  }
+
+  private List<String> messageIDs() throws Exception {
+    final List<String> messageIDs = new ArrayList<>();
+    onEdt(new Task() {
+      @Override
+      public void run() {
+        for (int view = 0; view < sorter.getViewRowCount(); view++) {
+          messageIDs.add(model.getMessageID(sorter.convertRowIndexToModel(view)));
+        }
+      }
+    });
+    return messageIDs;
+  }
+
+  private void assertSorted(int column, boolean descending) throws Exception {
+    assertTrue("not sorted by column " + column, isSorted(column, descending));
+  }
+
+  /**
+   * True if the view is in column order and equal values keep their model
+   * order.
+   */
+  private boolean isSorted(final int column, final boolean descending) throws Exception {
+    final boolean[] sorted = {true};
+    onEdt(new Task() {
+      @Override
+      public void run() {
+        for (int view = 1; view < sorter.getViewRowCount() && sorted[0]; view++) {
+          final int previous = sorter.convertRowIndexToModel(view - 1);
+          final int row = sorter.convertRowIndexToModel(view);
+          int compared = model.isNumeric(column)
+            ? Long.compare(model.getNumber(previous, column), model.getNumber(row, column))
+            : model.getValueAt(previous, column).toString()
+            .compareTo(model.getValueAt(row, column).toString());
+          if (descending) {
+            compared = -compared;
+          }
+          sorted[0] = compared < 0 || (compared == 0 && previous < row);
+        }
+      }
+    });
+    return sorted[0];
+  }
+
+  private static List<MessageTableRecord> records(int first, int end) throws JMSException {
+    final List<MessageTableRecord> records = new ArrayList<>();
+    for (int number = first; number < end; number++) {
+      records.add(ColumnarMessageStoreTest.record(number));
+    }
+    return records;
+  }
+
+  /**
+   * Runs on the EDT, passing on what it throws.
+   */
+  private interface Task {
+
+    void run() throws Exception;
+  }
+
+  private static void onEdt(final Task task) throws Exception {
+    final Exception[] thrown = new Exception[1];
+    final Error[] failed = new Error[1];
+    SwingUtilities.invokeAndWait(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } catch (Exception e) {
+          thrown[0] = e;
+        } catch (Error e) {
+          failed[0] = e;
+        }
+      }
+    });
+    if (failed[0] != null) {
+      throw failed[0];
+    }
+    if (thrown[0] != null) {
+      throw thrown[0];
+    }
+  }
+}
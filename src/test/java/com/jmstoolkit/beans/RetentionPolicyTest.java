@@ -0,0 +1,71 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * How many rows each RetentionPolicy limit evicts.
+ *
+ * @author Scott Douglass
+ */
+public class RetentionPolicyTest {
+
+  private static final long NOW = 1300000000000L + 100;
+
+  @Test
+  public void unboundedKeepsEverything() throws Exception {
+    assertEquals(0, RetentionPolicy.UNBOUNDED.countExcess(store(100), NOW));
+  }
+
+  @Test
+  public void byCount() throws Exception {
+    assertEquals(0, RetentionPolicy.byCount(100).countExcess(store(100), NOW));
+    assertEquals(40, RetentionPolicy.byCount(60).countExcess(store(100), NOW));
+  }
+
+  @Test
+  public void byBytes() throws Exception {
+    final ColumnarMessageStore store = store(100);
+    long kept = 0;
+    int row = store.size();
+    while (row > 0 && kept + store.getBytes(row - 1) <= 5000) {
+      kept += store.getBytes(--row);
+    }
+    assertEquals(row, RetentionPolicy.byBytes(5000).countExcess(store, NOW));
+  }
+
+  @Test
+  public void byAge() throws Exception {
+    // timestamps run from NOW - 100 to NOW - 1
+    assertEquals(70, RetentionPolicy.byAge(30).countExcess(store(100), NOW));
+  }
+
+  @Test
+  public void theStrictestLimitWins() throws Exception {
+    assertEquals(90, new RetentionPolicy(50, 0L, 10L).countExcess(store(100), NOW));
+    assertEquals(50, new RetentionPolicy(50, 0L, 80L).countExcess(store(100), NOW));
+  }
+
+  private static ColumnarMessageStore store(int rows) throws Exception {
+    final ColumnarMessageStore store = new ColumnarMessageStore();
+    for (int i = 0; i < rows; i++) {
+      store.add(ColumnarMessageStoreTest.record(i));
+    }
+    return store;
+  }
+}
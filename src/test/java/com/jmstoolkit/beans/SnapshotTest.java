@@ -0,0 +1,247 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Properties;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * SnapshotWriter output opened with SnapshotReader: records, trailer,
+ * index and dictionary.
+ *
+ * @author Scott Douglass
+ */
+public class SnapshotTest {
+
+  private static final int RECORDS = 1000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsBackEveryRecord() throws Exception {
+    final Path file = write(RECORDS);
+    final SnapshotReader reader = new SnapshotReader(file);
+    try {
+      assertEquals("queue.test", reader.getSource());
+      assertTrue(reader.getCreated() > 0);
+      assertEquals(RECORDS, reader.size());
+      // backwards, so every record is found through the index
+      for (int i = RECORDS - 1; i >= 0; i--) {
+        assertRecord(i, reader.get(i));
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void writesTheTrailerAndIndex() throws Exception {
+    final Path file = write(RECORDS);
+    final ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+    assertEquals(SnapshotWriter.MAGIC, bytes.getInt(0));
+    assertEquals(SnapshotWriter.VERSION, bytes.getShort(4));
+    final int trailer = bytes.limit() - SnapshotWriter.TRAILER_SIZE;
+    final long dictionaryOffset = bytes.getLong(trailer);
+    final long indexOffset = bytes.getLong(trailer + 8);
+    assertEquals(RECORDS, bytes.getInt(trailer + 16));
+    assertEquals(SnapshotWriter.END, bytes.getInt(trailer + 20));
+    assertEquals(trailer, indexOffset + 8L * RECORDS);
+    long previous = 0;
+    for (int i = 0; i < RECORDS; i++) {
+      final long offset = bytes.getLong((int) indexOffset + 8 * i);
+      assertTrue(offset > previous);
+      assertTrue(offset < dictionaryOffset);
+      previous = offset;
+    }
+  }
+
+  @Test
+  public void keepsRepeatedStringsInTheDictionary() throws Exception {
+    final Path file = write(RECORDS);
+    final ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+    final int trailer = bytes.limit() - SnapshotWriter.TRAILER_SIZE;
+    // type0..type2, the queue, the reply queue and the property name
+    assertEquals(6, bytes.getInt((int) bytes.getLong(trailer)));
+  }
+
+  @Test
+  public void keepsObjectBodiesAsBytesUntilAskedFor() throws Exception {
+    final Path file = folder.getRoot().toPath().resolve("objects.jtks");
+    try (SnapshotWriter writer = new SnapshotWriter(file, "objects")) {
+      final MessageTableRecord allowed = record(0);
+      allowed.setText(null);
+      allowed.setBodyLoaded(true);
+      allowed.setObject(new HashMap<>(Collections.singletonMap("k", 1L)));
+      writer.write(allowed);
+      final MessageTableRecord refused = record(1);
+      refused.setText(null);
+      refused.setObject(new SpillFileTest.Payload());
+      writer.write(refused);
+    }
+    final SnapshotReader reader = new SnapshotReader(file);
+    try {
+      final MessageTableRecord allowed = reader.get(0);
+      assertTrue(allowed.hasObject());
+      assertEquals(Collections.singletonMap("k", 1L), allowed.getObject());
+      assertTrue(allowed.isBodyLoaded());
+      final MessageTableRecord refused = reader.get(1);
+      assertTrue(refused.hasObject());
+      assertNull(refused.getObject());
+      assertFalse(refused.isBodyLoaded());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void keepsAddedAndReplacedRecordsInMemory() throws Exception {
+    final Path file = write(3);
+    final SnapshotReader reader = new SnapshotReader(file);
+    try {
+      final MessageTableRecord replacement = record(1);
+      replacement.setText("loaded");
+      reader.set(1, replacement);
+      reader.add(record(3));
+      assertEquals(4, reader.size());
+      assertEquals("loaded", reader.get(1).getText());
+      assertRecord(3, reader.get(3));
+    } finally {
+      reader.close();
+    }
+    final SnapshotReader reopened = new SnapshotReader(file);
+    try {
+      assertEquals(3, reopened.size());
+      assertRecord(1, reopened.get(1));
+    } finally {
+      reopened.close();
+    }
+  }
+
+  @Test
+  public void refusesASnapshotThatWasNotClosed() throws Exception {
+    final Path file = folder.getRoot().toPath().resolve("open.jtks");
+    final SnapshotWriter writer = new SnapshotWriter(file, "open");
+    // more than the writer buffers, so records reach the file
+    for (int i = 0; i < RECORDS * 2; i++) {
+      writer.write(record(i));
+    }
+    assertRefused(file, "Snapshot is incomplete");
+    writer.close();
+    final SnapshotReader reopened = new SnapshotReader(file);
+    try {
+      assertEquals(RECORDS * 2, reopened.size());
+    } finally {
+      reopened.close();
+    }
+  }
+
+  @Test
+  public void refusesOtherFilesAndNewerVersions() throws Exception {
+    final Path other = folder.getRoot().toPath().resolve("other.jtks");
+    final byte[] noise = new byte[100];
+    Arrays.fill(noise, (byte) 7);
+    Files.write(other, noise);
+    assertRefused(other, "Not a snapshot");
+
+    final Path newer = write(1);
+    try (RandomAccessFile file = new RandomAccessFile(newer.toFile(), "rw")) {
+      file.seek(4);
+      file.writeShort(SnapshotWriter.VERSION + 1);
+    }
+    assertRefused(newer, "Snapshot version");
+  }
+
+  private Path write(int records) throws Exception {
+    final Path file = folder.newFile().toPath();
+    try (SnapshotWriter writer = new SnapshotWriter(file, "queue.test")) {
+      for (int i = 0; i < records; i++) {
+        writer.write(record(i));
+      }
+      assertEquals(records, writer.getCount());
+    }
+    return file;
+  }
+
+  private static void assertRefused(Path file, String message) {
+    try {
+      new SnapshotReader(file).close();
+      fail(file.toString());
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+    }
+  }
+
+  private static MessageTableRecord record(int number) throws Exception {
+    final MessageTableRecord record = new MessageTableRecord();
+    record.setJMSMessageID("ID:" + number);
+    record.setJMSTimestamp(1300000000000L + number);
+    record.setJMSExpiration(number);
+    record.setJMSPriority(number % 10);
+    record.setJMSDeliveryMode(number % 2 + 1);
+    record.setJMSRedelivered(number % 2 == 0);
+    record.setJMSCorrelationID(number % 4 == 0 ? null : "corr" + number);
+    record.setJMSCorrelationIDAsBytes(new byte[]{(byte) number});
+    record.setJMSType("type" + (number % 3));
+    record.setJMSDestination(new ActiveMQQueue("snapshot.test"));
+    record.setJMSReplyTo(new ActiveMQQueue("snapshot.reply"));
+    final Properties properties = new Properties();
+    properties.put("number", "n" + number);
+    record.setProperties(properties);
+    record.setText(number % 5 == 0 ? "" : "body " + number);
+    record.setBodyLoaded(number % 3 != 0);
+    return record;
+  }
+
+  private static void assertRecord(int number, MessageTableRecord actual)
+    throws Exception {
+    final MessageTableRecord expected = record(number);
+    assertEquals(expected.getJMSMessageID(), actual.getJMSMessageID());
+    assertEquals(expected.getJMSTimestamp(), actual.getJMSTimestamp());
+    assertEquals(expected.getJMSExpiration(), actual.getJMSExpiration());
+    assertEquals(expected.getJMSPriority(), actual.getJMSPriority());
+    assertEquals(expected.getJMSDeliveryMode(), actual.getJMSDeliveryMode());
+    assertEquals(expected.getJMSRedelivered(), actual.getJMSRedelivered());
+    assertEquals(expected.getJMSCorrelationID(), actual.getJMSCorrelationID());
+    assertArrayEquals(expected.getJMSCorrelationIDAsBytes(),
+      actual.getJMSCorrelationIDAsBytes());
+    assertEquals(expected.getJMSType(), actual.getJMSType());
+    assertEquals(expected.getJMSDestination().toString(),
+      actual.getJMSDestination().toString());
+    assertEquals(expected.getJMSReplyTo().toString(), actual.getJMSReplyTo().toString());
+    assertEquals(expected.getProperties(), actual.getProperties());
+    assertEquals(expected.getText(), actual.getText());
+    assertEquals(expected.isBodyLoaded(), actual.isBodyLoaded());
+    assertFalse(actual.hasObject());
+  }
+}
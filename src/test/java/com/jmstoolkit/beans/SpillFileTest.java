@@ -0,0 +1,195 @@
+/*
+ * Copyright 2011, Scott Douglass <scott@swdouglass.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * on the World Wide Web for more details:
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ */
+package com.jmstoolkit.beans;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SpillFile with 4 KB segments, so records land at, next to and across
+ * segment boundaries.
+ *
+ * @author Scott Douglass
+ */
+public class SpillFileTest {
+
+  private static final int SEGMENT = 4096;
+  private SpillFile spill;
+
+  @Before
+  public void setUp() throws Exception {
+    spill = new SpillFile(SEGMENT);
+  }
+
+  @After
+  public void tearDown() {
+    spill.close();
+  }
+
+  @Test
+  public void readsRecordsAroundSegmentBoundaries() throws Exception {
+    // sizes that do not divide the segment, so some records would cross
+    for (int i = 0; i < 200; i++) {
+      spill.add(record(i, text(i, 50 + (i * 37) % 700)));
+    }
+    assertTrue(spill.length() > 10 * SEGMENT);
+    for (int i = 199; i >= 0; i--) {
+      assertEquals(text(i, 50 + (i * 37) % 700), spill.get(i).getText());
+      assertInOneSegment(i);
+    }
+  }
+
+  @Test
+  public void readsRecordsLargerThanASegment() throws Exception {
+    spill.add(record(0, "small"));
+    spill.add(record(1, text(1, 3 * SEGMENT + 11)));
+    spill.add(record(2, "after"));
+    assertEquals(text(1, 3 * SEGMENT + 11), spill.get(1).getText());
+    assertEquals("small", spill.get(0).getText());
+    assertEquals("after", spill.get(2).getText());
+  }
+
+  @Test
+  public void readsWhileTheLastSegmentGrows() throws Exception {
+    for (int i = 0; i < 50; i++) {
+      spill.add(record(i, text(i, 100)));
+      // maps the segment as far as it is written so far
+      assertEquals(text(i, 100), spill.get(i).getText());
+    }
+    for (int i = 0; i < 50; i++) {
+      assertEquals("ID:" + i, spill.get(i).getJMSMessageID());
+    }
+  }
+
+  @Test
+  public void setReplacesTheCachedRecord() throws Exception {
+    final MessageTableRecord preview = record(0, "cut");
+    preview.setBodyLoaded(false);
+    spill.add(preview);
+    spill.add(record(1, "other"));
+    assertFalse(spill.get(0).isBodyLoaded());
+    spill.set(0, record(0, "the whole body"));
+    assertEquals("the whole body", spill.get(0).getText());
+    assertTrue(spill.get(0).isBodyLoaded());
+    assertEquals(2, spill.size());
+  }
+
+  @Test
+  public void keepsEveryField() throws Exception {
+    final MessageTableRecord record = record(7, "text");
+    record.setJMSCorrelationIDAsBytes(new byte[]{7, 8, 9});
+    record.setJMSReplyTo(new ActiveMQTopic("reply"));
+    record.setProperties(null);
+    spill.add(record);
+    final MessageTableRecord read = spill.get(0);
+    assertEquals("ID:7", read.getJMSMessageID());
+    assertEquals(1300000000007L, read.getJMSTimestamp());
+    assertEquals(1300000060007L, read.getJMSExpiration());
+    assertEquals(7, read.getJMSPriority());
+    assertEquals(1, read.getJMSDeliveryMode());
+    assertTrue(read.getJMSRedelivered());
+    assertEquals("corr7", read.getJMSCorrelationID());
+    assertEquals("type", read.getJMSType());
+    assertEquals(Arrays.toString(new byte[]{7, 8, 9}),
+      Arrays.toString(read.getJMSCorrelationIDAsBytes()));
+    assertEquals(new ActiveMQQueue("spill.test"), read.getJMSDestination());
+    assertEquals(new ActiveMQTopic("reply"), read.getJMSReplyTo());
+    assertNull(read.getProperties());
+  }
+
+  @Test
+  public void deserializesAllowedObjectBodiesWhenAskedFor() throws Exception {
+    final MessageTableRecord record = record(0, null);
+    record.setObject(new ArrayList<>(Arrays.asList("a", 1, 2L)));
+    spill.add(record);
+    final MessageTableRecord read = spill.get(0);
+    assertTrue(read.hasObject());
+    assertEquals(Arrays.asList("a", 1, 2L), read.getObject());
+    assertTrue(read.isBodyLoaded());
+  }
+
+  @Test
+  public void refusesObjectBodiesNotOnTheAllowList() throws Exception {
+    final MessageTableRecord record = record(0, null);
+    record.setObject(new Payload());
+    spill.add(record);
+    final MessageTableRecord read = spill.get(0);
+    assertTrue(read.hasObject());
+    assertTrue(read.isBodyLoaded());
+    assertNull(read.getObject());
+    assertFalse(read.isBodyLoaded());
+  }
+
+  /**
+   * A record that fits in a segment must not cross into the next one, so
+   * it can be read from a single mapping.
+   */
+  private void assertInOneSegment(int row) throws Exception {
+    final Method getOffset = SpillFile.class.getDeclaredMethod("getOffset", int.class);
+    getOffset.setAccessible(true);
+    final long offset = (Long) getOffset.invoke(spill, row);
+    final Field channel = SpillFile.class.getDeclaredField("channel");
+    channel.setAccessible(true);
+    final ByteBuffer length = ByteBuffer.allocate(4);
+    ((FileChannel) channel.get(spill)).read(length, offset);
+    final long end = offset + 4 + length.getInt(0) - 1;
+    assertEquals("record " + row + " at " + offset, offset / SEGMENT, end / SEGMENT);
+  }
+
+  static MessageTableRecord record(int number, String text) throws Exception {
+    final MessageTableRecord record = new MessageTableRecord();
+    record.setJMSMessageID("ID:" + number);
+    record.setJMSTimestamp(1300000000000L + number);
+    record.setJMSExpiration(1300000060000L + number);
+    record.setJMSPriority(number % 10);
+    record.setJMSDeliveryMode(1);
+    record.setJMSRedelivered(true);
+    record.setJMSCorrelationID("corr" + number);
+    record.setJMSType("type");
+    record.setJMSDestination(new ActiveMQQueue("spill.test"));
+    record.setText(text);
+    return record;
+  }
+
+  private static String text(int number, int length) {
+    final StringBuilder text = new StringBuilder(length);
+    while (text.length() < length) {
+      text.append((char) ('a' + (number + text.length()) % 26));
+    }
+    return text.toString();
+  }
+
+  /**
+   * Serializable, but not a class a message body may be read back as.
+   */
+  static final class Payload implements Serializable {
+    private static final long serialVersionUID = 1L;
+  }
+}